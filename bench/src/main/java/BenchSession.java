@@ -0,0 +1,37 @@
+import quickfix.DefaultMessageFactory;
+import quickfix.DefaultSessionFactory;
+import quickfix.MemoryStoreFactory;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+
+/**
+ * Starts a MyApp with a single real, never connected, QuickFIX/J session for the fixtures to drive,
+ * so whatever the application sends goes through Session.sendToTarget without any network
+ */
+public class BenchSession
+{
+  /**
+   * @param sessionID - the session to create
+   * @param settings - the application's settings, which the session's own are added to
+   * @return - the application, with the session created and its onCreate called
+   */
+  static MyApp start(SessionID sessionID, SessionSettings settings) throws Exception
+  {
+    if (!settings.isSetting("username"))
+      settings.setString("username", "bench");
+    if (!settings.isSetting("password"))
+      settings.setString("password", "bench");
+    settings.setString(sessionID, "ConnectionType", "initiator");
+    settings.setString(sessionID, "StartTime", "00:00:00");
+    settings.setString(sessionID, "EndTime", "00:00:00");
+    settings.setString(sessionID, "HeartBtInt", "30");
+    settings.setString(sessionID, "UseDataDictionary", "N");
+    // keep the never connected session from retaining every message sent
+    settings.setString(sessionID, "PersistMessages", "N");
+    MyApp app = new MyApp(settings);
+    // creating the session registers it for sendToTarget and calls app.onCreate
+    new DefaultSessionFactory(app, new MemoryStoreFactory(), null, new DefaultMessageFactory())
+      .create(sessionID, settings);
+    return app;
+  }
+}
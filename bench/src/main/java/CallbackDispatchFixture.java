@@ -0,0 +1,68 @@
+import java.util.Map;
+
+import jmh.Fixture;
+import quickfix.DataDictionary;
+import quickfix.Message;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+import quickfix.fix44.CollateralReport;
+
+/**
+ * The inbound message path with the handlers run on the QuickFIX/J thread, offloaded to a thread pool
+ * or to virtual threads, fed with the execution and position reports captured in
+ * bench/fxcm-captured.fix
+ *
+ * Operations:
+ *   fromApp  how long fromApp holds the callback thread, alternating the two reports
+ * Parameters:
+ *   model    the CallbackModel, INLINE, EXECUTOR or VIRTUAL
+ *
+ * The latency from the arrival of each report until it was handled is printed at the end of the trial.
+ */
+public class CallbackDispatchFixture implements Fixture
+{
+  private MyApp app;
+  private CallbackDispatcher callbacks;
+  private String label;
+  private int next;
+
+  public Operation open(String operation, Map<String, String> params) throws Exception
+  {
+    if (!operation.equals("fromApp"))
+      throw new IllegalArgumentException("No operation " + operation);
+    DataDictionary dictionary = new DataDictionary(params.get("dictionary"));
+    CapturedMessages captured = new CapturedMessages(params.get("capture"), dictionary);
+    Message[] reports = { captured.parsed("8"), captured.parsed("AP") };
+    CallbackDispatcher.Model model = CallbackDispatcher.Model.valueOf(params.get("model"));
+
+    SessionID sessionID = new SessionID("FIX.4.4", "fxcm_client_" + model.name().toLowerCase(), "FXCM");
+    SessionSettings settings = new SessionSettings();
+    settings.setString("CallbackModel", model.name());
+    app = BenchSession.start(sessionID, settings);
+    callbacks = app.getCallbacks();
+    app.fromApp(captured.parsed(CollateralReport.MSGTYPE), sessionID);
+    // VIRTUAL falls back to EXECUTOR where the JVM has no virtual threads
+    label = model == callbacks.getModel() ? model.name() : model.name() + " on " + callbacks.getModel().name();
+    return sink -> app.fromApp(reports[next++ & 1], sessionID);
+  }
+
+  /**
+   * Let the handlers catch up, so no iteration starts behind the last one's backlog
+   */
+  public void iteration() throws InterruptedException
+  {
+    while (callbacks.getQueued() > 0)
+      Thread.sleep(1);
+    // the last message taken off the queue may still be in its handler
+    Thread.sleep(10);
+  }
+
+  public void close() throws InterruptedException
+  {
+    iteration();
+    LatencyHistogram latency = app.getMetrics().queueWait("Callbacks");
+    System.out.println(String.format("%s: arrival to handled p50=%.1f p99=%.1f p99.9=%.1f max=%.1f us", label,
+      latency.getP50Micros(), latency.getP99Micros(), latency.getP999Micros(), latency.getMaxMicros()));
+    callbacks.close();
+  }
+}
@@ -0,0 +1,74 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import quickfix.DataDictionary;
+import quickfix.DefaultMessageFactory;
+import quickfix.Message;
+import quickfix.MessageUtils;
+
+/**
+ * Loads captured FIX traffic for the benchmarks
+ *
+ * The capture holds one message per line with | in place of SOH; blank lines and lines starting
+ * with # are skipped. Every message is validated against the data dictionary as it is loaded.
+ */
+public class CapturedMessages
+{
+  private final List<String> raw = new ArrayList<String>();
+  private final List<Message> parsed = new ArrayList<Message>();
+
+  /**
+   * @param path - the capture file
+   * @param dictionary - the dictionary the messages must validate against
+   * @throws Exception - if the file cannot be read or a message does not validate
+   */
+  public CapturedMessages(String path, DataDictionary dictionary) throws Exception
+  {
+    DefaultMessageFactory factory = new DefaultMessageFactory();
+    BufferedReader in = new BufferedReader(new FileReader(path));
+    try
+    {
+      String line;
+      while ((line = in.readLine()) != null)
+      {
+        if (line.isEmpty() || line.startsWith("#"))
+          continue;
+        String message = line.replace('|', '\001');
+        Message parsedMessage = MessageUtils.parse(factory, dictionary, message);
+        dictionary.validate(parsedMessage);
+        raw.add(message);
+        parsed.add(parsedMessage);
+      }
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  /**
+   * Retrieve the first captured message of the given type, as it arrived off the wire
+   */
+  public String raw(String msgType) throws Exception
+  {
+    return raw.get(indexOf(msgType));
+  }
+
+  /**
+   * Retrieve the first captured message of the given type, parsed into its typed message class
+   */
+  public Message parsed(String msgType) throws Exception
+  {
+    return parsed.get(indexOf(msgType));
+  }
+
+  private int indexOf(String msgType) throws Exception
+  {
+    for (int i = 0; i < parsed.size(); i++)
+      if (parsed.get(i).getHeader().getString(quickfix.field.MsgType.FIELD).equals(msgType))
+        return i;
+    throw new IllegalArgumentException("No captured message of type " + msgType);
+  }
+}
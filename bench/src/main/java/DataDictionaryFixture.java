@@ -0,0 +1,55 @@
+import java.util.Map;
+
+import jmh.Fixture;
+import quickfix.DataDictionary;
+import quickfix.DefaultMessageFactory;
+import quickfix.Message;
+import quickfix.MessageUtils;
+
+/**
+ * Compares the full FXCM data dictionary with the one trimmed by DictionaryTrimmer: the time to load
+ * it, as every start does, and the time to parse and validate each captured message type with it
+ *
+ * Operations:
+ *   load                     loading the dictionary
+ *   validate.<type>          validating an already parsed message
+ *   parseValidate.<type>     parsing the captured text with the dictionary, then validating it
+ * for the BA, W, 8 and AP captured in bench/fxcm-captured.fix
+ * Parameters:
+ *   dictionary               the dictionary under test
+ *   full                     the full dictionary the capture is read with
+ *
+ * The first load in a fresh JVM, which is what a start pays, is printed when the fixture is opened;
+ * load measures the steady state cost.
+ */
+public class DataDictionaryFixture implements Fixture
+{
+  static final private String[] TYPES = { "BA", "W", "8", "AP" };
+
+  public Operation open(String operation, Map<String, String> params) throws Exception
+  {
+    String path = params.get("dictionary");
+    long start = System.nanoTime();
+    DataDictionary dictionary = new DataDictionary(path);
+    System.out.println(String.format("first load of %s: %.1f ms", path, (System.nanoTime() - start) / 1e6));
+    if (operation.equals("load"))
+      return sink -> sink.consume(new DataDictionary(path));
+
+    CapturedMessages captured = new CapturedMessages(params.get("capture"), new DataDictionary(params.get("full")));
+    DefaultMessageFactory factory = new DefaultMessageFactory();
+    for (String type : TYPES)
+    {
+      if (operation.equals("validate." + type))
+      {
+        Message message = captured.parsed(type);
+        return sink -> dictionary.validate(message);
+      }
+      if (operation.equals("parseValidate." + type))
+      {
+        String raw = captured.raw(type);
+        return sink -> dictionary.validate(MessageUtils.parse(factory, dictionary, raw));
+      }
+    }
+    throw new IllegalArgumentException("No operation " + operation);
+  }
+}
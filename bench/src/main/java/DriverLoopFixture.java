@@ -0,0 +1,68 @@
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jmh.Fixture;
+import quickfix.field.Account;
+
+/**
+ * Compares the trading driver's account x instrument sweep indexing a fresh toArray() copy per loop
+ * step, as runExample used to, with walking lists copied once up front
+ *
+ * Orders are not sent, the sweep only visits each account and instrument pair so the cost measured
+ * is the iteration itself.
+ *
+ * Operations:
+ *   toArrayPerIndex    a toArray() copy per loop step
+ *   listsCopiedOnce    FIXTradingTester.immutableList copies, walked
+ * Parameters:
+ *   size               <accounts>x<instruments>
+ */
+public class DriverLoopFixture implements Fixture
+{
+  public Operation open(String operation, Map<String, String> params)
+  {
+    String[] size = params.get("size").split("x");
+    Set<Account> accounts = new LinkedHashSet<Account>();
+    for (int a = 0; a < Integer.parseInt(size[0]); a++)
+      accounts.add(new Account(String.valueOf(1000000 + a)));
+    Set<String> instruments = new LinkedHashSet<String>();
+    for (int i = 0; i < Integer.parseInt(size[1]); i++)
+      instruments.add("SYM" + i + "/USD");
+
+    if (operation.equals("toArrayPerIndex"))
+    {
+      return sink ->
+      {
+        long visited = 0;
+        for (int a = 0; a < accounts.size(); a++)
+        {
+          Account account = (Account)accounts.toArray()[a];
+          for (int i = 0; i < instruments.size(); i++)
+          {
+            String instrument = (String)instruments.toArray()[i];
+            visited += account.getValue().length() + instrument.length();
+          }
+        }
+        sink.consume(visited);
+      };
+    }
+    if (operation.equals("listsCopiedOnce"))
+    {
+      return sink ->
+      {
+        long visited = 0;
+        List<Account> accountList = FIXTradingTester.immutableList(accounts);
+        List<String> instrumentList = FIXTradingTester.immutableList(instruments);
+        for (Account account : accountList)
+        {
+          for (String instrument : instrumentList)
+            visited += account.getValue().length() + instrument.length();
+        }
+        sink.consume(visited);
+      };
+    }
+    throw new IllegalArgumentException("No operation " + operation);
+  }
+}
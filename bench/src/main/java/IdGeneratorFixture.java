@@ -0,0 +1,48 @@
+import java.util.Map;
+
+import jmh.Fixture;
+import quickfix.SessionID;
+
+/**
+ * Compares the ClOrdID MyApp used to build, the session id, the time and a synchronized counter
+ * concatenated per order, with IdGenerator
+ *
+ * The counter and the generator are shared by every benchmark thread, so running with threads
+ * measures them contended.
+ *
+ * Operations:
+ *   concatenated    the old concatenated ClOrdID
+ *   next            IdGenerator.next()
+ *   nextChars       IdGenerator.next(char[]) into a per thread buffer
+ */
+public class IdGeneratorFixture implements Fixture
+{
+  static final private SessionID SESSION_ID = new SessionID("FIX.4.4", "fxcm_client", "FXCM");
+  static final private IdGenerator IDS = new IdGenerator("0");
+
+  // the counter MyApp used to share between every request type
+  static private long requestID;
+
+  static synchronized long nextID()
+  {
+    requestID++;
+    if (requestID > 0x7FFFFFF0)
+      requestID = 1;
+    return requestID;
+  }
+
+  public Operation open(String operation, Map<String, String> params)
+  {
+    if (operation.equals("concatenated"))
+      return sink -> sink.consume(SESSION_ID + "-" + System.currentTimeMillis() + "-" + Long.toString(nextID()));
+    if (operation.equals("next"))
+      return sink -> sink.consume(IDS.next());
+    if (operation.equals("nextChars"))
+    {
+      // the fixture is opened once per benchmark thread
+      char[] buffer = new char[64];
+      return sink -> sink.consume(IDS.next(buffer, 0));
+    }
+    throw new IllegalArgumentException("No operation " + operation);
+  }
+}
@@ -0,0 +1,78 @@
+import java.util.Map;
+
+import jmh.Fixture;
+import quickfix.DataDictionary;
+import quickfix.fix44.MarketDataSnapshotFullRefresh;
+
+/**
+ * Measures what publishing a top of book update costs the QuickFIX/J thread with subscribers of
+ * different speeds attached, and how much a slow subscriber's updates are conflated
+ *
+ * Operations:
+ *   publish       MarketDataFeed.publish of the next symbol's quote
+ * Parameters:
+ *   subscriber    none, fast, or slow, which spins 20 us per quote
+ *
+ * The subscriber's counters and the publish to delivery latency are printed at the end of the trial.
+ */
+public class MarketDataFeedFixture implements Fixture
+{
+  // symbols the captured snapshot is replayed as
+  static final private String[] SYMBOLS = { "EUR/USD", "USD/JPY", "GBP/USD", "USD/CHF", "AUD/USD",
+    "USD/CAD", "NZD/USD", "EUR/JPY" };
+  // work a slow subscriber does per quote
+  static final private long SLOW_NANOS = 20000;
+
+  // written by the subscriber thread, which has no Blackhole of its own
+  static volatile double sinkDouble;
+
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private MarketDataFeed feed;
+  private MarketDataFeed.Subscription subscription;
+  private int next;
+
+  public Operation open(String operation, Map<String, String> params) throws Exception
+  {
+    if (!operation.equals("publish"))
+      throw new IllegalArgumentException("No operation " + operation);
+    DataDictionary dictionary = new DataDictionary(params.get("dictionary"));
+    CapturedMessages captured = new CapturedMessages(params.get("capture"), dictionary);
+    TopOfBookCache book = new TopOfBookCache(9095, SYMBOLS.length);
+    int[] slots = new int[SYMBOLS.length];
+    for (int s = 0; s < SYMBOLS.length; s++)
+    {
+      MarketDataSnapshotFullRefresh snapshot = (MarketDataSnapshotFullRefresh)captured.parsed("W");
+      snapshot.setString(quickfix.field.Symbol.FIELD, SYMBOLS[s]);
+      slots[s] = book.update(snapshot, 0);
+    }
+
+    feed = new MarketDataFeed(book, 4096, latency);
+    String subscriber = params.get("subscriber");
+    if (subscriber.equals("fast"))
+      subscription = feed.subscribe("fast", null, (symbol, quote) -> sinkDouble = quote.getBid());
+    else if (subscriber.equals("slow"))
+      subscription = feed.subscribe("slow", null, (symbol, quote) ->
+      {
+        long until = System.nanoTime() + SLOW_NANOS;
+        while (System.nanoTime() < until)
+          Thread.onSpinWait();
+      });
+    else if (!subscriber.equals("none"))
+      throw new IllegalArgumentException("No subscriber " + subscriber);
+    return sink -> feed.publish(slots[next++ % slots.length], System.nanoTime());
+  }
+
+  public void close() throws InterruptedException
+  {
+    if (subscription != null)
+    {
+      // let the subscriber catch up before reading its counters
+      Thread.sleep(100);
+      subscription.close();
+      System.out.println(String.format("%d published, %d read, %d delivered, %d overruns, latency p50=%.1f p99=%.1f us",
+        feed.getPublished(), subscription.getUpdates(), subscription.getDelivered(), subscription.getOverruns(),
+        latency.getP50Micros(), latency.getP99Micros()));
+    }
+    feed.close();
+  }
+}
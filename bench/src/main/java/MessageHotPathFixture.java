@@ -0,0 +1,80 @@
+import java.util.Map;
+
+import jmh.Fixture;
+import quickfix.DataDictionary;
+import quickfix.DefaultMessageFactory;
+import quickfix.Message;
+import quickfix.MessageUtils;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+import quickfix.field.OrderQty;
+import quickfix.field.Side;
+import quickfix.field.Symbol;
+import quickfix.field.TimeInForce;
+import quickfix.fix44.CollateralReport;
+
+/**
+ * The message paths MyApp runs for every order and every inbound message, fed with the captured FXCM
+ * traffic in bench/fxcm-captured.fix
+ *
+ * Operations:
+ *   nextID                    a request id
+ *   sendMarketOrder           NewOrderSingle from its template, sent through the never connected session
+ *   fromApp.<message>         fromApp() of an already parsed message
+ *   parseFromApp.<message>    parsing the captured text, then fromApp()
+ * for the CollateralReport, MarketDataSnapshotFullRefresh, ExecutionReport and PositionReport
+ */
+public class MessageHotPathFixture implements Fixture
+{
+  static final private String[] TYPES = { "BA", "W", "8", "AP" };
+  static final private String[] NAMES = { "CollateralReport", "MarketDataSnapshotFullRefresh", "ExecutionReport",
+    "PositionReport" };
+
+  private final SessionID sessionID = new SessionID("FIX.4.4", "fxcm_client", "FXCM");
+  private MyApp app;
+
+  public Operation open(String operation, Map<String, String> params) throws Exception
+  {
+    DataDictionary dictionary = new DataDictionary(params.get("dictionary"));
+    CapturedMessages captured = new CapturedMessages(params.get("capture"), dictionary);
+    app = BenchSession.start(sessionID, new SessionSettings());
+    // log in the account the orders are placed on
+    CollateralReport collateral = (CollateralReport)captured.parsed(CollateralReport.MSGTYPE);
+    app.fromApp(collateral, sessionID);
+
+    if (operation.equals("nextID"))
+      return sink -> sink.consume(app.nextID(sessionID));
+    if (operation.equals("sendMarketOrder"))
+    {
+      Side side = new Side(Side.SELL);
+      Symbol symbol = new Symbol("EUR/USD");
+      OrderQty orderQty = new OrderQty(10000);
+      TimeInForce timeInForce = new TimeInForce(TimeInForce.GOOD_TILL_CANCEL);
+      return sink -> sink.consume(app.sendMarketOrder(sessionID, collateral, side, symbol, orderQty, timeInForce));
+    }
+    DefaultMessageFactory factory = new DefaultMessageFactory();
+    for (int t = 0; t < TYPES.length; t++)
+    {
+      if (operation.equals("fromApp." + NAMES[t]))
+      {
+        Message message = captured.parsed(TYPES[t]);
+        return sink -> app.fromApp(message, sessionID);
+      }
+      if (operation.equals("parseFromApp." + NAMES[t]))
+      {
+        String raw = captured.raw(TYPES[t]);
+        return sink -> app.fromApp(MessageUtils.parse(factory, dictionary, raw), sessionID);
+      }
+    }
+    throw new IllegalArgumentException("No operation " + operation);
+  }
+
+  /**
+   * The orders sent are never answered, so release them, and the templates they were built from,
+   * before they fill the heap
+   */
+  public void iteration()
+  {
+    app.onLogout(sessionID);
+  }
+}
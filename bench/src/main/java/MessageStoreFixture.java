@@ -0,0 +1,140 @@
+import java.io.Closeable;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import jmh.Fixture;
+import quickfix.FileStoreFactory;
+import quickfix.MessageStore;
+import quickfix.MessageStoreFactory;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+import quickfix.field.Account;
+import quickfix.field.ClOrdID;
+import quickfix.field.MsgSeqNum;
+import quickfix.field.OrdType;
+import quickfix.field.OrderQty;
+import quickfix.field.SecondaryClOrdID;
+import quickfix.field.SenderCompID;
+import quickfix.field.SendingTime;
+import quickfix.field.Side;
+import quickfix.field.Symbol;
+import quickfix.field.TargetCompID;
+import quickfix.field.TimeInForce;
+import quickfix.field.TransactTime;
+import quickfix.fix44.NewOrderSingle;
+
+/**
+ * Compares FileStoreFactory with MappedMessageStoreFactory on the store work the session does for
+ * every order sent: storing the message and incrementing the next sender sequence number
+ *
+ * Each store is measured as it runs with ResetOnLogon=Y, starting from a reset, and with
+ * ResetOnLogon=N, reopening the journal a previous run left behind and carrying on from its
+ * sequence number.
+ *
+ * Operations:
+ *   send      store a NewOrderSingle and increment the sequence number
+ *   reopen    close the store and create it again from its files
+ * Parameters:
+ *   store     FileStore, FileStoreSync, mappedOS, mappedGROUP or mappedSYNC
+ *   reset     Y to start from a reset store, N to reopen one holding a previous run's messages
+ */
+public class MessageStoreFixture implements Fixture
+{
+  // messages the previous run leaves behind for ResetOnLogon=N
+  static final private int PREVIOUS_RUN = 10000;
+
+  private final SessionID sessionID = new SessionID("FIX.4.4", "fxcm_client", "FXCM");
+  private File directory;
+  private MessageStore store;
+
+  public Operation open(String operation, Map<String, String> params) throws Exception
+  {
+    String order = order();
+    directory = Files.createTempDirectory("store-bench").toFile();
+    String name = params.get("store");
+    SessionSettings settings = new SessionSettings();
+    settings.setString(FileStoreFactory.SETTING_FILE_STORE_PATH, directory.getPath());
+    MessageStoreFactory factory;
+    if (name.startsWith("FileStore"))
+    {
+      settings.setString(FileStoreFactory.SETTING_FILE_STORE_SYNC, name.equals("FileStoreSync") ? "Y" : "N");
+      factory = new FileStoreFactory(settings);
+    }
+    else if (name.startsWith("mapped"))
+    {
+      settings.setString(MappedMessageStoreFactory.SETTING_DURABILITY, name.substring("mapped".length()));
+      factory = new MappedMessageStoreFactory(settings);
+    }
+    else
+      throw new IllegalArgumentException("No store " + name);
+
+    store = factory.create(sessionID);
+    store.reset();
+    if (params.get("reset").equals("N"))
+    {
+      // ResetOnLogon=N, the session reopens the store and carries on from its sequence numbers
+      for (int i = 0; i < PREVIOUS_RUN; i++)
+        send(store, order);
+      ((Closeable)store).close();
+      long start = System.nanoTime();
+      store = factory.create(sessionID);
+      System.out.println(String.format("%s: %.1f ms to reopen at sequence %d", name, (System.nanoTime() - start) / 1e6,
+        store.getNextSenderMsgSeqNum()));
+    }
+
+    if (operation.equals("send"))
+      return sink -> send(store, order);
+    if (operation.equals("reopen"))
+    {
+      return sink ->
+      {
+        ((Closeable)store).close();
+        store = factory.create(sessionID);
+        sink.consume(store.getNextSenderMsgSeqNum());
+      };
+    }
+    throw new IllegalArgumentException("No operation " + operation);
+  }
+
+  public void close() throws Exception
+  {
+    ((Closeable)store).close();
+    try (Stream<Path> files = Files.walk(directory.toPath()))
+    {
+      files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  /**
+   * What the session does with the store for each message it sends
+   */
+  static private void send(MessageStore store, String message) throws Exception
+  {
+    int sequence = store.getNextSenderMsgSeqNum();
+    store.set(sequence, message);
+    store.incrNextSenderMsgSeqNum();
+  }
+
+  /**
+   * Build a market order the way MyApp sends them
+   */
+  static private String order()
+  {
+    NewOrderSingle order = new NewOrderSingle(new ClOrdID("FIX.4.4:fxcm_client->FXCM-1700000000000-12345"),
+      new Side(Side.SELL), new TransactTime(), new OrdType(OrdType.MARKET));
+    order.getHeader().setString(SenderCompID.FIELD, "fxcm_client");
+    order.getHeader().setString(TargetCompID.FIELD, "FXCM");
+    order.getHeader().setInt(MsgSeqNum.FIELD, 12345);
+    order.getHeader().setUtcTimeStamp(SendingTime.FIELD, java.time.LocalDateTime.now());
+    order.set(new Account("01234567"));
+    order.set(new Symbol("EUR/USD"));
+    order.set(new OrderQty(10000));
+    order.set(new TimeInForce(TimeInForce.GOOD_TILL_CANCEL));
+    order.set(new SecondaryClOrdID(MyApp.FIXAPITEST));
+    return order.toString();
+  }
+}
@@ -0,0 +1,98 @@
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import jmh.Fixture;
+import quickfix.DataDictionary;
+import quickfix.field.AccountType;
+import quickfix.field.ClOrdID;
+import quickfix.field.ClearingBusinessDate;
+import quickfix.field.OrdType;
+import quickfix.field.OrderQty;
+import quickfix.field.PosReqID;
+import quickfix.field.PosReqType;
+import quickfix.field.SecondaryClOrdID;
+import quickfix.field.Side;
+import quickfix.field.SubscriptionRequestType;
+import quickfix.field.Symbol;
+import quickfix.field.TimeInForce;
+import quickfix.field.TransactTime;
+import quickfix.fix44.CollateralReport;
+import quickfix.fix44.NewOrderSingle;
+import quickfix.fix44.RequestForPositions;
+
+/**
+ * Compares building a NewOrderSingle and a RequestForPositions from scratch for every send, as MyApp
+ * used to, with updating the per account templates of MessageTemplates, both on their own and followed
+ * by the serialization sendToTarget performs, on the captured FXCM collateral report
+ *
+ * Operations:
+ *   new.NewOrderSingle, template.NewOrderSingle, new.RequestForPositions, template.RequestForPositions
+ * each also with .serialize appended for the message's toString()
+ */
+public class MessageTemplateFixture implements Fixture
+{
+  public Operation open(String operation, Map<String, String> params) throws Exception
+  {
+    DataDictionary dictionary = new DataDictionary(params.get("dictionary"));
+    CapturedMessages captured = new CapturedMessages(params.get("capture"), dictionary);
+    CollateralReport account = (CollateralReport)captured.parsed("BA");
+    IdGenerator ids = new IdGenerator("0");
+    MessageTemplates templates = new MessageTemplates(MyApp.FIXAPITEST);
+    MessageTemplates.Order order = templates.order(account, "EUR/USD");
+    MessageTemplates.Positions positions = templates.positions(account, "20261017");
+    Side side = new Side(Side.BUY);
+    OrderQty orderQty = new OrderQty(10000);
+    TimeInForce timeInForce = new TimeInForce(TimeInForce.GOOD_TILL_CANCEL);
+
+    switch (operation)
+    {
+      case "new.NewOrderSingle":
+        return sink -> sink.consume(newOrder(account, ids.next()));
+      case "template.NewOrderSingle":
+        return sink -> sink.consume(order.set(ids.next(), side.getValue(), orderQty.getValue(), timeInForce.getValue()));
+      case "new.NewOrderSingle.serialize":
+        return sink -> sink.consume(newOrder(account, ids.next()).toString());
+      case "template.NewOrderSingle.serialize":
+        return sink -> sink.consume(
+          order.set(ids.next(), side.getValue(), orderQty.getValue(), timeInForce.getValue()).toString());
+      case "new.RequestForPositions":
+        return sink -> sink.consume(newPositions(account, ids.next()));
+      case "template.RequestForPositions":
+        return sink -> sink.consume(positions.set(ids.next(), PosReqType.POSITIONS));
+      case "new.RequestForPositions.serialize":
+        return sink -> sink.consume(newPositions(account, ids.next()).toString());
+      case "template.RequestForPositions.serialize":
+        return sink -> sink.consume(positions.set(ids.next(), PosReqType.POSITIONS).toString());
+      default:
+        throw new IllegalArgumentException("No operation " + operation);
+    }
+  }
+
+  // the order MyApp.sendMarketOrder used to build
+  static NewOrderSingle newOrder(CollateralReport account, String id) throws Exception
+  {
+    NewOrderSingle order = new NewOrderSingle(new ClOrdID(id), new Side(Side.BUY), new TransactTime(),
+      new OrdType(OrdType.MARKET));
+    order.set(account.getAccount());
+    order.set(new Symbol("EUR/USD"));
+    order.set(new OrderQty(10000));
+    order.set(new TimeInForce(TimeInForce.GOOD_TILL_CANCEL));
+    order.set(new SecondaryClOrdID(MyApp.FIXAPITEST));
+    return order;
+  }
+
+  // the request MyApp.getPositions used to build
+  static RequestForPositions newPositions(CollateralReport account, String id) throws Exception
+  {
+    RequestForPositions request = new RequestForPositions();
+    request.addGroup(account.getGroup(1, new CollateralReport.NoPartyIDs()));
+    request.set(new SubscriptionRequestType(SubscriptionRequestType.SNAPSHOT_UPDATES));
+    request.set(new PosReqType(PosReqType.POSITIONS));
+    request.set(account.getAccount());
+    request.set(new TransactTime(LocalDateTime.now()));
+    request.set(new ClearingBusinessDate("20261017"));
+    request.set(new AccountType(AccountType.ACCOUNT_IS_CARRIED_ON_NON_CUSTOMER_SIDE_OF_BOOKS_AND_IS_CROSS_MARGINED));
+    request.set(new PosReqID(id));
+    return request;
+  }
+}
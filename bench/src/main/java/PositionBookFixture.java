@@ -0,0 +1,112 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jmh.Fixture;
+import quickfix.field.Account;
+import quickfix.field.LongQty;
+import quickfix.field.PosType;
+import quickfix.field.SettlPrice;
+import quickfix.field.ShortQty;
+import quickfix.field.Symbol;
+import quickfix.fix44.PositionReport;
+
+/**
+ * Compares answering an account x symbol exposure question by scanning the position reports, as the
+ * positions map alone allows, with reading it from the PositionBook, and measures what keeping the
+ * book up to date costs per ticket and per tick
+ *
+ * Operations:
+ *   scanReports       net quantity by scanning the position reports
+ *   bookNetQuantity   net quantity from the book
+ *   bookAccountPnl    an account's unrealized P&L from the book
+ *   mark              a tick marking a symbol's positions
+ *   closeReopen       closing a ticket and opening it again
+ * Parameters:
+ *   tickets           open tickets, spread over 10 accounts x 50 symbols
+ */
+public class PositionBookFixture implements Fixture
+{
+  static final private int ACCOUNTS = 10;
+  static final private int SYMBOLS = 50;
+
+  private int i;
+
+  public Operation open(String operation, Map<String, String> params)
+  {
+    int tickets = Integer.parseInt(params.get("tickets"));
+    String[] accounts = new String[ACCOUNTS];
+    for (int a = 0; a < ACCOUNTS; a++)
+      accounts[a] = String.valueOf(1000000 + a);
+    String[] symbols = new String[SYMBOLS];
+    for (int s = 0; s < SYMBOLS; s++)
+      symbols[s] = "SYM" + s + "/USD";
+
+    ConcurrentHashMap<String, PositionReport> positions = new ConcurrentHashMap<String, PositionReport>();
+    PositionBook book = new PositionBook();
+    for (int s = 0; s < SYMBOLS; s++)
+      book.mark(symbols[s], 1.0 + s * 0.01, 1.0002 + s * 0.01);
+    for (int t = 0; t < tickets; t++)
+    {
+      String account = accounts[t % ACCOUNTS];
+      String symbol = symbols[(t / ACCOUNTS) % SYMBOLS];
+      boolean buy = (t & 1) == 0;
+      double price = 1.0 + (t % SYMBOLS) * 0.01;
+      PositionReport report = new PositionReport();
+      report.set(new Account(account));
+      report.set(new Symbol(symbol));
+      report.set(new SettlPrice(price));
+      PositionReport.NoPositions qty = new PositionReport.NoPositions();
+      qty.set(new PosType(PosType.TRANSACTION_QUANTITY));
+      if (buy)
+        qty.set(new LongQty(10000));
+      else
+        qty.set(new ShortQty(10000));
+      report.addGroup(qty);
+      positions.put("T" + t, report);
+      book.open("T" + t, account, symbol, buy, 10000, price);
+    }
+
+    switch (operation)
+    {
+      case "scanReports":
+      {
+        PositionReport.NoPositions group = new PositionReport.NoPositions();
+        return sink ->
+        {
+          String account = accounts[i % ACCOUNTS];
+          String symbol = symbols[i++ % SYMBOLS];
+          double net = 0;
+          for (PositionReport report : positions.values())
+          {
+            if (!report.getString(Account.FIELD).equals(account) || !report.getString(Symbol.FIELD).equals(symbol))
+              continue;
+            report.getGroup(1, group);
+            net += group.isSetLongQty() ? group.getLongQty().getValue() : -group.getShortQty().getValue();
+          }
+          sink.consume(net);
+        };
+      }
+      case "bookNetQuantity":
+        return sink -> sink.consume(book.getNetQuantity(accounts[i % ACCOUNTS], symbols[i++ % SYMBOLS]));
+      case "bookAccountPnl":
+        return sink -> sink.consume(book.getUnrealizedPnl(accounts[i++ % ACCOUNTS]));
+      case "mark":
+        return sink ->
+        {
+          int s = i % SYMBOLS;
+          double move = (i++ & 7) * 0.0001;
+          book.mark(symbols[s], 1.0 + s * 0.01 + move, 1.0002 + s * 0.01 + move);
+        };
+      case "closeReopen":
+        return sink ->
+        {
+          int t = i++ % tickets;
+          book.close("T" + t);
+          book.open("T" + t, accounts[t % ACCOUNTS], symbols[(t / ACCOUNTS) % SYMBOLS], (t & 1) == 0, 10000,
+            1.0 + (t % SYMBOLS) * 0.01);
+        };
+      default:
+        throw new IllegalArgumentException("No operation " + operation);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+import java.util.Map;
+
+import jmh.Fixture;
+
+/**
+ * Measures what the pre-trade checks add to every order: an order passing every limit and giving its
+ * exposure and margin back, the same with no limits set, and an order refused by a limit
+ *
+ * The limits are shared by every benchmark thread, so running with threads measures the session's
+ * counters contended.
+ *
+ * Operations:
+ *   everyLimit    check and release with every limit set, far enough out that nothing is refused
+ *   noLimits      check and release with no limits set
+ *   refused       an order breaching the quantity limit
+ */
+public class PreTradeRiskFixture implements Fixture
+{
+  static final private int ACCOUNTS = 4;
+  static final private int SYMBOLS = 16;
+
+  static final private LatencyHistogram CHECKS = new LatencyHistogram();
+  static final private PreTradeRisk LIMITED = new PreTradeRisk(1e9, 1e15, 0.02, 1L << 23, CHECKS);
+  static final private PreTradeRisk UNLIMITED = new PreTradeRisk(0, 0, 0, 0, new LatencyHistogram());
+  // a quantity limit every order breaches
+  static final private PreTradeRisk REFUSING = new PreTradeRisk(1000, 0, 0, 0, new LatencyHistogram());
+
+  private final String[] accounts = new String[ACCOUNTS];
+  private final String[] symbols = new String[SYMBOLS];
+  private int i;
+
+  public Operation open(String operation, Map<String, String> params)
+  {
+    for (int a = 0; a < ACCOUNTS; a++)
+      accounts[a] = String.valueOf(1000000 + a);
+    for (int s = 0; s < SYMBOLS; s++)
+      symbols[s] = "SYM" + s + "/USD";
+    for (String account : accounts)
+      LIMITED.collateral(account, 1e15);
+
+    if (operation.equals("everyLimit"))
+      return sink -> checkRelease(LIMITED);
+    if (operation.equals("noLimits"))
+      return sink -> checkRelease(UNLIMITED);
+    if (operation.equals("refused"))
+    {
+      return sink ->
+      {
+        try
+        {
+          REFUSING.check(accounts[i % ACCOUNTS], symbols[i++ % SYMBOLS], true, 10000, 1.1, false);
+        }
+        catch (PreTradeRisk.Rejection e)
+        {
+          sink.consume(e);
+        }
+      };
+    }
+    throw new IllegalArgumentException("No operation " + operation);
+  }
+
+  private void checkRelease(PreTradeRisk risk) throws PreTradeRisk.Rejection
+  {
+    String account = accounts[i % ACCOUNTS];
+    String symbol = symbols[i % SYMBOLS];
+    boolean buy = (i++ & 1) == 0;
+    double margin = risk.check(account, symbol, buy, 10000, 1.1, false);
+    risk.release(account, symbol, buy, 10000, margin);
+  }
+
+  public void close()
+  {
+    System.out.println("check latency, timed inside check(): " + CHECKS.summaryNanos());
+    System.out.println(LIMITED.summary());
+  }
+}
@@ -0,0 +1,63 @@
+import java.util.Map;
+
+import jmh.Fixture;
+import quickfix.DataDictionary;
+import quickfix.DefaultMessageFactory;
+import quickfix.Message;
+import quickfix.MessageUtils;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+import quickfix.field.PosReqID;
+import quickfix.field.PosReqType;
+
+/**
+ * Compares MyApp's fast path, which reads the raw FIX text through a FixFieldScanner, with parsing
+ * the message and cracking it through fromApp(), on the captured FXCM market data snapshot and an
+ * unsolicited closed position report
+ *
+ * Operations:
+ *   scan            FixFieldScanner.wrap alone
+ *   fromRaw         MyApp.fromRaw
+ *   parseFromApp    parsing the text, then fromApp()
+ * Parameters:
+ *   message         W for the snapshot, or closedAP for the closed position report
+ */
+public class RawDecodeFixture implements Fixture
+{
+  public Operation open(String operation, Map<String, String> params) throws Exception
+  {
+    DataDictionary dictionary = new DataDictionary(params.get("dictionary"));
+    CapturedMessages captured = new CapturedMessages(params.get("capture"), dictionary);
+    SessionID sessionID = new SessionID("FIX.4.4", "fxcm_client", "FXCM");
+    MyApp app = BenchSession.start(sessionID, new SessionSettings());
+    DefaultMessageFactory factory = new DefaultMessageFactory();
+
+    String raw;
+    String name = params.get("message");
+    if (name.equals("W"))
+      raw = captured.raw("W");
+    else if (name.equals("closedAP"))
+    {
+      // the captured position report, turned into the unsolicited report FXCM sends when a position closes
+      Message closed = captured.parsed("AP");
+      closed.setInt(PosReqType.FIELD, PosReqType.TRADES);
+      closed.removeField(PosReqID.FIELD);
+      raw = closed.toString();
+    }
+    else
+      throw new IllegalArgumentException("No message " + name);
+    if (!app.fromRaw(raw, sessionID))
+      throw new IllegalStateException("The fast path does not handle " + name);
+
+    if (operation.equals("scan"))
+    {
+      FixFieldScanner scanner = new FixFieldScanner(35, 55, 269, 270, 9095, 724, 710, 9041, 912);
+      return sink -> sink.consume(scanner.wrap(raw));
+    }
+    if (operation.equals("fromRaw"))
+      return sink -> sink.consume(app.fromRaw(raw, sessionID));
+    if (operation.equals("parseFromApp"))
+      return sink -> app.fromApp(MessageUtils.parse(factory, dictionary, raw), sessionID);
+    throw new IllegalArgumentException("No operation " + operation);
+  }
+}
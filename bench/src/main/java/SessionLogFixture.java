@@ -0,0 +1,72 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+import jmh.Fixture;
+import quickfix.DataDictionary;
+import quickfix.FileLogFactory;
+import quickfix.Log;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+
+/**
+ * Compares the time a session thread spends logging each message with FileLogFactory and with
+ * AsyncBinaryLogFactory, fed with the captured FXCM execution report
+ *
+ * A measurement runs far longer than any burst the async ring absorbs whole, so it measures the
+ * writer's sustained throughput, with the session thread waiting whenever the ring is full. The
+ * waits and the time to drain the ring are printed at the end of the trial.
+ *
+ * Operations:
+ *   onIncoming    Log.onIncoming of the execution report
+ * Parameters:
+ *   log           FileLog or AsyncBinaryLog
+ */
+public class SessionLogFixture implements Fixture
+{
+  private File directory;
+  private AsyncBinaryLogFactory async;
+
+  public Operation open(String operation, Map<String, String> params) throws Exception
+  {
+    if (!operation.equals("onIncoming"))
+      throw new IllegalArgumentException("No operation " + operation);
+    DataDictionary dictionary = new DataDictionary(params.get("dictionary"));
+    CapturedMessages captured = new CapturedMessages(params.get("capture"), dictionary);
+    String message = captured.raw("8");
+
+    directory = Files.createTempDirectory("log-bench").toFile();
+    SessionID sessionID = new SessionID("FIX.4.4", "fxcm_client", "FXCM");
+    SessionSettings settings = new SessionSettings();
+    settings.setString(FileLogFactory.SETTING_FILE_LOG_PATH, directory.getPath());
+    Log log;
+    String name = params.get("log");
+    if (name.equals("FileLog"))
+      log = new FileLogFactory(settings).create(sessionID);
+    else if (name.equals("AsyncBinaryLog"))
+    {
+      async = new AsyncBinaryLogFactory(settings);
+      log = async.create(sessionID);
+    }
+    else
+      throw new IllegalArgumentException("No log " + name);
+    return sink -> log.onIncoming(message);
+  }
+
+  public void close()
+  {
+    if (async != null)
+    {
+      long start = System.nanoTime();
+      async.close();
+      System.out.println(String.format("AsyncBinaryLog: %.1f ms to drain, %d waits for the writer",
+        (System.nanoTime() - start) / 1e6, async.getWaits()));
+    }
+    for (File file : directory.listFiles())
+    {
+      System.out.println(String.format("%s: %d bytes", file.getName(), file.length()));
+      file.delete();
+    }
+    directory.delete();
+  }
+}
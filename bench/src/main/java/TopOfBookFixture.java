@@ -0,0 +1,122 @@
+import java.util.HashMap;
+import java.util.Map;
+
+import jmh.Fixture;
+import quickfix.DataDictionary;
+import quickfix.field.MDEntryPx;
+import quickfix.field.MDEntryType;
+import quickfix.field.MDReqID;
+import quickfix.field.Symbol;
+import quickfix.fix44.MarketDataSnapshotFullRefresh;
+
+/**
+ * Compares storing whole MarketDataSnapshotFullRefresh messages per symbol, as MyApp used to,
+ * with updating the TopOfBookCache in place
+ *
+ * Operations:
+ *   storeUpdate              storing an already parsed snapshot
+ *   cacheUpdate              updating the cache from an already parsed snapshot
+ *   storeMinQuantity         the minimum quantity lookup each order does, from the stored message
+ *   cacheMinQuantity         the same from the cache
+ *   cacheReadQuote           a consistent read of the whole quote
+ *   parseStore               parsing each tick as it arrives, then storing it
+ *   parseCacheUpdate         parsing each tick as it arrives, then updating the cache
+ */
+public class TopOfBookFixture implements Fixture
+{
+  static final private int FXCMMinQuantity = 9095;
+  static final private String[] SYMBOLS = { "EUR/USD", "USD/JPY", "GBP/USD", "USD/CHF", "AUD/USD", "USD/CAD",
+    "NZD/USD", "EUR/JPY", "EUR/GBP", "GBP/JPY", "XAU/USD", "USDOLLAR" };
+
+  private int i;
+
+  public Operation open(String operation, Map<String, String> params) throws Exception
+  {
+    DataDictionary dictionary = new DataDictionary(params.get("dictionary"));
+    // one raw snapshot per symbol, as it arrives off the wire
+    String[] raw = new String[SYMBOLS.length];
+    MarketDataSnapshotFullRefresh[] parsed = new MarketDataSnapshotFullRefresh[SYMBOLS.length];
+    for (int s = 0; s < SYMBOLS.length; s++)
+    {
+      raw[s] = snapshot(SYMBOLS[s], 1.1 + s).toString();
+      parsed[s] = new MarketDataSnapshotFullRefresh();
+      parsed[s].fromString(raw[s], dictionary, false);
+    }
+
+    HashMap<String, MarketDataSnapshotFullRefresh> messages = new HashMap<String, MarketDataSnapshotFullRefresh>();
+    TopOfBookCache cache = new TopOfBookCache(FXCMMinQuantity, SYMBOLS.length);
+    for (MarketDataSnapshotFullRefresh snapshot : parsed)
+    {
+      messages.put(snapshot.getInstrument().getSymbol().getValue(), snapshot);
+      cache.update(snapshot, 0);
+    }
+    TopOfBookCache.Quote quote = new TopOfBookCache.Quote();
+
+    switch (operation)
+    {
+      case "storeUpdate":
+        return sink ->
+        {
+          MarketDataSnapshotFullRefresh snapshot = parsed[i++ % parsed.length];
+          messages.put(snapshot.getInstrument().getSymbol().getValue(), snapshot);
+        };
+      case "cacheUpdate":
+        return sink -> cache.update(parsed[i % parsed.length], i++);
+      case "storeMinQuantity":
+        return sink -> sink.consume(messages.get(SYMBOLS[i++ % SYMBOLS.length]).getDouble(FXCMMinQuantity));
+      case "cacheMinQuantity":
+        return sink -> sink.consume(cache.getMinQuantity(SYMBOLS[i++ % SYMBOLS.length]));
+      case "cacheReadQuote":
+        return sink ->
+        {
+          cache.read(SYMBOLS[i++ % SYMBOLS.length], quote);
+          sink.consume(quote.getBid());
+        };
+      // the stored message is retained until replaced
+      case "parseStore":
+        return sink ->
+        {
+          MarketDataSnapshotFullRefresh snapshot = new MarketDataSnapshotFullRefresh();
+          snapshot.fromString(raw[i++ % raw.length], dictionary, false);
+          messages.put(snapshot.getInstrument().getSymbol().getValue(), snapshot);
+        };
+      case "parseCacheUpdate":
+        return sink ->
+        {
+          MarketDataSnapshotFullRefresh snapshot = new MarketDataSnapshotFullRefresh();
+          snapshot.fromString(raw[i % raw.length], dictionary, false);
+          cache.update(snapshot, i++);
+        };
+      default:
+        throw new IllegalArgumentException("No operation " + operation);
+    }
+  }
+
+  /**
+   * Build a top of book snapshot the way FXCM sends them
+   */
+  static MarketDataSnapshotFullRefresh snapshot(String symbol, double mid)
+  {
+    MarketDataSnapshotFullRefresh snapshot = new MarketDataSnapshotFullRefresh();
+    snapshot.getHeader().setString(49, "FXCM");
+    snapshot.getHeader().setString(56, "CLIENT");
+    snapshot.getHeader().setInt(34, 1);
+    snapshot.getHeader().setString(52, "20261017-12:00:00.000");
+    snapshot.set(new MDReqID("1"));
+    snapshot.set(new Symbol(symbol));
+    snapshot.setDouble(FXCMMinQuantity, 1);
+    addEntry(snapshot, MDEntryType.BID, mid - 0.0001);
+    addEntry(snapshot, MDEntryType.OFFER, mid + 0.0001);
+    addEntry(snapshot, MDEntryType.TRADING_SESSION_HIGH_PRICE, mid + 0.01);
+    addEntry(snapshot, MDEntryType.TRADING_SESSION_LOW_PRICE, mid - 0.01);
+    return snapshot;
+  }
+
+  static private void addEntry(MarketDataSnapshotFullRefresh snapshot, char type, double price)
+  {
+    MarketDataSnapshotFullRefresh.NoMDEntries entry = new MarketDataSnapshotFullRefresh.NoMDEntries();
+    entry.set(new MDEntryType(type));
+    entry.set(new MDEntryPx(price));
+    snapshot.addGroup(entry);
+  }
+}
@@ -0,0 +1,26 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * The inbound message path with the handlers inline or offloaded, see CallbackDispatchFixture
+ */
+public class CallbackDispatchBenchmark extends FixtureBenchmark
+{
+  @Param("fromApp")
+  public String operation;
+  @Param({ "INLINE", "EXECUTOR", "VIRTUAL" })
+  public String model;
+  @Param("appRun/FIXFXCM10.xml")
+  public String dictionary;
+  @Param("bench/fxcm-captured.fix")
+  public String capture;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    open("CallbackDispatchFixture", operation, "model", model, "dictionary", dictionary, "capture", capture);
+  }
+}
@@ -0,0 +1,27 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Loading, parsing and validating with the full and the trimmed FXCM dictionary, see DataDictionaryFixture
+ */
+public class DataDictionaryBenchmark extends FixtureBenchmark
+{
+  @Param({ "load", "validate.BA", "validate.W", "validate.8", "validate.AP", "parseValidate.BA", "parseValidate.W",
+    "parseValidate.8", "parseValidate.AP" })
+  public String operation;
+  @Param({ "appRun/FIXFXCM10.xml", "appRun/FIXFXCM10-trimmed.xml" })
+  public String dictionary;
+  @Param("appRun/FIXFXCM10.xml")
+  public String full;
+  @Param("bench/fxcm-captured.fix")
+  public String capture;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    open("DataDictionaryFixture", operation, "dictionary", dictionary, "full", full, "capture", capture);
+  }
+}
@@ -0,0 +1,27 @@
+package jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * The trading driver's account x instrument sweep, see DriverLoopFixture
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DriverLoopBenchmark extends FixtureBenchmark
+{
+  @Param({ "toArrayPerIndex", "listsCopiedOnce" })
+  public String operation;
+  // realistic FXCM logins: a handful to dozens of accounts, a few hundred instruments
+  @Param({ "1x50", "5x300", "20x400", "50x400" })
+  public String size;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    open("DriverLoopFixture", operation, "size", size);
+  }
+}
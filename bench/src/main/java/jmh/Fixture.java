@@ -0,0 +1,49 @@
+package jmh;
+
+import java.util.Map;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The set up and the timed operations of a benchmark, written in the default package next to the
+ * application's classes for a JMH benchmark of this package to run
+ *
+ * A fixture has a public no argument constructor, and is named after its benchmark: the fixture of
+ * jmh.MessageHotPathBenchmark is MessageHotPathFixture.
+ */
+public interface Fixture
+{
+  /**
+   * An operation timed by the benchmark
+   */
+  interface Operation
+  {
+    /**
+     * Run the operation once
+     *
+     * @param sink - consumes whatever the operation produces, so the JIT can not discard its work
+     */
+    void run(Blackhole sink) throws Exception;
+  }
+
+  /**
+   * Set up for an operation
+   *
+   * @param operation - the name of the operation, the benchmark's operation parameter
+   * @param params - the benchmark's other parameters, by name
+   * @return - the operation to time
+   * @throws Exception - if the fixture can not be set up, or has no such operation
+   */
+  Operation open(String operation, Map<String, String> params) throws Exception;
+
+  /**
+   * Release what the operation accumulated, after every warm up and measurement iteration and outside
+   * the timing
+   */
+  default void iteration() throws Exception { }
+
+  /**
+   * Release the fixture at the end of the trial, reporting anything JMH does not measure
+   */
+  default void close() throws Exception { }
+}
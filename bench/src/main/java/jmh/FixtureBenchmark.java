@@ -0,0 +1,77 @@
+package jmh;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Runs the operations of a Fixture under JMH: each trial forks a fresh JVM, warms the operation up and
+ * reports the mean time per call, with -prof gc adding the bytes allocated per call
+ *
+ * Subclasses declare the operations as an operation parameter, plus any parameters of their own, and
+ * open their fixture with them in a trial level set up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class FixtureBenchmark
+{
+  private Fixture fixture;
+  private Fixture.Operation timed;
+
+  /**
+   * Create the fixture of this benchmark and set it up for an operation
+   *
+   * @param fixtureClass - the fixture, in the default package where a named package can only reach it
+   *   by name
+   * @param operation - the name of the operation
+   * @param params - the benchmark's other parameters, as name, value pairs
+   */
+  protected void open(String fixtureClass, String operation, String... params) throws Exception
+  {
+    Map<String, String> values = new HashMap<String, String>();
+    for (int i = 0; i + 1 < params.length; i += 2)
+      values.put(params[i], params[i + 1]);
+    fixture = (Fixture)Class.forName(fixtureClass).getDeclaredConstructor().newInstance();
+    timed = fixture.open(operation, values);
+  }
+
+  @Benchmark
+  public void run(Blackhole sink) throws Exception
+  {
+    timed.run(sink);
+  }
+
+  @TearDown(Level.Iteration)
+  public void iteration() throws Exception
+  {
+    fixture.iteration();
+  }
+
+  @TearDown(Level.Trial)
+  public void close() throws Exception
+  {
+    fixture.close();
+  }
+
+  /**
+   * Retrieve the operation timed, for benchmarks that time it from more than one method
+   */
+  protected Fixture.Operation timed() { return timed; }
+}
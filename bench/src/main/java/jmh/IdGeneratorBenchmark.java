@@ -0,0 +1,31 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * ClOrdID generation, single threaded and with threads contending for the same generator, see
+ * IdGeneratorFixture
+ */
+public class IdGeneratorBenchmark extends FixtureBenchmark
+{
+  @Param({ "concatenated", "next", "nextChars" })
+  public String operation;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    open("IdGeneratorFixture", operation);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void contended(Blackhole sink) throws Exception
+  {
+    timed().run(sink);
+  }
+}
@@ -0,0 +1,26 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Publishing top of book updates to subscribers of different speeds, see MarketDataFeedFixture
+ */
+public class MarketDataFeedBenchmark extends FixtureBenchmark
+{
+  @Param("publish")
+  public String operation;
+  @Param({ "none", "fast", "slow" })
+  public String subscriber;
+  @Param("appRun/FIXFXCM10.xml")
+  public String dictionary;
+  @Param("bench/fxcm-captured.fix")
+  public String capture;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    open("MarketDataFeedFixture", operation, "subscriber", subscriber, "dictionary", dictionary, "capture", capture);
+  }
+}
@@ -0,0 +1,26 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * The message paths MyApp runs for every order and every inbound message, see MessageHotPathFixture
+ */
+public class MessageHotPathBenchmark extends FixtureBenchmark
+{
+  @Param({ "nextID", "sendMarketOrder", "fromApp.CollateralReport", "fromApp.MarketDataSnapshotFullRefresh",
+    "fromApp.ExecutionReport", "fromApp.PositionReport", "parseFromApp.CollateralReport",
+    "parseFromApp.MarketDataSnapshotFullRefresh", "parseFromApp.ExecutionReport", "parseFromApp.PositionReport" })
+  public String operation;
+  @Param("appRun/FIXFXCM10.xml")
+  public String dictionary;
+  @Param("bench/fxcm-captured.fix")
+  public String capture;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    open("MessageHotPathFixture", operation, "dictionary", dictionary, "capture", capture);
+  }
+}
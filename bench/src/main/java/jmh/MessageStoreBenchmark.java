@@ -0,0 +1,25 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * The session's message store work per order sent, FileStore against the mapped store, see
+ * MessageStoreFixture
+ */
+public class MessageStoreBenchmark extends FixtureBenchmark
+{
+  @Param({ "send", "reopen" })
+  public String operation;
+  @Param({ "FileStore", "FileStoreSync", "mappedOS", "mappedGROUP", "mappedSYNC" })
+  public String store;
+  @Param({ "Y", "N" })
+  public String reset;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    open("MessageStoreFixture", operation, "store", store, "reset", reset);
+  }
+}
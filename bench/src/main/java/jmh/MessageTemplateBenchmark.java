@@ -0,0 +1,26 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Building outbound messages from scratch against updating MessageTemplates, see MessageTemplateFixture
+ */
+public class MessageTemplateBenchmark extends FixtureBenchmark
+{
+  @Param({ "new.NewOrderSingle", "template.NewOrderSingle", "new.NewOrderSingle.serialize",
+    "template.NewOrderSingle.serialize", "new.RequestForPositions", "template.RequestForPositions",
+    "new.RequestForPositions.serialize", "template.RequestForPositions.serialize" })
+  public String operation;
+  @Param("appRun/FIXFXCM10.xml")
+  public String dictionary;
+  @Param("bench/fxcm-captured.fix")
+  public String capture;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    open("MessageTemplateFixture", operation, "dictionary", dictionary, "capture", capture);
+  }
+}
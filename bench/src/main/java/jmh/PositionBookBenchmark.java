@@ -0,0 +1,23 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Exposure questions answered by scanning position reports against the PositionBook, and the cost of
+ * keeping the book up to date, see PositionBookFixture
+ */
+public class PositionBookBenchmark extends FixtureBenchmark
+{
+  @Param({ "scanReports", "bookNetQuantity", "bookAccountPnl", "mark", "closeReopen" })
+  public String operation;
+  @Param("20000")
+  public String tickets;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    open("PositionBookFixture", operation, "tickets", tickets);
+  }
+}
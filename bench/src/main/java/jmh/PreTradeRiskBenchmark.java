@@ -0,0 +1,31 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The pre-trade checks per order, single threaded and with threads sharing the session's limits, see
+ * PreTradeRiskFixture
+ */
+public class PreTradeRiskBenchmark extends FixtureBenchmark
+{
+  @Param({ "everyLimit", "noLimits", "refused" })
+  public String operation;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    open("PreTradeRiskFixture", operation);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void contended(Blackhole sink) throws Exception
+  {
+    timed().run(sink);
+  }
+}
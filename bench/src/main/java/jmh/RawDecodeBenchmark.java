@@ -0,0 +1,26 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * MyApp's raw text fast path against parsing and cracking the message, see RawDecodeFixture
+ */
+public class RawDecodeBenchmark extends FixtureBenchmark
+{
+  @Param({ "scan", "fromRaw", "parseFromApp" })
+  public String operation;
+  @Param({ "W", "closedAP" })
+  public String message;
+  @Param("appRun/FIXFXCM10.xml")
+  public String dictionary;
+  @Param("bench/fxcm-captured.fix")
+  public String capture;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    open("RawDecodeFixture", operation, "message", message, "dictionary", dictionary, "capture", capture);
+  }
+}
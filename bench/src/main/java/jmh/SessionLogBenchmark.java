@@ -0,0 +1,26 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Session thread time per logged message, FileLog against AsyncBinaryLog, see SessionLogFixture
+ */
+public class SessionLogBenchmark extends FixtureBenchmark
+{
+  @Param("onIncoming")
+  public String operation;
+  @Param({ "FileLog", "AsyncBinaryLog" })
+  public String log;
+  @Param("appRun/FIXFXCM10.xml")
+  public String dictionary;
+  @Param("bench/fxcm-captured.fix")
+  public String capture;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    open("SessionLogFixture", operation, "log", log, "dictionary", dictionary, "capture", capture);
+  }
+}
@@ -0,0 +1,23 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Storing whole market data snapshots against updating the TopOfBookCache, see TopOfBookFixture
+ */
+public class TopOfBookBenchmark extends FixtureBenchmark
+{
+  @Param({ "storeUpdate", "cacheUpdate", "storeMinQuantity", "cacheMinQuantity", "cacheReadQuote", "parseStore",
+    "parseCacheUpdate" })
+  public String operation;
+  @Param("appRun/FIXFXCM10.xml")
+  public String dictionary;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    open("TopOfBookFixture", operation, "dictionary", dictionary);
+  }
+}
@@ -0,0 +1,332 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.quickfixj.CharsetSupport;
+
+import quickfix.FileLogFactory;
+import quickfix.FileUtil;
+import quickfix.Log;
+import quickfix.LogFactory;
+import quickfix.RuntimeError;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+
+/**
+ * Session log that keeps disk writes off the session threads
+ *
+ * Logging a message only timestamps it and puts it on a bounded ring shared by every session. A single
+ * background writer drains the ring in batches into one gzip compressed binary journal per session,
+ * sync flushing the compressor once per batch, so a process that dies loses at most the batch being
+ * written. When the ring is full the session thread waits for room rather than drop anything, so the
+ * journal stays a complete audit of the session. A shutdown hook writes out what is still on the ring
+ * and finishes the journals when the JVM exits without the factory being closed. The journals render
+ * back to readable FIX with BinaryLogRenderer, which stops at the unfinished tail of a run that died.
+ *
+ * Each record is: type (byte), time in epoch milliseconds (long), length (int), the text in the FIX
+ * charset. Records go to FileLogPath/<session>.binlog.gz. The journal of the previous run is first
+ * renamed to <session>.<time it was last written>.binlog.gz, so nothing is ever appended behind the
+ * unfinished compressed stream of a run that died.
+ *
+ * Settings, in [default]:
+ *   FileLogPath=       directory of the journals
+ *   AsyncLogRingSize=  entries the ring holds before sessions wait on the writer, 65536 by default
+ */
+public class AsyncBinaryLogFactory implements LogFactory, Closeable
+{
+  static final public String SETTING_RING_SIZE = "AsyncLogRingSize";
+  static final public String JOURNAL_SUFFIX = ".binlog.gz";
+
+  static final public byte INCOMING = 0;
+  static final public byte OUTGOING = 1;
+  static final public byte EVENT = 2;
+  static final public byte ERROR_EVENT = 3;
+
+  static final private int DEFAULT_RING_SIZE = 65536;
+  static final private int MAX_BATCH = 4096;
+  static final private DateTimeFormatter ROTATED =
+    DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss.SSS").withZone(ZoneOffset.UTC);
+
+  /**
+   * A message or event waiting for the writer
+   */
+  static private class Entry
+  {
+    final AsyncBinaryLog log;
+    final byte type;
+    final long time;
+    final String text;
+
+    Entry(AsyncBinaryLog log, byte type, long time, String text)
+    {
+      this.log = log;
+      this.type = type;
+      this.time = time;
+      this.text = text;
+    }
+  }
+
+  /**
+   * The log of a single session, writing its own journal
+   */
+  private class AsyncBinaryLog implements Log
+  {
+    private final File file;
+    // only touched by the writer thread
+    private DataOutputStream out;
+
+    AsyncBinaryLog(File file)
+    {
+      this.file = file;
+    }
+
+    public void onIncoming(String message) { enqueue(this, INCOMING, message); }
+    public void onOutgoing(String message) { enqueue(this, OUTGOING, message); }
+    public void onEvent(String text) { enqueue(this, EVENT, text); }
+    public void onErrorEvent(String text) { enqueue(this, ERROR_EVENT, text); }
+
+    /**
+     * The journal is an audit trail, so a session reset is recorded rather than erasing it
+     */
+    public void clear() { enqueue(this, EVENT, "Log cleared by session reset"); }
+
+    void write(Entry entry) throws IOException
+    {
+      if (out == null)
+      {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null)
+          parent.mkdirs();
+        // a gzip member appended behind one that never finished could not be read, so keep the
+        // previous run's journal apart
+        if (file.length() > 0)
+        {
+          String name = file.getName().substring(0, file.getName().length() - JOURNAL_SUFFIX.length());
+          String time = ROTATED.format(Instant.ofEpochMilli(file.lastModified()));
+          File rotated = new File(file.getAbsoluteFile().getParentFile(), name + "." + time + JOURNAL_SUFFIX);
+          if (!file.renameTo(rotated))
+            throw new IOException("Can not rename " + file + " to " + rotated);
+        }
+        // sync flush, so everything up to the last batch can be read back even if the process dies, and
+        // the fastest compression, since FIX text compresses well at any level
+        out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(
+          new FileOutputStream(file), 65536), 65536, true)
+        {
+          {
+            def.setLevel(Deflater.BEST_SPEED);
+          }
+        });
+      }
+      byte[] bytes = entry.text.getBytes(charset);
+      out.writeByte(entry.type);
+      out.writeLong(entry.time);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    void flush() throws IOException
+    {
+      if (out != null)
+        out.flush();
+    }
+
+    void close() throws IOException
+    {
+      if (out != null)
+        out.close();
+      out = null;
+    }
+  }
+
+  private final String path;
+  private final Charset charset = CharsetSupport.getCharsetInstance();
+  private final ArrayBlockingQueue<Entry> ring;
+  private final List<AsyncBinaryLog> logs = new ArrayList<AsyncBinaryLog>();
+  private final Thread writer;
+  private final Thread shutdownHook;
+  private volatile boolean running = true;
+
+  private final AtomicLong logged = new AtomicLong();
+  private final AtomicLong waits = new AtomicLong();
+
+  public AsyncBinaryLogFactory(SessionSettings settings)
+  {
+    try
+    {
+      path = settings.getString(FileLogFactory.SETTING_FILE_LOG_PATH);
+      ring = new ArrayBlockingQueue<Entry>(settings.isSetting(SETTING_RING_SIZE)
+        ? (int)settings.getLong(SETTING_RING_SIZE) : DEFAULT_RING_SIZE);
+    }
+    catch (Exception e)
+    {
+      throw new RuntimeError(e);
+    }
+    writer = new Thread(this::write, "session-log-writer");
+    writer.setDaemon(true);
+    writer.start();
+    // the writer is a daemon, so finish the journals on the way out if nobody closed the factory
+    shutdownHook = new Thread(this::drain, "session-log-shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  public Log create(SessionID sessionID)
+  {
+    // the settings may use Windows separators
+    AsyncBinaryLog log = new AsyncBinaryLog(new File(path.replace('\\', File.separatorChar),
+      FileUtil.sessionIdFileName(sessionID) + JOURNAL_SUFFIX));
+    synchronized (logs)
+    {
+      logs.add(log);
+    }
+    return log;
+  }
+
+  /**
+   * Retrieve the number of messages and events logged
+   */
+  public long getLogged() { return logged.get(); }
+
+  /**
+   * Retrieve the number of times a session had to wait for room in the ring
+   */
+  public long getWaits() { return waits.get(); }
+
+  /**
+   * Write out everything still on the ring and close the journals
+   */
+  public void close()
+  {
+    try
+    {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    }
+    catch (IllegalStateException e)
+    {
+      // the JVM is already shutting down, and the hook draining the ring
+    }
+    drain();
+  }
+
+  /**
+   * Stop the writer once it has written out the ring
+   */
+  private void drain()
+  {
+    running = false;
+    writer.interrupt();
+    try
+    {
+      writer.join();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void enqueue(AsyncBinaryLog log, byte type, String text)
+  {
+    // the writer is gone once the factory is closed
+    if (!running)
+      return;
+    Entry entry = new Entry(log, type, System.currentTimeMillis(), text);
+    logged.incrementAndGet();
+    if (ring.offer(entry))
+      return;
+    // the writer has fallen behind, wait for it rather than lose the entry
+    waits.incrementAndGet();
+    boolean interrupted = false;
+    while (true)
+    {
+      try
+      {
+        ring.put(entry);
+        break;
+      }
+      catch (InterruptedException e)
+      {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  /**
+   * The writer loop: wait for an entry, take whatever else is queued behind it, write the batch and
+   * flush the journals it touched
+   */
+  private void write()
+  {
+    List<Entry> batch = new ArrayList<Entry>(MAX_BATCH);
+    Set<AsyncBinaryLog> touched = new LinkedHashSet<AsyncBinaryLog>();
+    while (running || !ring.isEmpty())
+    {
+      try
+      {
+        if (running)
+          batch.add(ring.take());
+        ring.drainTo(batch, MAX_BATCH - batch.size());
+      }
+      catch (InterruptedException e)
+      {
+        // closing, drain what is left on the next pass
+        continue;
+      }
+      for (Entry entry : batch)
+      {
+        try
+        {
+          entry.log.write(entry);
+          touched.add(entry.log);
+        }
+        catch (IOException e)
+        {
+          e.printStackTrace();
+        }
+      }
+      for (AsyncBinaryLog log : touched)
+      {
+        try
+        {
+          log.flush();
+        }
+        catch (IOException e)
+        {
+          e.printStackTrace();
+        }
+      }
+      batch.clear();
+      touched.clear();
+    }
+    synchronized (logs)
+    {
+      for (AsyncBinaryLog log : logs)
+      {
+        try
+        {
+          log.close();
+        }
+        catch (IOException e)
+        {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+import org.quickfixj.CharsetSupport;
+
+/**
+ * Renders the binary session journals written by AsyncBinaryLogFactory back to readable FIX
+ *
+ * Each record is printed on its own line as its UTC time, its direction or kind, and its text, with
+ * the SOH field delimiters shown as | unless -soh is given. A journal whose run died before finishing
+ * it is rendered up to the last complete record.
+ *
+ * Usage: BinaryLogRenderer [-soh] [-messages | -events] journal...
+ */
+public class BinaryLogRenderer
+{
+  static final private DateTimeFormatter TIMESTAMP =
+    DateTimeFormatter.ofPattern("yyyyMMdd-HH:mm:ss.SSS").withZone(ZoneOffset.UTC);
+  static final private String[] TYPES = { "IN   ", "OUT  ", "EVENT", "ERROR" };
+
+  public static void main(String[] args) throws IOException
+  {
+    boolean soh = false;
+    boolean messages = true;
+    boolean events = true;
+    int rendered = 0;
+    for (String arg : args)
+    {
+      if ("-soh".equals(arg))
+        soh = true;
+      else if ("-messages".equals(arg))
+        events = false;
+      else if ("-events".equals(arg))
+        messages = false;
+      else
+      {
+        render(arg, soh, messages, events);
+        rendered++;
+      }
+    }
+    if (rendered == 0)
+      System.out.println("Usage: BinaryLogRenderer [-soh] [-messages | -events] journal...");
+  }
+
+  /**
+   * Print every record of a journal
+   *
+   * @param path - the journal
+   * @param soh - keep the SOH delimiters rather than showing them as |
+   * @param messages - print inbound and outbound messages
+   * @param events - print events and error events
+   * @throws IOException
+   */
+  static void render(String path, boolean soh, boolean messages, boolean events) throws IOException
+  {
+    Charset charset = CharsetSupport.getCharsetInstance();
+    // GZIPInputStream also reads the gzip members earlier versions appended for every run in turn
+    try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(
+      new FileInputStream(path), 65536), 65536)))
+    {
+      while (true)
+      {
+        byte type;
+        try
+        {
+          type = in.readByte();
+        }
+        catch (EOFException e)
+        {
+          // a plain end of the journal, or the unfinished compressed stream of a run that died
+          if (e.getMessage() != null)
+            throw e;
+          break;
+        }
+        long time = in.readLong();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        boolean message = type == AsyncBinaryLogFactory.INCOMING || type == AsyncBinaryLogFactory.OUTGOING;
+        if (message ? !messages : !events)
+          continue;
+        String text = new String(bytes, charset);
+        if (!soh)
+          text = text.replace('\u0001', '|');
+        String kind = type >= 0 && type < TYPES.length ? TYPES[type] : "?" + type;
+        System.out.println(TIMESTAMP.format(Instant.ofEpochMilli(time)) + " " + kind + " " + text);
+      }
+    }
+    catch (EOFException | ZipException e)
+    {
+      // the process died part way through a batch, every complete record before it has been printed
+      System.out.println("-- " + path + " ends where its run stopped writing");
+    }
+  }
+}
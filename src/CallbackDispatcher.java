@@ -0,0 +1,229 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import quickfix.Message;
+import quickfix.SessionID;
+
+/**
+ * Moves the handling of inbound messages off the QuickFIX/J thread
+ *
+ * A session callback only queues the message and returns, so the thread reading the socket is back on
+ * it straight away whatever the handler does: update the state, send follow up requests, complete the
+ * futures the trading code waits on. Each session has a queue of its own, drained by one task at a time,
+ * so a session's messages are still handled one after the other in the order they arrived, while
+ * different sessions are handled in parallel.
+ *
+ * The model picks what runs the handlers:
+ *   INLINE    the callback thread itself, as QuickFIX/J does on its own
+ *   EXECUTOR  a dedicated pool of platform threads
+ *   VIRTUAL   a virtual thread per drain, on a JDK that has them, the EXECUTOR pool otherwise
+ */
+public class CallbackDispatcher
+{
+  /**
+   * What runs the handlers
+   */
+  public enum Model
+  {
+    INLINE,
+    EXECUTOR,
+    VIRTUAL
+  }
+
+  /**
+   * Handles one inbound message
+   */
+  public interface Handler
+  {
+    void handle(Message message, SessionID sessionID, long arrivedNanos);
+  }
+
+  static private class Event
+  {
+    final Message message;
+    final long arrivedNanos;
+
+    Event(Message message, long arrivedNanos)
+    {
+      this.message = message;
+      this.arrivedNanos = arrivedNanos;
+    }
+  }
+
+  /**
+   * The messages of one session waiting to be handled
+   */
+  private class SessionQueue implements Runnable
+  {
+    final SessionID sessionID;
+    final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<Event>();
+    // a drain is submitted or running, so the queue is not drained twice at once
+    final AtomicBoolean scheduled = new AtomicBoolean();
+
+    SessionQueue(SessionID sessionID)
+    {
+      this.sessionID = sessionID;
+    }
+
+    public void run()
+    {
+      while (true)
+      {
+        Event event;
+        while ((event = events.poll()) != null)
+        {
+          queued.decrementAndGet();
+          handle(event.message, sessionID, event.arrivedNanos);
+        }
+        scheduled.set(false);
+        // a message queued after the last poll but before the flag was cleared found the drain still
+        // scheduled, so look once more before leaving
+        if (events.isEmpty() || !scheduled.compareAndSet(false, true))
+          return;
+      }
+    }
+  }
+
+  private final Model model;
+  private final Handler handler;
+  private final LatencyHistogram latency;
+  private final ExecutorService executor;
+  private final ConcurrentHashMap<SessionID, SessionQueue> queues = new ConcurrentHashMap<SessionID, SessionQueue>();
+  private final AtomicLong queued = new AtomicLong();
+  private final AtomicLong handled = new AtomicLong();
+
+  /**
+   * @param model - what runs the handlers
+   * @param threads - the size of the EXECUTOR pool
+   * @param handler - handles each message
+   * @param latency - receives the time from the arrival of each message until it was handled, queueing
+   *   included, or null
+   */
+  public CallbackDispatcher(Model model, int threads, Handler handler, LatencyHistogram latency)
+  {
+    this.handler = handler;
+    this.latency = latency;
+    ExecutorService executor = null;
+    if (model == Model.VIRTUAL)
+    {
+      executor = newVirtualThreadExecutor();
+      if (executor == null)
+      {
+        System.out.println("Virtual threads are not available on Java " + System.getProperty("java.version")
+          + ", handling callbacks on a thread pool instead");
+        model = Model.EXECUTOR;
+      }
+    }
+    if (model == Model.EXECUTOR)
+    {
+      AtomicInteger count = new AtomicInteger();
+      executor = Executors.newFixedThreadPool(Math.max(1, threads), r ->
+      {
+        Thread thread = new Thread(r, "callbacks-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    this.model = model;
+    this.executor = executor;
+  }
+
+  /**
+   * Create an executor starting a virtual thread per task, looked up by reflection so this compiles and
+   * runs on JDKs without them
+   *
+   * @return - the executor, or null if the JDK has no virtual threads
+   */
+  static private ExecutorService newVirtualThreadExecutor()
+  {
+    try
+    {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService)factory.invoke(null);
+    }
+    catch (ReflectiveOperationException | UnsupportedOperationException e)
+    {
+      // either missing, or a preview feature that was not enabled
+      return null;
+    }
+  }
+
+  /**
+   * Handle a message, now on the calling thread for the INLINE model, or later in the order it arrived
+   * on the session otherwise
+   *
+   * @param message - the message, not to be changed by the caller afterwards
+   * @param sessionID - the session it arrived on
+   * @param arrivedNanos - System.nanoTime() when it arrived
+   */
+  public void dispatch(Message message, SessionID sessionID, long arrivedNanos)
+  {
+    if (executor == null)
+    {
+      handle(message, sessionID, arrivedNanos);
+      return;
+    }
+    SessionQueue queue = queues.get(sessionID);
+    if (queue == null)
+      queue = queues.computeIfAbsent(sessionID, SessionQueue::new);
+    queued.incrementAndGet();
+    queue.events.offer(new Event(message, arrivedNanos));
+    if (queue.scheduled.compareAndSet(false, true))
+    {
+      try
+      {
+        executor.execute(queue);
+      }
+      catch (RejectedExecutionException e)
+      {
+        // shut down, the message will not be handled
+        queue.scheduled.set(false);
+      }
+    }
+  }
+
+  private void handle(Message message, SessionID sessionID, long arrivedNanos)
+  {
+    try
+    {
+      handler.handle(message, sessionID, arrivedNanos);
+    }
+    catch (RuntimeException e)
+    {
+      e.printStackTrace();
+    }
+    handled.incrementAndGet();
+    if (latency != null)
+      latency.record(System.nanoTime() - arrivedNanos);
+  }
+
+  /**
+   * Stop handling messages, dropping whatever is still queued
+   */
+  public void close()
+  {
+    if (executor != null)
+      executor.shutdownNow();
+  }
+
+  /**
+   * Retrieve what runs the handlers, after any fallback from VIRTUAL
+   */
+  public Model getModel() { return model; }
+  /**
+   * Retrieve whether messages are handled on the callback thread
+   */
+  public boolean isInline() { return executor == null; }
+  /**
+   * Retrieve the number of messages queued and not handled yet, across every session
+   */
+  public long getQueued() { return queued.get(); }
+  public long getHandled() { return handled.get(); }
+}
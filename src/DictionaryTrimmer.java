@@ -0,0 +1,177 @@
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Build step that trims the FXCM data dictionary down to the messages this application exchanges
+ *
+ * Keeps the header, the trailer, every admin message and the listed application messages, then drops
+ * every component and field definition none of them reference. Custom fields (5000 and up) are always
+ * kept, FXCM adds them to messages freely. A message type that has been trimmed away is rejected by
+ * the session like any other unknown type, so the list must cover everything the counterparty sends.
+ *
+ * Usage: DictionaryTrimmer full.xml trimmed.xml [msgtype...]
+ *   with no message types, keeps those MyApp sends and handles plus FXCM's rejects
+ */
+public class DictionaryTrimmer
+{
+  static final private int USER_DEFINED_TAG_MIN = 5000;
+  // what MyApp sends, what it handles, and the replies FXCM may send to those requests
+  static final private String[] MYAPP_MESSAGES = {
+    "BE", "BF",             // UserRequest, UserResponse
+    "g", "h",               // TradingSessionStatusRequest, TradingSessionStatus
+    "e", "f",               // SecurityStatusRequest, SecurityStatus
+    "BB", "BA", "BG",       // CollateralInquiry, CollateralReport, CollateralInquiryAck
+    "AN", "AO", "AP",       // RequestForPositions, RequestForPositionsAck, PositionReport
+    "V", "W", "Y",          // MarketDataRequest, MarketDataSnapshotFullRefresh, MarketDataRequestReject
+    "D", "8", "9",          // NewOrderSingle, ExecutionReport, OrderCancelReject
+    "j", "U52", "B"         // BusinessMessageReject, FXCMRequestReject, News
+  };
+
+  public static void main(String[] args) throws Exception
+  {
+    if (args.length < 2)
+    {
+      System.out.println("Usage: DictionaryTrimmer full.xml trimmed.xml [msgtype...]");
+      return;
+    }
+    Set<String> keep = new HashSet<String>(Arrays.asList(args.length > 2
+      ? Arrays.copyOfRange(args, 2, args.length) : MYAPP_MESSAGES));
+    Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(args[0]));
+    Element root = document.getDocumentElement();
+
+    // messages
+    Set<Element> kept = new LinkedHashSet<Element>();
+    kept.add(child(root, "header"));
+    kept.add(child(root, "trailer"));
+    int messages = 0;
+    for (Element message : children(child(root, "messages"), "message"))
+    {
+      if ("admin".equals(message.getAttribute("msgcat")) || keep.contains(message.getAttribute("msgtype")))
+        kept.add(message);
+      else
+        message.getParentNode().removeChild(message);
+      messages++;
+    }
+
+    // components, following references between components until nothing new turns up
+    Element components = child(root, "components");
+    Set<String> usedComponents = new HashSet<String>();
+    Set<Element> pending = new LinkedHashSet<Element>(kept);
+    while (!pending.isEmpty())
+    {
+      Element next = pending.iterator().next();
+      pending.remove(next);
+      for (Element reference : descendants(next, "component"))
+      {
+        if (usedComponents.add(reference.getAttribute("name")))
+        {
+          Element definition = definition(components, "component", reference.getAttribute("name"));
+          kept.add(definition);
+          pending.add(definition);
+        }
+      }
+    }
+    int componentCount = 0;
+    for (Element component : children(components, "component"))
+    {
+      if (!usedComponents.contains(component.getAttribute("name")))
+        components.removeChild(component);
+      componentCount++;
+    }
+
+    // fields, counting group counters as fields
+    Set<String> usedFields = new HashSet<String>();
+    for (Element element : kept)
+    {
+      for (Element reference : descendants(element, "field"))
+        usedFields.add(reference.getAttribute("name"));
+      for (Element reference : descendants(element, "group"))
+        usedFields.add(reference.getAttribute("name"));
+    }
+    Element fields = child(root, "fields");
+    int fieldCount = 0;
+    for (Element field : children(fields, "field"))
+    {
+      if (!usedFields.contains(field.getAttribute("name"))
+        && Integer.parseInt(field.getAttribute("number")) < USER_DEFINED_TAG_MIN)
+        fields.removeChild(field);
+      fieldCount++;
+    }
+
+    removeWhitespace(root);
+    Transformer transformer = TransformerFactory.newInstance().newTransformer();
+    transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+    transformer.setOutputProperty(OutputKeys.ENCODING, "ISO-8859-1");
+    transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+    transformer.transform(new DOMSource(document), new StreamResult(new File(args[1])));
+    System.out.println(String.format("Kept %d of %d messages, %d of %d components, %d of %d fields",
+      children(child(root, "messages"), "message").size(), messages, usedComponents.size(), componentCount,
+      children(fields, "field").size(), fieldCount));
+  }
+
+  static private Element child(Element parent, String name)
+  {
+    return children(parent, name).iterator().next();
+  }
+
+  static private Set<Element> children(Element parent, String name)
+  {
+    Set<Element> children = new LinkedHashSet<Element>();
+    for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling())
+    {
+      if (node instanceof Element && name.equals(node.getNodeName()))
+        children.add((Element)node);
+    }
+    return children;
+  }
+
+  static private Set<Element> descendants(Element parent, String name)
+  {
+    Set<Element> descendants = new LinkedHashSet<Element>();
+    NodeList nodes = parent.getElementsByTagName(name);
+    for (int i = 0; i < nodes.getLength(); i++)
+      descendants.add((Element)nodes.item(i));
+    return descendants;
+  }
+
+  static private Element definition(Element parent, String name, String definitionName)
+  {
+    for (Element element : children(parent, name))
+    {
+      if (definitionName.equals(element.getAttribute("name")))
+        return element;
+    }
+    throw new IllegalArgumentException("No " + name + " named " + definitionName);
+  }
+
+  /**
+   * Drop the whitespace the removed definitions leave behind, so the output indents cleanly
+   */
+  static private void removeWhitespace(Node node)
+  {
+    for (Node child = node.getFirstChild(); child != null;)
+    {
+      Node next = child.getNextSibling();
+      if (child.getNodeType() == Node.TEXT_NODE && child.getTextContent().trim().isEmpty())
+        node.removeChild(child);
+      else
+        removeWhitespace(child);
+      child = next;
+    }
+  }
+}
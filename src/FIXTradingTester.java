@@ -2,10 +2,12 @@ import quickfix.DefaultMessageFactory;
 import quickfix.FileLogFactory;
 import quickfix.FileStoreFactory;
 import quickfix.LogFactory;
+import quickfix.MemoryStoreFactory;
 import quickfix.MessageFactory;
 import quickfix.MessageStoreFactory;
+import quickfix.SessionID;
 import quickfix.SessionSettings;
-import quickfix.SocketInitiator;
+import quickfix.ThreadedSocketInitiator;
 import quickfix.field.Account;
 import quickfix.field.Side;
 import quickfix.field.Symbol;
@@ -13,7 +15,15 @@ import quickfix.fix44.PositionReport;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Edit of FIXTradingTester.java
@@ -22,6 +32,9 @@ import java.util.Set;
  */
 public class FIXTradingTester
 {
+  // how long to wait for any single request to be answered before giving up
+  static final private long REQUEST_TIMEOUT_SECONDS = 30;
+  
   public static void main(String[] args)
   {
     if (args.length == 1)
@@ -34,23 +47,40 @@ public class FIXTradingTester
         SessionSettings settings = new SessionSettings(fileInputStream);
         fileInputStream.close();
         MyApp app = new MyApp(settings);
-        MessageStoreFactory storeFactory = new FileStoreFactory(settings);
-        LogFactory logFactory = new FileLogFactory(settings);
+        // how many orders may wait for an execution report at once, 1 sends them in lockstep
+        int maxInFlightOrders = settings.isSetting("MaxInFlightOrders") ? (int)settings.getLong("MaxInFlightOrders") : 1;
+        // publish the message metrics over JMX, and log them every MetricsLogIntervalSeconds if set
+        app.getMetrics().start(settings.isSetting("MetricsLogIntervalSeconds") ? settings.getLong("MetricsLogIntervalSeconds") : 0);
+        MessageStoreFactory storeFactory = createStoreFactory(settings);
+        LogFactory logFactory = createLogFactory(settings);
         MessageFactory messageFactory = new DefaultMessageFactory();
-        SocketInitiator initiator = new SocketInitiator(app, storeFactory, settings, logFactory, messageFactory);
+        // every [session] gets its own connection and callback thread
+        ThreadedSocketInitiator initiator = new ThreadedSocketInitiator(app, storeFactory, settings, logFactory, messageFactory);
         initiator.start();
+        // and its own thread to trade on
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(app.getSessions().size(), 1));
+        // wait until every session has its accounts and quotes, rather than for a fixed time
+        awaitReady(app);
         System.out.println("Enter 't' to trade, all else to quit");
         BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
-        Thread.sleep(5000);
         while (true)
         {
           String str = in.readLine();
           if("t".equalsIgnoreCase(str.trim()))
-            runExample(app);
+            runAllSessions(app, executor, maxInFlightOrders);
           else
             break;
         }
+        executor.shutdown();
+        // keep what this run learned for the next start
+        app.saveState();
+        app.getMetrics().stop();
         initiator.stop(true);
+        // close the capture once the logouts are in it
+        app.stopCapture();
+        // write out the logout before the log goes
+        if (logFactory instanceof AsyncBinaryLogFactory)
+          ((AsyncBinaryLogFactory)logFactory).close();
       }
       catch (Exception e)
       {
@@ -77,59 +107,172 @@ public class FIXTradingTester
     }
   }
   
-  public static void runExample(MyApp application)
+  /**
+   * Wait for every session to be ready to trade, all of them within one timeout, reporting how long each
+   * phase of their startup took
+   */
+  static void awaitReady(MyApp application)
+  {
+    List<SessionID> sessionIDs = new ArrayList<SessionID>(application.getSessions());
+    CompletableFuture<?>[] ready = new CompletableFuture<?>[sessionIDs.size()];
+    for (int i = 0; i < ready.length; i++)
+      ready[i] = application.getBootstrap(sessionIDs.get(i)).getReady();
+    try
+    {
+      CompletableFuture.allOf(ready).get(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+    catch (Exception e)
+    {
+      // some sessions are not ready in time, reported below
+    }
+    for (int i = 0; i < ready.length; i++)
+    {
+      SessionBootstrap bootstrap = application.getBootstrap(sessionIDs.get(i));
+      if (ready[i].isDone() && !ready[i].isCompletedExceptionally())
+        System.out.println("Ready " + sessionIDs.get(i) + ": " + bootstrap.getSummary());
+      else
+        System.out.println("Not ready " + sessionIDs.get(i) + " after " + REQUEST_TIMEOUT_SECONDS + " s: "
+          + bootstrap.getSummary());
+    }
+  }
+  
+  /**
+   * Create the message store selected by MessageStoreType: file (the default), mapped or memory
+   */
+  static MessageStoreFactory createStoreFactory(SessionSettings settings) throws Exception
+  {
+    String type = settings.isSetting("MessageStoreType") ? settings.getString("MessageStoreType").trim() : "file";
+    if ("mapped".equalsIgnoreCase(type))
+      return new MappedMessageStoreFactory(settings);
+    if ("memory".equalsIgnoreCase(type))
+      return new MemoryStoreFactory();
+    if ("file".equalsIgnoreCase(type))
+      return new FileStoreFactory(settings);
+    throw new IllegalArgumentException("Unknown MessageStoreType " + type + ", expected file, mapped or memory");
+  }
+  
+  /**
+   * Create the session log selected by LogType: file (the default) or async, the binary journal
+   * rendered with BinaryLogRenderer
+   */
+  static LogFactory createLogFactory(SessionSettings settings) throws Exception
   {
+    String type = settings.isSetting("LogType") ? settings.getString("LogType").trim() : "file";
+    if ("async".equalsIgnoreCase(type))
+      return new AsyncBinaryLogFactory(settings);
+    if ("file".equalsIgnoreCase(type))
+      return new FileLogFactory(settings);
+    throw new IllegalArgumentException("Unknown LogType " + type + ", expected file or async");
+  }
+  
+  /**
+   * Run the example on every session at once, each on its own thread, and report the combined throughput
+   */
+  public static void runAllSessions(MyApp application, ExecutorService executor, int maxInFlightOrders)
+    throws Exception
+  {
+    Set<SessionID> sessionIDs = application.getSessions();
+    List<Future<Long>> results = new ArrayList<Future<Long>>();
+    long start = System.nanoTime();
+    for (SessionID sessionID : sessionIDs)
+      results.add(executor.submit(() -> runExample(application, sessionID, maxInFlightOrders)));
+    long acked = 0;
+    for (Future<Long> result : results)
+      acked += result.get();
+    long elapsed = System.nanoTime() - start;
+    System.out.println(String.format("All %d sessions: %d orders acked in %.1f ms, %.1f orders/s",
+      sessionIDs.size(), acked, elapsed / 1e6, acked * 1e9 / elapsed));
+    CallbackDispatcher callbacks = application.getCallbacks();
+    System.out.println(String.format("Callbacks handled %s: %d messages, %d queued", callbacks.getModel(),
+      callbacks.getHandled(), callbacks.getQueued()));
+    System.out.println(application.getMetrics().getSummary());
+  }
+  
+  /**
+   * Open a minimum sized position on every instrument of every account of the session, then close them
+   * 
+   * @return - the number of orders acknowledged
+   */
+  public static long runExample(MyApp application, SessionID sessionID, int maxInFlightOrders)
+  {
+    // stream the opening orders out back-to-back, at most maxInFlightOrders waiting for an execution report
+    OrderPipeline opening = new OrderPipeline(maxInFlightOrders, REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    OrderPipeline closing = new OrderPipeline(maxInFlightOrders, REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    // follow the market while trading, as a strategy would, off the session's thread
+    MarketDataFeed.Subscription quotes = application.subscribeMarketData(sessionID, null, (symbol, quote) -> { });
     // assume all details to login have been made
     try
     {
-      application.resetPositionsExecuted();
-      System.out.println("Begining trading");
-      while(!application.getRequestCompleted()) { }
-      // get accounts
-      Set<Account> accounts = application.getAccts();
-      // get instruments
-      Set<String> instruments = application.getInstruments();
+      application.resetPositionsExecuted(sessionID);
+      System.out.println("Begining trading on " + sessionID);
+      // get accounts, once the login has reported all of them, and instruments, each copied once so
+      // the sweep below walks fixed lists rather than copying the live sets per order
+      List<Account> accounts = immutableList(application.getAccountsReady(sessionID).get(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      List<String> instruments = immutableList(application.getInstruments(sessionID));
       // foreach account
-      for(int a = 0; a < accounts.size(); a++)
+      for (Account account : accounts)
       {
-        Account account = (Account)accounts.toArray()[a];
         // foreach instrument
-        for(int i = 0; i < instruments.size(); i++)
+        for (String instrument : instruments)
         {
-          String instrument = (String) instruments.toArray()[i];
           // send market order to buy for account minimum
-          application.sendMarketOrder(account, new Side(Side.SELL), instrument);
-          while(!application.getRequestCompleted()) { }
+          opening.submit(() -> application.sendMarketOrder(sessionID, account, new Side(Side.SELL), instrument));
         }
       }
-      // wait
-      Thread.sleep(5000);
-      while(!application.getRequestCompleted()) {System.out.print(".");}
-      for(int a = 0; a < accounts.size(); a++)
+      // wait for the last of the opening orders to be acknowledged
+      opening.drain(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      System.out.println(opening.report("Opening orders on " + sessionID));
+      // refresh the positions of every account and wait until all of them are reported
+      CompletableFuture<?>[] positionRequests = new CompletableFuture<?>[accounts.size()];
+      for (int a = 0; a < accounts.size(); a++)
+        positionRequests[a] = application.getPositions(sessionID, accounts.get(a));
+      CompletableFuture.allOf(positionRequests).get(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      System.out.println("Exposure on " + sessionID + " once opened: " + application.getPositionBook(sessionID).summary());
+      // get all the open and opened the position, resolving each ticket to its report once
+      List<PositionReport> opened = new ArrayList<PositionReport>();
+      for (String position : application.getPositionsExecuted(sessionID))
       {
-        Account account = (Account)accounts.toArray()[a];
-        application.getPositions(account);
+        // retrieve a position report, it may have been closed since the tickets were listed
+        PositionReport positionReport = application.getPositionReport(sessionID, position);
+        // if the position was opened by the application, the secondary order id should be FIXAPITEST
+        if (positionReport != null && application.isOpenedByOrder(positionReport, MyApp.FIXAPITEST))
+          opened.add(positionReport);
       }
-      // get all the open and opened the position
-      Set<String> positions = application.getPositionsExecuted();
       // for each position
-      for(int i = 0; i < positions.size(); i++)
+      for (PositionReport positionReport : opened)
       {
-        String position = (String)positions.toArray()[i];
-        // retrieve a position report
-        PositionReport positionReport = application.getPositionReport(position);
-        // if the position was opened by the application, the secondary order id should be FIXAPITEST
-        if(application.isOpenedByOrder(positionReport, MyApp.FIXAPITEST))
-        {
-          // send market order to sell for position size
-          application.sendMarketOrder(positionReport.getAccount(), new Side(Side.BUY), positionReport.get(new Symbol()).getValue());
-          while(!application.getRequestCompleted()) { }
-        }
+        // send market order to sell for position size
+        closing.submit(() -> application.sendMarketOrder(sessionID, positionReport.getAccount(), new Side(Side.BUY),
+          positionReport.get(new Symbol()).getValue(), OrderScheduler.Lane.CLOSING));
       }
+      closing.drain(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      System.out.println(closing.report("Closing orders on " + sessionID));
+      System.out.println("Order scheduler on " + sessionID + ": " + application.getOrderScheduler(sessionID).summary());
+      System.out.println("Pre-trade risk on " + sessionID + ": " + application.getPreTradeRisk(sessionID).summary());
+      PositionReconciler reconciler = application.getReconciler(sessionID);
+      System.out.println(String.format("Positions on %s: %d fills reconciled with %d position requests",
+        sessionID, reconciler.getFills(), reconciler.getRequests()));
+      System.out.println("Exposure on " + sessionID + " once closed: " + application.getPositionBook(sessionID).summary());
     }
     catch (Exception e)
     {
+      e.printStackTrace();
+    }
+    finally
+    {
+      quotes.close();
     }
-    System.out.println("Done trading");
+    System.out.println(String.format("Market data on %s: %d updates delivered as %d quotes, %d overruns",
+      sessionID, quotes.getUpdates(), quotes.getDelivered(), quotes.getOverruns()));
+    System.out.println("Done trading on " + sessionID);
+    return opening.getAcked() + closing.getAcked();
+  }
+  
+  /**
+   * Copy a set once into a list that can be indexed and iterated without further copies
+   */
+  static <T> List<T> immutableList(Set<T> set)
+  {
+    return Collections.unmodifiableList(new ArrayList<T>(set));
   }
 } 
\ No newline at end of file
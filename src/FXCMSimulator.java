@@ -0,0 +1,630 @@
+import java.io.FileInputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import quickfix.Application;
+import quickfix.DefaultMessageFactory;
+import quickfix.FieldNotFound;
+import quickfix.FileLogFactory;
+import quickfix.Group;
+import quickfix.LogFactory;
+import quickfix.MemoryStoreFactory;
+import quickfix.Message;
+import quickfix.Session;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+import quickfix.SocketAcceptor;
+import quickfix.field.Account;
+import quickfix.field.AccountType;
+import quickfix.field.AvgPx;
+import quickfix.field.CashOutstanding;
+import quickfix.field.ClOrdID;
+import quickfix.field.ClearingBusinessDate;
+import quickfix.field.CollInquiryID;
+import quickfix.field.CollRptID;
+import quickfix.field.CollStatus;
+import quickfix.field.CumQty;
+import quickfix.field.ExecID;
+import quickfix.field.ExecType;
+import quickfix.field.LastPx;
+import quickfix.field.LastQty;
+import quickfix.field.LeavesQty;
+import quickfix.field.LongQty;
+import quickfix.field.MDEntryPx;
+import quickfix.field.MDEntryType;
+import quickfix.field.MDReqID;
+import quickfix.field.MarginExcess;
+import quickfix.field.NoRelatedSym;
+import quickfix.field.OrdStatus;
+import quickfix.field.OrdType;
+import quickfix.field.OrderID;
+import quickfix.field.OrderQty;
+import quickfix.field.PartyID;
+import quickfix.field.PartyIDSource;
+import quickfix.field.PartyRole;
+import quickfix.field.PartySubID;
+import quickfix.field.PartySubIDType;
+import quickfix.field.PosAmt;
+import quickfix.field.PosAmtType;
+import quickfix.field.PosMaintRptID;
+import quickfix.field.PosReqID;
+import quickfix.field.PosReqResult;
+import quickfix.field.PosReqStatus;
+import quickfix.field.PosReqType;
+import quickfix.field.PosType;
+import quickfix.field.PriorSettlPrice;
+import quickfix.field.SecondaryClOrdID;
+import quickfix.field.SettlPrice;
+import quickfix.field.SettlPriceType;
+import quickfix.field.ShortQty;
+import quickfix.field.Side;
+import quickfix.field.SubscriptionRequestType;
+import quickfix.field.Symbol;
+import quickfix.field.Text;
+import quickfix.field.TimeInForce;
+import quickfix.field.TotalNumPosReports;
+import quickfix.field.TradSesStatus;
+import quickfix.field.TradingSessionID;
+import quickfix.field.TransactTime;
+import quickfix.field.UserStatus;
+import quickfix.field.Username;
+import quickfix.fix44.CollateralInquiry;
+import quickfix.fix44.CollateralReport;
+import quickfix.fix44.ExecutionReport;
+import quickfix.fix44.MarketDataRequest;
+import quickfix.fix44.MarketDataRequestReject;
+import quickfix.fix44.MarketDataSnapshotFullRefresh;
+import quickfix.fix44.MessageCracker;
+import quickfix.fix44.NewOrderSingle;
+import quickfix.fix44.PositionReport;
+import quickfix.fix44.RequestForPositions;
+import quickfix.fix44.RequestForPositionsAck;
+import quickfix.fix44.SecurityList;
+import quickfix.fix44.TradingSessionStatus;
+import quickfix.fix44.TradingSessionStatusRequest;
+import quickfix.fix44.UserRequest;
+import quickfix.fix44.UserResponse;
+import quickfix.fix44.component.Instrument;
+
+/**
+ * In-process FIX 4.4 acceptor speaking the FXCM dialect of FIXFXCM10.xml, so MyApp can be driven
+ * and load tested without a live FXCM endpoint
+ *
+ * Answers the login sequence (UserRequest, TradingSessionStatusRequest), CollateralInquiry,
+ * MarketDataRequest, NewOrderSingle and RequestForPositions. Orders fill immediately at the
+ * simulated top of book; an order against an open position on the same account and symbol closes
+ * it, anything else opens a new one. Rates and latencies are read from the [default] section:
+ *
+ *   SimAccounts=                  number of accounts reported per login
+ *   SimSymbols=                   comma separated symbols to quote
+ *   SimSyntheticSymbols=          extra generated symbols to quote, for large instrument sweeps
+ *   SimMarketDataIntervalMillis=  how often every subscribed symbol ticks, 0 for no streaming
+ *   SimExecutionLatencyMicros=    delay before an order's ExecutionReport
+ *   SimReportLatencyMicros=       delay before collateral and position reports
+ */
+public class FXCMSimulator extends MessageCracker implements Application
+{
+  static final private int FXCMPosID = 9041;
+  static final private int FXCMLastReportRequested = 912;
+  static final private int FXCMSymPrecision = 9001;
+  static final private int FXCMSymPointSize = 9002;
+  static final private int FXCMMinQuantity = 9095;
+  static final private int FXCMUsedMargin = 9038;
+  // the cash every simulated account holds, all of it available as margin
+  static final private double ACCOUNT_CASH = 50000;
+  static final private String DEFAULT_SYMBOLS = "EUR/USD,USD/JPY,GBP/USD,USD/CHF,AUD/USD,USD/CAD,NZD/USD,EUR/JPY";
+
+  /**
+   * An open position held by the simulator
+   */
+  static private class SimPosition
+  {
+    String posID;
+    String account;
+    String symbol;
+    char side;
+    double qty;
+    double price;
+    String orderID;
+    String clOrdID;
+    String secondaryClOrdID;
+  }
+
+  private final int accountCount;
+  private final List<String> symbols;
+  private final long marketDataIntervalMillis;
+  private final long executionLatencyMicros;
+  private final long reportLatencyMicros;
+  // ticks the market data of every session
+  private final ScheduledExecutorService scheduler;
+  // delays the responses of each session on a thread of its own, so its fills run one at a time and
+  // its reports go out in the order they were requested
+  private final ConcurrentHashMap<SessionID, ScheduledExecutorService> sessionSchedulers =
+    new ConcurrentHashMap<SessionID, ScheduledExecutorService>();
+
+  private final AtomicLong ids = new AtomicLong();
+  private final ConcurrentHashMap<String, Double> mids = new ConcurrentHashMap<String, Double>();
+  // subscribed symbols and the MDReqID they were subscribed with, per session
+  private final ConcurrentHashMap<SessionID, ConcurrentHashMap<String, String>> subscriptions =
+    new ConcurrentHashMap<SessionID, ConcurrentHashMap<String, String>>();
+  // open positions by FXCMPosID, per session
+  private final ConcurrentHashMap<SessionID, ConcurrentHashMap<String, SimPosition>> positions =
+    new ConcurrentHashMap<SessionID, ConcurrentHashMap<String, SimPosition>>();
+  private final AtomicLong ordersFilled = new AtomicLong();
+  private final AtomicLong snapshotsSent = new AtomicLong();
+  private final AtomicLong requestsRejected = new AtomicLong();
+
+  public FXCMSimulator(SessionSettings settings) throws Exception
+  {
+    this.accountCount = (int)getLong(settings, "SimAccounts", 1);
+    this.marketDataIntervalMillis = getLong(settings, "SimMarketDataIntervalMillis", 1000);
+    this.executionLatencyMicros = getLong(settings, "SimExecutionLatencyMicros", 0);
+    this.reportLatencyMicros = getLong(settings, "SimReportLatencyMicros", 0);
+    this.symbols = new ArrayList<String>();
+    String configured = settings.isSetting("SimSymbols") ? settings.getString("SimSymbols") : DEFAULT_SYMBOLS;
+    for (String symbol : configured.split(","))
+      if (!symbol.trim().isEmpty())
+        symbols.add(symbol.trim());
+    long synthetic = getLong(settings, "SimSyntheticSymbols", 0);
+    for (int i = 0; i < synthetic; i++)
+      symbols.add(String.format("SYN%03d/USD", i));
+    for (int i = 0; i < symbols.size(); i++)
+      mids.put(symbols.get(i), symbols.get(i).endsWith("JPY") ? 110.0 + i : 1.0 + i * 0.05);
+    this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    if (marketDataIntervalMillis > 0)
+      scheduler.scheduleAtFixedRate(this::tick, marketDataIntervalMillis, marketDataIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public static void main(String[] args)
+  {
+    if (args.length != 1)
+    {
+      System.out.println("Error: Supply simulator configuration file");
+      return;
+    }
+    try
+    {
+      SessionSettings settings;
+      FileInputStream fileInputStream = new FileInputStream(args[0]);
+      try
+      {
+        settings = new SessionSettings(fileInputStream);
+      }
+      finally
+      {
+        fileInputStream.close();
+      }
+      FXCMSimulator simulator = new FXCMSimulator(settings);
+      LogFactory logFactory = settings.isSetting("FileLogPath") ? new FileLogFactory(settings) : null;
+      SocketAcceptor acceptor = new SocketAcceptor(simulator, new MemoryStoreFactory(), settings, logFactory,
+        new DefaultMessageFactory());
+      acceptor.start();
+      System.out.println("FXCM simulator quoting " + simulator.symbols.size() + " symbols, press enter to stop");
+      System.in.read();
+      acceptor.stop(true);
+      simulator.stop();
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Stop the market data stream and any pending delayed responses
+   */
+  public void stop()
+  {
+    scheduler.shutdownNow();
+    for (ScheduledExecutorService sessionScheduler : sessionSchedulers.values())
+      sessionScheduler.shutdownNow();
+    System.out.println("FXCM simulator filled " + ordersFilled.get() + " orders, sent "
+      + snapshotsSent.get() + " snapshots, rejected " + requestsRejected.get() + " requests");
+  }
+
+  /**
+   * Retrieve the number of requests rejected, such as disable requests naming the wrong MDReqID
+   */
+  public long getRequestsRejected() { return requestsRejected.get(); }
+
+//START SECTION - quickfix.Application implementation
+  public void onCreate(SessionID sessionID)
+  {
+    subscriptions.put(sessionID, new ConcurrentHashMap<String, String>());
+    positions.put(sessionID, new ConcurrentHashMap<String, SimPosition>());
+    sessionSchedulers.put(sessionID, Executors.newSingleThreadScheduledExecutor(r ->
+    {
+      Thread thread = new Thread(r, "simulator-" + sessionID);
+      thread.setDaemon(true);
+      return thread;
+    }));
+  }
+
+  public void onLogon(SessionID sessionID)
+  {
+    System.out.println("Simulator logon " + sessionID);
+  }
+
+  public void onLogout(SessionID sessionID)
+  {
+    // a new login starts its market data subscription afresh
+    subscriptions.get(sessionID).clear();
+    System.out.println("Simulator logout " + sessionID);
+  }
+
+  public void toAdmin(Message message, SessionID sessionID) { }
+
+  public void fromAdmin(Message message, SessionID sessionID) { }
+
+  public void toApp(Message message, SessionID sessionID) { }
+
+  public void fromApp(Message message, SessionID sessionID)
+  {
+    try
+    {
+      crack(message, sessionID);
+    }
+    catch (Exception e)
+    {
+      // the simulator ignores messages it does not simulate
+    }
+  }
+//END SECTION - quickfix.Application implementation
+
+//START SECTION - extension of quickfix.fix44.MessageCracker
+  /**
+   * Accept every login, reporting the user as logged in
+   */
+  public void onMessage(UserRequest request, SessionID sessionID) throws FieldNotFound
+  {
+    UserResponse response = new UserResponse();
+    response.set(request.getUserRequestID());
+    response.set(new Username(request.getString(Username.FIELD)));
+    response.set(new UserStatus(UserStatus.LOGGED_IN));
+    send(response, sessionID);
+  }
+
+  /**
+   * Report the trading session as open, listing every simulated symbol
+   */
+  public void onMessage(TradingSessionStatusRequest request, SessionID sessionID) throws FieldNotFound
+  {
+    TradingSessionStatus status = new TradingSessionStatus();
+    status.set(request.getTradSesReqID());
+    status.set(new TradingSessionID("FXCM"));
+    status.set(new TradSesStatus(TradSesStatus.OPEN));
+    for (String symbol : symbols)
+    {
+      SecurityList.NoRelatedSym relatedSym = new SecurityList.NoRelatedSym();
+      relatedSym.set(new Instrument(new Symbol(symbol)));
+      status.addGroup(relatedSym);
+    }
+    send(status, sessionID);
+  }
+
+  /**
+   * Report every simulated account, flagging the last report of the batch with tag 912
+   */
+  public void onMessage(CollateralInquiry inquiry, SessionID sessionID) throws FieldNotFound
+  {
+    CollInquiryID inquiryID = inquiry.getCollInquiryID();
+    later(sessionID, reportLatencyMicros, () ->
+    {
+      for (int i = 0; i < accountCount; i++)
+      {
+        CollateralReport report = new CollateralReport(new CollRptID(nextID()), new CollStatus(CollStatus.ASSIGNED));
+        report.set(inquiryID);
+        report.set(new Account(account(i)));
+        report.set(new AccountType(AccountType.ACCOUNT_IS_CARRIED_ON_NON_CUSTOMER_SIDE_OF_BOOKS_AND_IS_CROSS_MARGINED));
+        report.set(new CashOutstanding(ACCOUNT_CASH));
+        report.set(new MarginExcess(ACCOUNT_CASH));
+        report.setDouble(FXCMUsedMargin, 0);
+        report.setBoolean(FXCMLastReportRequested, i == accountCount - 1);
+        addParties(report, account(i));
+        send(report, sessionID);
+      }
+    });
+  }
+
+  /**
+   * Subscribe to, or unsubscribe from, the requested symbols and send the first snapshot of each
+   */
+  public void onMessage(MarketDataRequest request, SessionID sessionID) throws FieldNotFound
+  {
+    String mdReqID = request.getMDReqID().getValue();
+    boolean unsubscribe = request.getSubscriptionRequestType().valueEquals(
+      SubscriptionRequestType.DISABLE_PREVIOUS_SNAPSHOT_UPDATE_REQUEST);
+    ConcurrentHashMap<String, String> subscribed = subscriptions.get(sessionID);
+    int max = request.getInt(NoRelatedSym.FIELD);
+    // a disable request cancels the request its MDReqID names, so every symbol in it must have been
+    // subscribed with that id
+    for (int i = 1; unsubscribe && i <= max; i++)
+    {
+      String symbol = request.getGroup(i, new MarketDataRequest.NoRelatedSym()).getString(Symbol.FIELD);
+      if (!mdReqID.equals(subscribed.get(symbol)))
+      {
+        requestsRejected.incrementAndGet();
+        MarketDataRequestReject reject = new MarketDataRequestReject(new MDReqID(mdReqID));
+        reject.set(new Text(symbol + " is not subscribed with MDReqID " + mdReqID));
+        send(reject, sessionID);
+        return;
+      }
+    }
+    for (int i = 1; i <= max; i++)
+    {
+      String symbol = request.getGroup(i, new MarketDataRequest.NoRelatedSym()).getString(Symbol.FIELD);
+      if (unsubscribe)
+      {
+        subscribed.remove(symbol);
+      }
+      else if (mids.containsKey(symbol))
+      {
+        if (!request.getSubscriptionRequestType().valueEquals(SubscriptionRequestType.SNAPSHOT))
+          subscribed.put(symbol, mdReqID);
+        send(snapshot(symbol, mdReqID), sessionID);
+      }
+    }
+  }
+
+  /**
+   * Fill the order at the current top of book, opening or closing a position
+   */
+  public void onMessage(NewOrderSingle order, SessionID sessionID) throws FieldNotFound
+  {
+    later(sessionID, executionLatencyMicros, () ->
+    {
+      try
+      {
+        fill(order, sessionID);
+      }
+      catch (FieldNotFound e)
+      {
+        e.printStackTrace();
+      }
+    });
+  }
+
+  /**
+   * Report the open positions of the account, or acknowledge that there are none
+   */
+  public void onMessage(RequestForPositions request, SessionID sessionID) throws FieldNotFound
+  {
+    String account = request.getAccount().getValue();
+    PosReqID posReqID = request.getPosReqID();
+    boolean open = request.getPosReqType().valueEquals(PosReqType.POSITIONS);
+    later(sessionID, reportLatencyMicros, () ->
+    {
+      List<SimPosition> matching = new ArrayList<SimPosition>();
+      // the simulator keeps no history, so closed trades are only ever reported as they close
+      if (open)
+      {
+        for (SimPosition position : positions.get(sessionID).values())
+          if (position.account.equals(account))
+            matching.add(position);
+      }
+      if (matching.isEmpty())
+      {
+        RequestForPositionsAck ack = new RequestForPositionsAck(new PosMaintRptID(nextID()),
+          new PosReqResult(PosReqResult.NO_POSITIONS_FOUND_THAT_MATCH_CRITERIA),
+          new PosReqStatus(PosReqStatus.COMPLETED), new Account(account),
+          new AccountType(AccountType.ACCOUNT_IS_CARRIED_ON_NON_CUSTOMER_SIDE_OF_BOOKS_AND_IS_CROSS_MARGINED));
+        ack.set(posReqID);
+        ack.set(new TotalNumPosReports(0));
+        addParties(ack, account);
+        send(ack, sessionID);
+        return;
+      }
+      for (int i = 0; i < matching.size(); i++)
+      {
+        PositionReport report = positionReport(matching.get(i), PosReqType.POSITIONS);
+        report.set(posReqID);
+        report.set(new TotalNumPosReports(matching.size()));
+        report.setBoolean(FXCMLastReportRequested, i == matching.size() - 1);
+        send(report, sessionID);
+      }
+    });
+  }
+//END SECTION - extension of quickfix.fix44.MessageCracker
+
+  /**
+   * Fill an order, closing an opposite position on the same account and symbol if there is one
+   */
+  private void fill(NewOrderSingle order, SessionID sessionID) throws FieldNotFound
+  {
+    String account = order.getAccount().getValue();
+    String symbol = order.getSymbol().getValue();
+    char side = order.getSide().getValue();
+    double qty = order.getOrderQty().getValue();
+    Double mid = mids.get(symbol);
+    double price = mid == null ? 1 : side == Side.BUY ? mid + 0.0001 : mid - 0.0001;
+    String orderID = nextID();
+    ConcurrentHashMap<String, SimPosition> open = positions.get(sessionID);
+
+    SimPosition closed = null;
+    for (Iterator<SimPosition> it = open.values().iterator(); it.hasNext();)
+    {
+      SimPosition position = it.next();
+      if (position.account.equals(account) && position.symbol.equals(symbol) && position.side != side)
+      {
+        it.remove();
+        closed = position;
+        break;
+      }
+    }
+    SimPosition position = closed;
+    if (position == null)
+    {
+      position = new SimPosition();
+      position.posID = nextID();
+      position.account = account;
+      position.symbol = symbol;
+      position.side = side;
+      position.qty = qty;
+      position.price = price;
+      position.orderID = orderID;
+      position.clOrdID = order.getClOrdID().getValue();
+      position.secondaryClOrdID = order.isSetSecondaryClOrdID() ? order.getSecondaryClOrdID().getValue() : null;
+      open.put(position.posID, position);
+    }
+
+    ExecutionReport report = new ExecutionReport(new OrderID(orderID), new ExecID(nextID()),
+      new ExecType(ExecType.TRADE), new OrdStatus(OrdStatus.FILLED), new Side(side), new LeavesQty(0),
+      new CumQty(qty), new AvgPx(price));
+    report.set(order.getClOrdID());
+    if (order.isSetSecondaryClOrdID())
+      report.set(order.getSecondaryClOrdID());
+    report.set(new Account(account));
+    report.set(new Symbol(symbol));
+    report.set(new OrdType(OrdType.MARKET));
+    report.set(new OrderQty(qty));
+    report.set(order.isSetTimeInForce() ? order.getTimeInForce() : new TimeInForce(TimeInForce.GOOD_TILL_CANCEL));
+    report.set(new LastQty(qty));
+    report.set(new LastPx(price));
+    report.set(new TransactTime(LocalDateTime.now()));
+    report.setString(FXCMPosID, position.posID);
+    send(report, sessionID);
+    ordersFilled.incrementAndGet();
+
+    // FXCM reports a closed position as an unsolicited closed trade report
+    if (closed != null)
+    {
+      PositionReport closedReport = positionReport(closed, PosReqType.TRADES);
+      send(closedReport, sessionID);
+    }
+  }
+
+  /**
+   * Send a fresh snapshot of every subscribed symbol after moving its price
+   */
+  private void tick()
+  {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (String symbol : symbols)
+      mids.computeIfPresent(symbol, (s, mid) -> mid * (1 + (random.nextDouble() - 0.5) * 0.0002));
+    for (SessionID sessionID : subscriptions.keySet())
+    {
+      for (Map.Entry<String, String> entry : subscriptions.get(sessionID).entrySet())
+        send(snapshot(entry.getKey(), entry.getValue()), sessionID);
+    }
+  }
+
+  private MarketDataSnapshotFullRefresh snapshot(String symbol, String mdReqID)
+  {
+    double mid = mids.get(symbol);
+    double point = symbol.endsWith("JPY") ? 0.01 : 0.0001;
+    MarketDataSnapshotFullRefresh snapshot = new MarketDataSnapshotFullRefresh();
+    snapshot.set(new MDReqID(mdReqID));
+    snapshot.set(new Symbol(symbol));
+    snapshot.setInt(FXCMSymPrecision, symbol.endsWith("JPY") ? 3 : 5);
+    snapshot.setDouble(FXCMSymPointSize, point);
+    snapshot.setDouble(FXCMMinQuantity, 1);
+    addEntry(snapshot, MDEntryType.BID, mid - point);
+    addEntry(snapshot, MDEntryType.OFFER, mid + point);
+    addEntry(snapshot, MDEntryType.TRADING_SESSION_HIGH_PRICE, mid + 100 * point);
+    addEntry(snapshot, MDEntryType.TRADING_SESSION_LOW_PRICE, mid - 100 * point);
+    snapshotsSent.incrementAndGet();
+    return snapshot;
+  }
+
+  static private void addEntry(MarketDataSnapshotFullRefresh snapshot, char type, double price)
+  {
+    MarketDataSnapshotFullRefresh.NoMDEntries entry = new MarketDataSnapshotFullRefresh.NoMDEntries();
+    entry.set(new MDEntryType(type));
+    entry.set(new MDEntryPx(price));
+    snapshot.addGroup(entry);
+  }
+
+  private PositionReport positionReport(SimPosition position, int posReqType)
+  {
+    PositionReport report = new PositionReport(new PosMaintRptID(nextID()),
+      new PosReqResult(PosReqResult.VALID_REQUEST), new ClearingBusinessDate(LocalDateTime.now().toLocalDate()
+        .toString().replace("-", "")), new Account(position.account),
+      new AccountType(AccountType.ACCOUNT_IS_CARRIED_ON_NON_CUSTOMER_SIDE_OF_BOOKS_AND_IS_CROSS_MARGINED),
+      new SettlPrice(position.price), new SettlPriceType(SettlPriceType.FINAL), new PriorSettlPrice(0));
+    report.set(new PosReqType(posReqType));
+    report.set(new Symbol(position.symbol));
+    addParties(report, position.account);
+    PositionReport.NoPositions qty = new PositionReport.NoPositions();
+    qty.set(new PosType(PosType.TRANSACTION_QUANTITY));
+    if (position.side == Side.BUY)
+      qty.set(new LongQty(position.qty));
+    else
+      qty.set(new ShortQty(position.qty));
+    report.addGroup(qty);
+    PositionReport.NoPosAmt amount = new PositionReport.NoPosAmt();
+    amount.set(new PosAmtType(PosAmtType.FINAL_MARK_TO_MARKET_AMOUNT));
+    amount.set(new PosAmt(0));
+    report.addGroup(amount);
+    report.setString(OrderID.FIELD, position.orderID);
+    report.setString(ClOrdID.FIELD, position.clOrdID);
+    if (position.secondaryClOrdID != null)
+      report.setString(SecondaryClOrdID.FIELD, position.secondaryClOrdID);
+    report.setString(FXCMPosID, position.posID);
+    return report;
+  }
+
+  /**
+   * Add the FXCM parties group identifying the account
+   */
+  static private void addParties(Message message, String account)
+  {
+    CollateralReport.NoPartyIDs party = new CollateralReport.NoPartyIDs();
+    party.set(new PartyID("FXCM ID"));
+    party.set(new PartyIDSource(PartyIDSource.PROPRIETARY_CUSTOM_CODE));
+    party.set(new PartyRole(PartyRole.CLEARING_FIRM));
+    Group sub = new CollateralReport.NoPartyIDs.NoPartySubIDs();
+    sub.setField(new PartySubID(account));
+    sub.setField(new PartySubIDType(PartySubIDType.SECURITIES_ACCOUNT_NUMBER));
+    party.addGroup(sub);
+    message.addGroup(party);
+  }
+
+  static private String account(int index)
+  {
+    return String.format("%08d", 1000000 + index);
+  }
+
+  private String nextID()
+  {
+    return String.valueOf(ids.incrementAndGet());
+  }
+
+  /**
+   * Run the task after the given delay on the session's own thread, or straight away on the callback
+   * thread if there is none. Tasks with the same delay, such as the fills of a session, run one at a time
+   * in the order they were requested.
+   */
+  private void later(SessionID sessionID, long delayMicros, Runnable task)
+  {
+    if (delayMicros <= 0)
+      task.run();
+    else
+      sessionSchedulers.get(sessionID).schedule(task, delayMicros, TimeUnit.MICROSECONDS);
+  }
+
+  static private void send(Message message, SessionID sessionID)
+  {
+    try
+    {
+      Session.sendToTarget(message, sessionID);
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+    }
+  }
+
+  static private long getLong(SessionSettings settings, String key, long defaultValue) throws Exception
+  {
+    return settings.isSetting(key) ? settings.getLong(key) : defaultValue;
+  }
+}
@@ -0,0 +1,280 @@
+import java.util.Arrays;
+
+import quickfix.FieldNotFound;
+
+/**
+ * Reusable, allocation free view of selected fields of a raw FIX message
+ *
+ * wrap() scans the tag=value pairs of the raw text once and remembers where each occurrence of the
+ * tags it was built for starts and ends; every other tag is skipped. Values are then read straight
+ * out of the text, as chars, numbers or comparisons, without building a Message, its FieldMaps or
+ * any field objects. Repeated tags, such as the entries of a repeating group, are kept in order up
+ * to a fixed number of occurrences; a message with more is flagged as truncated, so callers that read
+ * every occurrence can leave it to a full parse rather than work on part of it.
+ *
+ * An instance is not thread safe; each thread decoding messages keeps its own.
+ */
+public class FixFieldScanner
+{
+  static final private char SOH = '\u0001';
+  // tags above this are never indexed
+  static final private int MAX_TAG = 10000;
+  static final private int MAX_OCCURRENCES = 16;
+  // powers of ten that are exact as doubles
+  static final private double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+    1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  // slot of each indexed tag plus one, zero for tags that are skipped
+  private final short[] slotOf = new short[MAX_TAG + 1];
+  private final int[] counts;
+  private final int[] starts;
+  private final int[] ends;
+  private CharSequence raw;
+  private boolean truncated;
+
+  /**
+   * @param tags - the tags to index
+   */
+  public FixFieldScanner(int... tags)
+  {
+    for (int i = 0; i < tags.length; i++)
+    {
+      if (tags[i] <= 0 || tags[i] > MAX_TAG)
+        throw new IllegalArgumentException("Tag " + tags[i] + " can not be indexed");
+      slotOf[tags[i]] = (short)(i + 1);
+    }
+    counts = new int[tags.length];
+    starts = new int[tags.length * MAX_OCCURRENCES];
+    ends = new int[tags.length * MAX_OCCURRENCES];
+  }
+
+  /**
+   * Index a raw message, replacing the previous one
+   *
+   * @param message - the raw message, with SOH delimiters
+   * @return - this view
+   */
+  public FixFieldScanner wrap(CharSequence message)
+  {
+    raw = message;
+    truncated = false;
+    Arrays.fill(counts, 0);
+    int length = message.length();
+    int i = 0;
+    while (i < length)
+    {
+      // tag
+      int tag = 0;
+      char c;
+      while (i < length && (c = message.charAt(i)) != '=')
+      {
+        tag = c >= '0' && c <= '9' && tag <= MAX_TAG ? tag * 10 + (c - '0') : MAX_TAG + 1;
+        i++;
+      }
+      int start = ++i;
+      // value
+      while (i < length && message.charAt(i) != SOH)
+        i++;
+      if (tag <= MAX_TAG && slotOf[tag] != 0)
+      {
+        int slot = slotOf[tag] - 1;
+        int occurrence = counts[slot];
+        if (occurrence < MAX_OCCURRENCES)
+        {
+          starts[slot * MAX_OCCURRENCES + occurrence] = start;
+          ends[slot * MAX_OCCURRENCES + occurrence] = i;
+          counts[slot] = occurrence + 1;
+        }
+        else
+          truncated = true;
+      }
+      i++;
+    }
+    return this;
+  }
+
+  /**
+   * Retrieve whether the tag is present
+   */
+  public boolean isSet(int tag)
+  {
+    return count(tag) > 0;
+  }
+
+  /**
+   * Retrieve whether an indexed tag occurred more often than the occurrences kept, so count() and the
+   * reads of its occurrences only cover the first of them
+   */
+  public boolean isTruncated()
+  {
+    return truncated;
+  }
+
+  /**
+   * Retrieve the number of times the tag occurs, up to the number of occurrences kept
+   */
+  public int count(int tag)
+  {
+    int slot = tag > 0 && tag <= MAX_TAG ? slotOf[tag] - 1 : -1;
+    if (slot < 0)
+      throw new IllegalArgumentException("Tag " + tag + " is not indexed");
+    return counts[slot];
+  }
+
+  /**
+   * Retrieve the first character of the first occurrence of the tag
+   */
+  public char getChar(int tag)
+    throws FieldNotFound
+  {
+    return getChar(tag, 0);
+  }
+
+  public char getChar(int tag, int occurrence)
+    throws FieldNotFound
+  {
+    int at = position(tag, occurrence);
+    return starts[at] < ends[at] ? raw.charAt(starts[at]) : 0;
+  }
+
+  /**
+   * Retrieve the first occurrence of the tag as a String, the only read that allocates
+   */
+  public String getString(int tag)
+    throws FieldNotFound
+  {
+    return getString(tag, 0);
+  }
+
+  public String getString(int tag, int occurrence)
+    throws FieldNotFound
+  {
+    int at = position(tag, occurrence);
+    return raw.subSequence(starts[at], ends[at]).toString();
+  }
+
+  /**
+   * Compare the first occurrence of the tag with a value, without copying it out
+   */
+  public boolean valueEquals(int tag, String value)
+    throws FieldNotFound
+  {
+    return valueEquals(tag, 0, value);
+  }
+
+  public boolean valueEquals(int tag, int occurrence, String value)
+    throws FieldNotFound
+  {
+    int at = position(tag, occurrence);
+    int start = starts[at];
+    int length = ends[at] - start;
+    if (length != value.length())
+      return false;
+    for (int i = 0; i < length; i++)
+    {
+      if (raw.charAt(start + i) != value.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Retrieve the String hash code of the first occurrence of the tag, so it can be looked up in a
+   * table of known values without being copied out
+   */
+  public int valueHash(int tag)
+    throws FieldNotFound
+  {
+    int at = position(tag, 0);
+    int hash = 0;
+    for (int i = starts[at]; i < ends[at]; i++)
+      hash = 31 * hash + raw.charAt(i);
+    return hash;
+  }
+
+  /**
+   * Retrieve the first occurrence of the tag as a long
+   */
+  public long getLong(int tag)
+    throws FieldNotFound
+  {
+    int at = position(tag, 0);
+    int i = starts[at];
+    boolean negative = i < ends[at] && raw.charAt(i) == '-';
+    if (negative)
+      i++;
+    long value = 0;
+    for (; i < ends[at]; i++)
+    {
+      char c = raw.charAt(i);
+      if (c < '0' || c > '9')
+        throw new NumberFormatException("Tag " + tag + " is not an integer: " + getString(tag));
+      value = value * 10 + (c - '0');
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Retrieve the first occurrence of the tag as a boolean, Y or N
+   */
+  public boolean getBoolean(int tag)
+    throws FieldNotFound
+  {
+    return getChar(tag) == 'Y';
+  }
+
+  /**
+   * Retrieve the first occurrence of the tag as a double
+   */
+  public double getDouble(int tag)
+    throws FieldNotFound
+  {
+    return getDouble(tag, 0);
+  }
+
+  /**
+   * Retrieve an occurrence of the tag as a double. Plain decimals of up to 18 significant digits are
+   * parsed in place, and rounded exactly as Double.parseDouble would; anything else is handed to it.
+   */
+  public double getDouble(int tag, int occurrence)
+    throws FieldNotFound
+  {
+    int at = position(tag, occurrence);
+    int i = starts[at];
+    int end = ends[at];
+    boolean negative = i < end && raw.charAt(i) == '-';
+    if (negative)
+      i++;
+    long mantissa = 0;
+    int digits = 0;
+    int decimals = -1;
+    for (; i < end; i++)
+    {
+      char c = raw.charAt(i);
+      if (c == '.' && decimals < 0)
+        decimals = 0;
+      else if (c >= '0' && c <= '9' && digits < 18)
+      {
+        mantissa = mantissa * 10 + (c - '0');
+        if (mantissa != 0)
+          digits++;
+        if (decimals >= 0)
+          decimals++;
+      }
+      else
+        return Double.parseDouble(getString(tag, occurrence));
+    }
+    if (decimals >= POWERS_OF_TEN.length || mantissa > (1L << 53))
+      return Double.parseDouble(getString(tag, occurrence));
+    double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+    return negative ? -value : value;
+  }
+
+  private int position(int tag, int occurrence)
+    throws FieldNotFound
+  {
+    if (occurrence >= count(tag))
+      throw new FieldNotFound(tag);
+    return (slotOf[tag] - 1) * MAX_OCCURRENCES + occurrence;
+  }
+}
@@ -0,0 +1,97 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free generator of request ids that stay unique across restarts
+ *
+ * Every id is a fixed prefix followed by a counter: the prefix carries the epoch time the generator
+ * was created at, in base 36, so a restarted process never reissues the ids of an earlier run, and the
+ * counter is a 64 bit atomic that does not wrap. Ids can be written into a caller's char buffer without
+ * allocating, or copied out as a String with a single allocation.
+ */
+public class IdGenerator
+{
+  // enough for the longest prefix and any long
+  static final private int MAX_LENGTH = 64;
+
+  private final char[] prefix;
+  private final AtomicLong counter = new AtomicLong();
+  // scratch buffer for next(), one per thread
+  private final ThreadLocal<char[]> buffers = ThreadLocal.withInitial(() -> new char[MAX_LENGTH]);
+
+  /**
+   * @param tag - identifies the generator among those created at the same time, for example the
+   *   index of its session
+   */
+  public IdGenerator(String tag)
+  {
+    this(System.currentTimeMillis(), tag);
+  }
+
+  /**
+   * @param epochMillis - the time the ids are unique from
+   * @param tag - identifies the generator among those created at the same time
+   */
+  public IdGenerator(long epochMillis, String tag)
+  {
+    String value = Long.toString(epochMillis, Character.MAX_RADIX).toUpperCase() + "-" + tag + "-";
+    if (value.length() > MAX_LENGTH - 20)
+      throw new IllegalArgumentException("Id prefix " + value + " is too long");
+    prefix = value.toCharArray();
+  }
+
+  /**
+   * Retrieve the next counter value, unique within this generator
+   */
+  public long nextValue()
+  {
+    return counter.incrementAndGet();
+  }
+
+  /**
+   * Write the next id into a buffer without allocating
+   *
+   * @param buffer - receives the id
+   * @param offset - where in the buffer to write it
+   * @return - the length of the id
+   */
+  public int next(char[] buffer, int offset)
+  {
+    System.arraycopy(prefix, 0, buffer, offset, prefix.length);
+    return prefix.length + writeDigits(nextValue(), buffer, offset + prefix.length);
+  }
+
+  /**
+   * Retrieve the next id as a String
+   */
+  public String next()
+  {
+    char[] buffer = buffers.get();
+    return new String(buffer, 0, next(buffer, 0));
+  }
+
+  /**
+   * Retrieve the prefix every id of this generator starts with
+   */
+  public String getPrefix()
+  {
+    return new String(prefix);
+  }
+
+  /**
+   * Write the decimal digits of a positive value, most significant first
+   *
+   * @return - the number of digits written
+   */
+  static int writeDigits(long value, char[] buffer, int offset)
+  {
+    int digits = 1;
+    for (long remaining = value / 10; remaining != 0; remaining /= 10)
+      digits++;
+    for (int i = offset + digits - 1; i >= offset; i--)
+    {
+      buffer[i] = (char)('0' + value % 10);
+      value /= 10;
+    }
+    return digits;
+  }
+}
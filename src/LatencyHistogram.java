@@ -0,0 +1,116 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size, log-linear latency histogram in the style of HdrHistogram
+ *
+ * Values below 128 ns are counted exactly; above that every power of two is split into 64 linear
+ * sub-buckets, so any recorded value is reported within 1.6% of its true value. Recording is lock
+ * free and allocation free, so it can sit directly on the message path.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean
+{
+  static final private int SUB_BUCKET_BITS = 6;
+  static final private int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  static final private int LINEAR = SUB_BUCKETS * 2;
+  // enough buckets for any positive long
+  static final private int BUCKETS = LINEAR + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Record a latency
+   *
+   * @param nanos - the latency in nanoseconds, negative values are ignored
+   */
+  public void record(long nanos)
+  {
+    if (nanos < 0)
+      return;
+    counts.incrementAndGet(indexOf(nanos));
+    count.incrementAndGet();
+    total.addAndGet(nanos);
+    long current;
+    while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) { }
+  }
+
+  /**
+   * Retrieve the latency, in nanoseconds, below which the given fraction of recorded values fall
+   *
+   * @param percentile - the percentile, 0 to 100
+   */
+  public long getValueAtPercentile(double percentile)
+  {
+    long recorded = count.get();
+    if (recorded == 0)
+      return 0;
+    long target = Math.max(1, (long)Math.ceil(recorded * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      seen += counts.get(i);
+      if (seen >= target)
+        return Math.min(highestValueAt(i), max.get());
+    }
+    return max.get();
+  }
+
+  public long getCount() { return count.get(); }
+  public long getMax() { return max.get(); }
+  public double getMeanMicros() { long recorded = count.get(); return recorded == 0 ? 0 : total.get() / 1e3 / recorded; }
+  public double getP50Micros() { return getValueAtPercentile(50) / 1e3; }
+  public double getP99Micros() { return getValueAtPercentile(99) / 1e3; }
+  public double getP999Micros() { return getValueAtPercentile(99.9) / 1e3; }
+  public double getMaxMicros() { return max.get() / 1e3; }
+
+  /**
+   * Clear every recorded value
+   */
+  public void reset()
+  {
+    for (int i = 0; i < BUCKETS; i++)
+      counts.set(i, 0);
+    count.set(0);
+    total.set(0);
+    max.set(0);
+  }
+
+  /**
+   * Retrieve a one line summary of the percentiles in microseconds
+   */
+  public String summary()
+  {
+    return String.format("n=%d p50=%.1f p99=%.1f p99.9=%.1f max=%.1f us", getCount(), getP50Micros(),
+      getP99Micros(), getP999Micros(), getMaxMicros());
+  }
+
+  /**
+   * Retrieve a one line summary of the percentiles in nanoseconds, for latencies well under a microsecond
+   */
+  public String summaryNanos()
+  {
+    return String.format("n=%d p50=%d p99=%d p99.9=%d max=%d ns", getCount(), getValueAtPercentile(50),
+      getValueAtPercentile(99), getValueAtPercentile(99.9), getMax());
+  }
+
+  static private int indexOf(long value)
+  {
+    if (value < LINEAR)
+      return (int)value;
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    int subBucket = (int)(value >>> shift) - SUB_BUCKETS;
+    return LINEAR + (shift - 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static private long highestValueAt(int index)
+  {
+    if (index < LINEAR)
+      return index;
+    int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+    long subBucket = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,331 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.quickfixj.CharsetSupport;
+
+import quickfix.MessageStore;
+
+/**
+ * Message store journaling into a pre-sized, memory-mapped ring of sequence-indexed slots
+ *
+ * The file holds a page of header (sequence numbers and creation time) followed by a fixed number of
+ * fixed size slots. A message is written to the slot of its sequence number modulo the slot count,
+ * so storing a message is a copy into mapped memory with no system call. Once the ring wraps the
+ * oldest messages are overwritten, and a resend request for them is answered with a gap fill, just as
+ * for messages that were never stored. A message too large for a slot is appended to a side file,
+ * <journal>.overflow, and its slot holds where; the side file is emptied once no slot refers to it.
+ *
+ * How soon writes reach the disk depends on the durability:
+ *   SYNC  - every write is forced to disk before returning
+ *   GROUP - writes are forced together by a flusher every few milliseconds
+ *   OS    - writes are left to the operating system's page cache, forced only on close
+ * in each case with the side file forced before the journal.
+ */
+public class MappedMessageStore implements MessageStore, Closeable
+{
+  /**
+   * When writes are forced to disk
+   */
+  public enum Durability { SYNC, GROUP, OS }
+
+  static final private int MAGIC = 0x46495831; // "FIX1"
+  static final private int HEADER_SIZE = 4096;
+  // header offsets
+  static final private int MAGIC_OFFSET = 0;
+  static final private int SLOTS_OFFSET = 4;
+  static final private int SLOT_SIZE_OFFSET = 8;
+  static final private int NEXT_SENDER_OFFSET = 12;
+  static final private int NEXT_TARGET_OFFSET = 16;
+  static final private int CREATION_TIME_OFFSET = 24;
+  // slot offsets, the message follows its sequence number and length
+  static final private int SLOT_SEQ_OFFSET = 0;
+  static final private int SLOT_LENGTH_OFFSET = 4;
+  static final private int SLOT_HEADER_SIZE = 8;
+  // the slot length of a message in the side file, whose offset (long) the slot holds instead
+  static final private int SPILLED = -1;
+  // side file records, the message follows its sequence number and length
+  static final private int SPILL_HEADER_SIZE = 8;
+
+  private final File file;
+  private final int slots;
+  private final int slotSize;
+  private final Durability durability;
+  private final Charset charset = CharsetSupport.getCharsetInstance();
+
+  private final RandomAccessFile raf;
+  private final MappedByteBuffer buffer;
+  // positioned view of the buffer for bulk copies, guarded by this
+  private final ByteBuffer view;
+  // the side file of messages too large for a slot, appended to under this
+  private final FileChannel overflow;
+  // the slots whose message is in the side file, guarded by this
+  private int spilled;
+  private final ScheduledFuture<?> flusher;
+  private volatile boolean dirty;
+
+  /**
+   * @param file - the journal, created or resized as needed
+   * @param slots - the number of messages the ring holds before it wraps
+   * @param slotSize - the bytes per slot, including an 8 byte slot header
+   * @param durability - when writes are forced to disk
+   * @param scheduler - runs the flusher for GROUP durability, may be null otherwise
+   * @param flushMillis - how often the flusher forces writes to disk
+   * @throws IOException
+   */
+  public MappedMessageStore(File file, int slots, int slotSize, Durability durability,
+    ScheduledExecutorService scheduler, long flushMillis) throws IOException
+  {
+    long size = HEADER_SIZE + (long)slots * slotSize;
+    if (slots < 1 || slotSize < SLOT_HEADER_SIZE + 8 || size > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("Invalid journal of " + slots + " slots of " + slotSize + " bytes");
+    this.file = file;
+    this.slots = slots;
+    this.slotSize = slotSize;
+    this.durability = durability;
+
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null)
+      parent.mkdirs();
+    raf = new RandomAccessFile(file, "rw");
+    // an existing journal of the same shape carries its sequence numbers over, anything else starts afresh
+    boolean reuse = raf.length() == size && raf.readInt() == MAGIC && raf.readInt() == slots && raf.readInt() == slotSize;
+    raf.setLength(size);
+    buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    view = buffer.duplicate();
+    overflow = FileChannel.open(new File(file.getPath() + ".overflow").toPath(), StandardOpenOption.CREATE,
+      StandardOpenOption.READ, StandardOpenOption.WRITE);
+    if (!reuse)
+      reset();
+    else
+    {
+      for (int slot = 0; slot < slots; slot++)
+      {
+        if (isSpilled(HEADER_SIZE + slot * slotSize))
+          spilled++;
+      }
+    }
+
+    flusher = durability == Durability.GROUP
+      ? scheduler.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS)
+      : null;
+  }
+
+  public synchronized boolean set(int sequence, String message) throws IOException
+  {
+    int slot = slotOffset(sequence);
+    byte[] bytes = message.getBytes(charset);
+    if (isSpilled(slot))
+      spilled--;
+    // mark the slot as holding no message while it is rewritten
+    buffer.putInt(slot + SLOT_SEQ_OFFSET, 0);
+    if (bytes.length > slotSize - SLOT_HEADER_SIZE)
+    {
+      buffer.putLong(slot + SLOT_HEADER_SIZE, spill(sequence, bytes));
+      buffer.putInt(slot + SLOT_LENGTH_OFFSET, SPILLED);
+      spilled++;
+    }
+    else
+    {
+      // nothing refers to the side file any more once the ring has wrapped past its messages
+      if (spilled == 0 && overflow.size() > 0)
+        overflow.truncate(0);
+      view.position(slot + SLOT_HEADER_SIZE);
+      view.put(bytes);
+      buffer.putInt(slot + SLOT_LENGTH_OFFSET, bytes.length);
+    }
+    // written last, so a slot only claims the sequence once its message is complete
+    buffer.putInt(slot + SLOT_SEQ_OFFSET, sequence);
+    written();
+    return true;
+  }
+
+  public synchronized void get(int startSequence, int endSequence, Collection<String> messages) throws IOException
+  {
+    // only the last full ring of messages can still be held
+    int start = Math.max(startSequence, endSequence - slots + 1);
+    for (int sequence = start; sequence <= endSequence && sequence > 0; sequence++)
+    {
+      int slot = slotOffset(sequence);
+      if (buffer.getInt(slot + SLOT_SEQ_OFFSET) != sequence)
+        continue;
+      int length = buffer.getInt(slot + SLOT_LENGTH_OFFSET);
+      if (length == SPILLED)
+      {
+        String message = unspill(sequence, buffer.getLong(slot + SLOT_HEADER_SIZE));
+        if (message != null)
+          messages.add(message);
+        continue;
+      }
+      byte[] bytes = new byte[length];
+      view.position(slot + SLOT_HEADER_SIZE);
+      view.get(bytes);
+      messages.add(new String(bytes, charset));
+    }
+  }
+
+  public synchronized int getNextSenderMsgSeqNum() { return buffer.getInt(NEXT_SENDER_OFFSET); }
+  public synchronized int getNextTargetMsgSeqNum() { return buffer.getInt(NEXT_TARGET_OFFSET); }
+
+  public synchronized void setNextSenderMsgSeqNum(int next) throws IOException
+  {
+    buffer.putInt(NEXT_SENDER_OFFSET, next);
+    written();
+  }
+
+  public synchronized void setNextTargetMsgSeqNum(int next) throws IOException
+  {
+    buffer.putInt(NEXT_TARGET_OFFSET, next);
+    written();
+  }
+
+  public synchronized void incrNextSenderMsgSeqNum() throws IOException
+  {
+    setNextSenderMsgSeqNum(getNextSenderMsgSeqNum() + 1);
+  }
+
+  public synchronized void incrNextTargetMsgSeqNum() throws IOException
+  {
+    setNextTargetMsgSeqNum(getNextTargetMsgSeqNum() + 1);
+  }
+
+  public synchronized Date getCreationTime() { return new Date(buffer.getLong(CREATION_TIME_OFFSET)); }
+
+  /**
+   * Clear every message and start both sequence numbers again from one
+   */
+  public synchronized void reset() throws IOException
+  {
+    buffer.putInt(MAGIC_OFFSET, MAGIC);
+    buffer.putInt(SLOTS_OFFSET, slots);
+    buffer.putInt(SLOT_SIZE_OFFSET, slotSize);
+    buffer.putInt(NEXT_SENDER_OFFSET, 1);
+    buffer.putInt(NEXT_TARGET_OFFSET, 1);
+    buffer.putLong(CREATION_TIME_OFFSET, System.currentTimeMillis());
+    for (int slot = 0; slot < slots; slot++)
+      buffer.putInt(HEADER_SIZE + slot * slotSize + SLOT_SEQ_OFFSET, 0);
+    overflow.truncate(0);
+    spilled = 0;
+    written();
+  }
+
+  /**
+   * Nothing to reload, every read goes to the mapped journal
+   */
+  public void refresh() { }
+
+  /**
+   * Force any writes not yet on disk
+   */
+  public void flush()
+  {
+    if (dirty)
+    {
+      dirty = false;
+      try
+      {
+        overflow.force(false);
+      }
+      catch (IOException e)
+      {
+        e.printStackTrace();
+      }
+      buffer.force();
+    }
+  }
+
+  public synchronized void close() throws IOException
+  {
+    if (flusher != null)
+      flusher.cancel(false);
+    overflow.force(false);
+    buffer.force();
+    overflow.close();
+    raf.close();
+  }
+
+  /**
+   * Retrieve the journal file
+   */
+  public File getFile() { return file; }
+
+  private int slotOffset(int sequence)
+  {
+    return HEADER_SIZE + Math.floorMod(sequence, slots) * slotSize;
+  }
+
+  /**
+   * @return - true if the slot holds a message in the side file
+   */
+  private boolean isSpilled(int slot)
+  {
+    return buffer.getInt(slot + SLOT_SEQ_OFFSET) != 0 && buffer.getInt(slot + SLOT_LENGTH_OFFSET) == SPILLED;
+  }
+
+  /**
+   * Append a message too large for its slot to the side file
+   *
+   * @return - the offset of its record
+   */
+  private long spill(int sequence, byte[] bytes) throws IOException
+  {
+    long offset = overflow.size();
+    ByteBuffer record = ByteBuffer.allocate(SPILL_HEADER_SIZE + bytes.length);
+    record.putInt(sequence).putInt(bytes.length).put(bytes).flip();
+    while (record.hasRemaining())
+      overflow.write(record, offset + record.position());
+    return offset;
+  }
+
+  /**
+   * Read a message back from the side file
+   *
+   * @return - the message, or null if the side file lost it in a crash
+   */
+  private String unspill(int sequence, long offset) throws IOException
+  {
+    long size = overflow.size();
+    if (offset < 0 || offset + SPILL_HEADER_SIZE > size)
+      return null;
+    ByteBuffer header = ByteBuffer.allocate(SPILL_HEADER_SIZE);
+    read(header, offset);
+    int length = header.getInt(4);
+    if (header.getInt(0) != sequence || length < 0 || offset + SPILL_HEADER_SIZE + length > size)
+      return null;
+    ByteBuffer bytes = ByteBuffer.allocate(length);
+    read(bytes, offset + SPILL_HEADER_SIZE);
+    return new String(bytes.array(), charset);
+  }
+
+  private void read(ByteBuffer bytes, long position) throws IOException
+  {
+    while (bytes.hasRemaining())
+    {
+      if (overflow.read(bytes, position + bytes.position()) < 0)
+        throw new EOFException("Unexpected end of " + file + ".overflow");
+    }
+  }
+
+  private void written() throws IOException
+  {
+    if (durability == Durability.SYNC)
+    {
+      overflow.force(false);
+      buffer.force();
+    }
+    else
+      dirty = true;
+  }
+}
@@ -0,0 +1,86 @@
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import quickfix.ConfigError;
+import quickfix.FieldConvertError;
+import quickfix.FileStoreFactory;
+import quickfix.FileUtil;
+import quickfix.MessageStore;
+import quickfix.MessageStoreFactory;
+import quickfix.RuntimeError;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+
+/**
+ * Creates a MappedMessageStore per session
+ *
+ * Settings, per session or in [default]:
+ *   MappedStorePath=        directory of the journals, FileStorePath if not set
+ *   MappedStoreSlots=       messages held before the ring wraps, 8192 by default
+ *   MappedStoreSlotSize=    bytes per message slot, 1024 by default, larger messages go to a side file
+ *   MappedStoreDurability=  SYNC, GROUP or OS, GROUP by default
+ *   MappedStoreFlushMillis= how often GROUP durability forces writes to disk, 10 by default
+ */
+public class MappedMessageStoreFactory implements MessageStoreFactory
+{
+  static final public String SETTING_PATH = "MappedStorePath";
+  static final public String SETTING_SLOTS = "MappedStoreSlots";
+  static final public String SETTING_SLOT_SIZE = "MappedStoreSlotSize";
+  static final public String SETTING_DURABILITY = "MappedStoreDurability";
+  static final public String SETTING_FLUSH_MILLIS = "MappedStoreFlushMillis";
+
+  static final private int DEFAULT_SLOTS = 8192;
+  static final private int DEFAULT_SLOT_SIZE = 1024;
+  static final private long DEFAULT_FLUSH_MILLIS = 10;
+
+  private final SessionSettings settings;
+  // one flusher thread shared by every store
+  private ScheduledExecutorService flusher;
+
+  public MappedMessageStoreFactory(SessionSettings settings)
+  {
+    this.settings = settings;
+  }
+
+  public MessageStore create(SessionID sessionID)
+  {
+    try
+    {
+      String path = settings.isSetting(sessionID, SETTING_PATH) ? settings.getString(sessionID, SETTING_PATH)
+        : settings.getString(sessionID, FileStoreFactory.SETTING_FILE_STORE_PATH);
+      int slots = (int)getLong(sessionID, SETTING_SLOTS, DEFAULT_SLOTS);
+      int slotSize = (int)getLong(sessionID, SETTING_SLOT_SIZE, DEFAULT_SLOT_SIZE);
+      long flushMillis = getLong(sessionID, SETTING_FLUSH_MILLIS, DEFAULT_FLUSH_MILLIS);
+      MappedMessageStore.Durability durability = settings.isSetting(sessionID, SETTING_DURABILITY)
+        ? MappedMessageStore.Durability.valueOf(settings.getString(sessionID, SETTING_DURABILITY).trim().toUpperCase())
+        : MappedMessageStore.Durability.GROUP;
+      // the settings may use Windows separators
+      File file = new File(path.replace('\\', File.separatorChar), FileUtil.sessionIdFileName(sessionID) + ".journal");
+      return new MappedMessageStore(file, slots, slotSize, durability, flusher(), flushMillis);
+    }
+    catch (Exception e)
+    {
+      throw new RuntimeError(e);
+    }
+  }
+
+  private long getLong(SessionID sessionID, String key, long defaultValue) throws ConfigError, FieldConvertError
+  {
+    return settings.isSetting(sessionID, key) ? settings.getLong(sessionID, key) : defaultValue;
+  }
+
+  private synchronized ScheduledExecutorService flusher()
+  {
+    if (flusher == null)
+    {
+      flusher = Executors.newSingleThreadScheduledExecutor(r ->
+      {
+        Thread thread = new Thread(r, "message-store-flusher");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return flusher;
+  }
+}
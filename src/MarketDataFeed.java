@@ -0,0 +1,282 @@
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams the top of book updates of a session to subscribers, decoupled from the QuickFIX/J thread
+ *
+ * The callback thread is the single writer of a ring of update events, each naming the TopOfBookCache
+ * slot that changed and when its snapshot arrived; publishing one is a couple of array writes and never
+ * waits for a subscriber. Every subscription drains the ring on its own thread from its own cursor and
+ * conflates what it finds: a symbol updated several times since the subscriber last looked is delivered
+ * once, with the latest quote read from the cache. A subscriber that falls a whole ring behind is
+ * resynchronized with the current quote of every symbol rather than slowing the writer down.
+ */
+public class MarketDataFeed
+{
+  // spins before a subscriber with nothing to read parks
+  static final private int SPINS = 100;
+  // upper bound on a park, in case the writer's wake up is missed
+  static final private long PARK_NANOS = 1000000;
+
+  /**
+   * Receives the top of book updates of a subscription, on the subscription's thread
+   */
+  public interface Listener
+  {
+    /**
+     * @param symbol - the symbol that was quoted
+     * @param quote - its latest top of book, only valid until this call returns
+     */
+    void onQuote(String symbol, TopOfBookCache.Quote quote);
+  }
+
+  /**
+   * A subscriber's view of the feed, delivering to its listener until closed
+   */
+  public class Subscription implements Runnable
+  {
+    private final Set<String> symbols;
+    private final Listener listener;
+    private final Thread thread;
+    private final TopOfBookCache.Quote quote = new TopOfBookCache.Quote();
+    private long cursor;
+    // arrival time of the newest pending update of each slot, 0 if none is pending
+    private long[] pendingNanos = new long[64];
+    private int[] pending = new int[64];
+    private volatile boolean parked;
+    private volatile boolean closed;
+
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong();
+
+    Subscription(String name, Set<String> symbols, Listener listener)
+    {
+      this.symbols = symbols == null ? null : Collections.unmodifiableSet(new HashSet<String>(symbols));
+      this.listener = listener;
+      cursor = published.get();
+      thread = new Thread(this, name);
+      thread.setDaemon(true);
+    }
+
+    public void run()
+    {
+      int idle = 0;
+      while (!closed)
+      {
+        if (drain())
+        {
+          idle = 0;
+          continue;
+        }
+        if (++idle < SPINS)
+        {
+          Thread.onSpinWait();
+          continue;
+        }
+        // announce the park before the last look, so a publish after it wakes this thread
+        parked = true;
+        if (published.get() == cursor && !closed)
+          LockSupport.parkNanos(PARK_NANOS);
+        parked = false;
+      }
+    }
+
+    /**
+     * Read everything published since the last drain and deliver each updated symbol once
+     *
+     * @return - false if there was nothing to read
+     */
+    private boolean drain()
+    {
+      long end = published.get();
+      if (end == cursor)
+        return false;
+      int count = 0;
+      if (end - cursor > capacity)
+      {
+        // lapped by the writer, the events in between are gone, so resend every symbol as it is now
+        overruns.incrementAndGet();
+        for (int slot = 0; slot < book.size(); slot++)
+          count = mark(slot, 0, count);
+      }
+      else
+      {
+        for (long sequence = cursor; sequence < end; sequence++)
+        {
+          int at = (int)sequence & mask;
+          count = mark(ringSlots.get(at), ringNanos.get(at), count);
+        }
+        // the writer may have wrapped around onto the entries while they were read: it overwrites the
+        // entry of the cursor while publishing sequence cursor + capacity, before that is counted
+        if (published.get() - cursor >= capacity)
+        {
+          overruns.incrementAndGet();
+          for (int slot = 0; slot < book.size(); slot++)
+            count = mark(slot, 0, count);
+        }
+        updates.addAndGet(end - cursor);
+      }
+      cursor = end;
+      for (int i = 0; i < count && !closed; i++)
+      {
+        int slot = pending[i];
+        long nanos = pendingNanos[slot];
+        pendingNanos[slot] = 0;
+        String symbol = book.getSymbol(slot);
+        // a symbol only seen in entries overwritten while they were read may not be visible yet
+        if (symbol == null || symbols != null && !symbols.contains(symbol))
+          continue;
+        book.read(slot, quote);
+        listener.onQuote(symbol, quote);
+        delivered.incrementAndGet();
+        // tick to consumer latency of the newest update delivered, unknown after a resync
+        if (nanos != Long.MIN_VALUE && latency != null)
+          latency.record(System.nanoTime() - nanos);
+      }
+      return true;
+    }
+
+    /**
+     * Mark a slot as pending delivery, keeping only its newest update
+     *
+     * @return - the number of pending slots
+     */
+    private int mark(int slot, long nanos, int count)
+    {
+      if (slot >= pendingNanos.length)
+      {
+        long[] grown = new long[Math.max(slot + 1, pendingNanos.length * 2)];
+        System.arraycopy(pendingNanos, 0, grown, 0, pendingNanos.length);
+        pendingNanos = grown;
+      }
+      // a resync has no arrival time, and 0 marks a slot with nothing pending
+      long value = nanos == 0 ? Long.MIN_VALUE : nanos;
+      if (pendingNanos[slot] == 0)
+      {
+        if (count == pending.length)
+        {
+          int[] grown = new int[pending.length * 2];
+          System.arraycopy(pending, 0, grown, 0, pending.length);
+          pending = grown;
+        }
+        pending[count++] = slot;
+        pendingNanos[slot] = value;
+      }
+      else if (pendingNanos[slot] != Long.MIN_VALUE)
+        pendingNanos[slot] = value;
+      return count;
+    }
+
+    /**
+     * Stop delivering, without waiting for the subscriber's thread to finish its current update
+     */
+    public void close()
+    {
+      closed = true;
+      subscriptions.remove(this);
+      LockSupport.unpark(thread);
+    }
+
+    /**
+     * Retrieve the symbols subscribed to, or null for every symbol
+     */
+    public Set<String> getSymbols() { return symbols; }
+    /**
+     * Retrieve the number of updates read from the feed
+     */
+    public long getUpdates() { return updates.get(); }
+    /**
+     * Retrieve the number of quotes delivered to the listener
+     */
+    public long getDelivered() { return delivered.get(); }
+    /**
+     * Retrieve the number of times the subscriber fell a whole ring behind and was resynchronized
+     */
+    public long getOverruns() { return overruns.get(); }
+  }
+
+  private final TopOfBookCache book;
+  private final LatencyHistogram latency;
+  private final int capacity;
+  private final int mask;
+  // written with lazySet after the previous sequence was published, so a reader that sees an
+  // overwritten entry also sees the sequence that overwrote it when it checks published afterwards
+  private final AtomicIntegerArray ringSlots;
+  private final AtomicLongArray ringNanos;
+  // the sequence of the next event to publish, written by the callback thread only
+  private final AtomicLong published = new AtomicLong();
+  private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+  /**
+   * @param book - the cache the updates are read from
+   * @param capacity - the number of events the ring holds, rounded up to a power of two
+   * @param latency - receives the tick to consumer latency of every delivered quote, or null
+   */
+  public MarketDataFeed(TopOfBookCache book, int capacity, LatencyHistogram latency)
+  {
+    this.book = book;
+    this.latency = latency;
+    this.capacity = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1);
+    mask = this.capacity - 1;
+    ringSlots = new AtomicIntegerArray(this.capacity);
+    ringNanos = new AtomicLongArray(this.capacity);
+  }
+
+  /**
+   * Announce that a slot of the cache has been updated. Only called from the callback thread.
+   *
+   * @param slot - the slot returned by TopOfBookCache.update()
+   * @param nanos - System.nanoTime() when the snapshot arrived
+   */
+  public void publish(int slot, long nanos)
+  {
+    long sequence = published.get();
+    int at = (int)sequence & mask;
+    ringSlots.lazySet(at, slot);
+    ringNanos.lazySet(at, nanos);
+    // a full fence, so a subscriber announcing a park either sees the event or is seen here
+    published.set(sequence + 1);
+    for (Subscription subscription : subscriptions)
+    {
+      if (subscription.parked)
+        LockSupport.unpark(subscription.thread);
+    }
+  }
+
+  /**
+   * Start delivering updates to a listener on a thread of its own
+   *
+   * @param name - the name of the subscriber's thread
+   * @param symbols - the symbols to deliver, or null for every symbol
+   * @param listener - receives the updates
+   * @return - the subscription, to be closed once no longer needed
+   */
+  public Subscription subscribe(String name, Set<String> symbols, Listener listener)
+  {
+    Subscription subscription = new Subscription(name, symbols, listener);
+    subscriptions.add(subscription);
+    subscription.thread.start();
+    return subscription;
+  }
+
+  /**
+   * Stop every subscription
+   */
+  public void close()
+  {
+    for (Subscription subscription : subscriptions)
+      subscription.close();
+  }
+
+  /**
+   * Retrieve the number of updates published
+   */
+  public long getPublished() { return published.get(); }
+}
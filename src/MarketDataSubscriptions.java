@@ -0,0 +1,296 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import quickfix.FieldNotFound;
+import quickfix.IntField;
+import quickfix.Message;
+import quickfix.field.MDEntryType;
+import quickfix.field.MDReqID;
+import quickfix.field.MDUpdateType;
+import quickfix.field.MarketDepth;
+import quickfix.field.NoRelatedSym;
+import quickfix.field.SecurityStatusReqID;
+import quickfix.field.SubscriptionRequestType;
+import quickfix.fix44.MarketDataRequest;
+import quickfix.fix44.SecurityList;
+import quickfix.fix44.SecurityStatusRequest;
+import quickfix.fix44.TradingSessionStatus;
+import quickfix.fix44.component.Instrument;
+
+/**
+ * Keeps a session subscribed to the market data of the symbols it trades, rather than to every
+ * instrument the trading session status lists
+ *
+ * The wanted symbols come from the settings and can be added to or dropped at runtime. Once the
+ * session status has listed the instruments available, the wanted ones are subscribed to with a
+ * single MarketDataRequest, and every later change sends one request covering only the symbols that
+ * changed, with their security status requests sent back to back after it. Each symbol keeps the
+ * MDReqID and SecurityStatusReqID it was subscribed with, and dropping it sends those ids again, one
+ * disable request per MDReqID, as FIX 4.4 ties a disable request to the request it cancels. Symbols
+ * wanted but not listed are remembered, in case a later session status lists them.
+ *
+ * The state is guarded by the instance, and the requests are sent outside it, so a slow session never
+ * blocks a reader. Every change builds and sends its requests under a second lock taken first, so the
+ * venue receives subscribes and unsubscribes in the order they changed the state.
+ */
+public class MarketDataSubscriptions
+{
+  // the entries of the top of book FXCM quotes
+  static final private char[] ENTRY_TYPES = { MDEntryType.BID, MDEntryType.OFFER,
+    MDEntryType.TRADING_SESSION_HIGH_PRICE, MDEntryType.TRADING_SESSION_LOW_PRICE };
+
+  /**
+   * Sends the requests of the subscriptions on their session
+   */
+  public interface Sender
+  {
+    void send(Message message);
+  }
+
+  /**
+   * The ids a symbol was subscribed with, which its unsubscribe requests carry again
+   */
+  static private class Subscription
+  {
+    final String mdReqID;
+    final String statusReqID;
+
+    Subscription(String mdReqID, String statusReqID)
+    {
+      this.mdReqID = mdReqID;
+      this.statusReqID = statusReqID;
+    }
+  }
+
+  private final IdGenerator ids;
+  private final Sender sender;
+  // held from building the requests of a change until they are sent, taken before this
+  private final Object sending = new Object();
+  // guarded by this
+  // the symbols to subscribe to, or null for every listed instrument but the dropped ones
+  private final Set<String> wanted;
+  private final Set<String> dropped = new LinkedHashSet<String>();
+  // the instruments the session status listed, by symbol
+  private final Map<String, Instrument> listed = new LinkedHashMap<String, Instrument>();
+  // the symbols subscribed to, and the ids of their requests
+  private final Map<String, Subscription> subscribed = new LinkedHashMap<String, Subscription>();
+  private long requests;
+
+  /**
+   * @param ids - issues the request ids
+   * @param wanted - the symbols to subscribe to, or null for every listed instrument
+   * @param sender - sends the requests
+   */
+  public MarketDataSubscriptions(IdGenerator ids, Collection<String> wanted, Sender sender)
+  {
+    this.ids = ids;
+    this.sender = sender;
+    this.wanted = wanted == null ? null : new LinkedHashSet<String>(wanted);
+  }
+
+  /**
+   * Take the instruments listed by a session status and subscribe to the wanted ones not subscribed yet
+   *
+   * @param status - the trading session status
+   * @return - the number of symbols subscribed to once the request is answered
+   * @throws FieldNotFound
+   */
+  public int listed(TradingSessionStatus status) throws FieldNotFound
+  {
+    synchronized (sending)
+    {
+      List<Message> messages;
+      int count;
+      synchronized (this)
+      {
+        int max = status.getField(new IntField(NoRelatedSym.FIELD)).getValue();
+        SecurityList.NoRelatedSym group = new SecurityList.NoRelatedSym();
+        for (int i = 1; i <= max; i++)
+        {
+          status.getGroup(i, group);
+          Instrument instrument = group.getInstrument();
+          listed.put(instrument.getSymbol().getValue(), instrument);
+        }
+        Set<String> symbols = wanted;
+        if (symbols == null)
+        {
+          symbols = new LinkedHashSet<String>(listed.keySet());
+          symbols.removeAll(dropped);
+        }
+        messages = requests(symbols, SubscriptionRequestType.SNAPSHOT_UPDATES);
+        count = subscribed.size();
+      }
+      send(messages);
+      return count;
+    }
+  }
+
+  /**
+   * Start streaming the market data of symbols, once they are listed
+   *
+   * @param symbols - the symbols to add to the subscription
+   * @return - the number of symbols newly subscribed to
+   */
+  public int subscribe(Collection<String> symbols)
+  {
+    synchronized (sending)
+    {
+      List<Message> messages;
+      int count;
+      synchronized (this)
+      {
+        if (wanted != null)
+          wanted.addAll(symbols);
+        else
+          dropped.removeAll(symbols);
+        int before = subscribed.size();
+        messages = requests(symbols, SubscriptionRequestType.SNAPSHOT_UPDATES);
+        count = subscribed.size() - before;
+      }
+      send(messages);
+      return count;
+    }
+  }
+
+  /**
+   * Stop streaming the market data of symbols
+   *
+   * @param symbols - the symbols to drop from the subscription
+   * @return - the number of symbols unsubscribed from
+   */
+  public int unsubscribe(Collection<String> symbols)
+  {
+    synchronized (sending)
+    {
+      List<Message> messages;
+      int count;
+      synchronized (this)
+      {
+        // with every listed instrument wanted, remember what was dropped, as nothing may be listed yet
+        if (wanted != null)
+          wanted.removeAll(symbols);
+        else
+          dropped.addAll(symbols);
+        int before = subscribed.size();
+        messages = requests(symbols, SubscriptionRequestType.DISABLE_PREVIOUS_SNAPSHOT_UPDATE_REQUEST);
+        count = before - subscribed.size();
+      }
+      send(messages);
+      return count;
+    }
+  }
+
+  /**
+   * Forget the subscriptions, which end with the session's logout, keeping the wanted symbols for the
+   * next session status
+   */
+  public synchronized void clear()
+  {
+    listed.clear();
+    subscribed.clear();
+  }
+
+  /**
+   * Build the market data requests for the symbols whose subscription changes, followed by their
+   * security status requests, updating the subscribed symbols. Symbols subscribed to share a fresh
+   * MDReqID, and symbols dropped are sent with the ids they were subscribed with, in a request per
+   * MDReqID.
+   *
+   * @param symbols - the symbols to subscribe to or unsubscribe from
+   * @param type - SNAPSHOT_UPDATES to subscribe, DISABLE_PREVIOUS_SNAPSHOT_UPDATE_REQUEST to unsubscribe
+   * @return - the requests to send, none if no subscription changes
+   */
+  // guarded by this
+  private List<Message> requests(Collection<String> symbols, char type)
+  {
+    boolean subscribing = type == SubscriptionRequestType.SNAPSHOT_UPDATES;
+    // the instruments that change, by the MDReqID they are subscribed with
+    Map<String, List<Instrument>> changed = new LinkedHashMap<String, List<Instrument>>();
+    List<Subscription> statuses = new ArrayList<Subscription>();
+    List<Instrument> instruments = new ArrayList<Instrument>();
+    String mdReqID = null;
+    for (String symbol : symbols)
+    {
+      Instrument instrument = listed.get(symbol);
+      // only listed symbols can be subscribed to, and only subscribed ones dropped
+      if (instrument == null || subscribing == subscribed.containsKey(symbol))
+        continue;
+      Subscription subscription;
+      if (subscribing)
+      {
+        if (mdReqID == null)
+          mdReqID = ids.next();
+        subscription = new Subscription(mdReqID, ids.next());
+        subscribed.put(symbol, subscription);
+      }
+      else
+        subscription = subscribed.remove(symbol);
+      changed.computeIfAbsent(subscription.mdReqID, id -> new ArrayList<Instrument>()).add(instrument);
+      statuses.add(subscription);
+      instruments.add(instrument);
+    }
+    if (changed.isEmpty())
+      return Collections.emptyList();
+    SubscriptionRequestType subReqType = new SubscriptionRequestType(type);
+    // the market data first, so the quotes are not held up behind the status requests
+    List<Message> messages = new ArrayList<Message>(changed.size() + instruments.size());
+    for (Map.Entry<String, List<Instrument>> request : changed.entrySet())
+    {
+      MarketDataRequest mdr = new MarketDataRequest();
+      mdr.set(new MDReqID(request.getKey()));
+      mdr.set(subReqType);
+      mdr.set(new MarketDepth(1)); //Top of Book is only choice
+      mdr.set(new MDUpdateType(MDUpdateType.FULL_REFRESH));
+      for (char entryType : ENTRY_TYPES)
+      {
+        MarketDataRequest.NoMDEntryTypes types = new MarketDataRequest.NoMDEntryTypes();
+        types.set(new MDEntryType(entryType));
+        mdr.addGroup(types);
+      }
+      for (Instrument instrument : request.getValue())
+      {
+        MarketDataRequest.NoRelatedSym symbol = new MarketDataRequest.NoRelatedSym();
+        symbol.set(instrument);
+        mdr.addGroup(symbol);
+      }
+      messages.add(mdr);
+    }
+    for (int i = 0; i < instruments.size(); i++)
+    {
+      SecurityStatusRequest ssr = new SecurityStatusRequest(new SecurityStatusReqID(statuses.get(i).statusReqID),
+        subReqType);
+      ssr.set(instruments.get(i));
+      messages.add(ssr);
+    }
+    requests += messages.size();
+    return messages;
+  }
+
+  /**
+   * Send the requests back to back, holding sending but not this, so a slow session never blocks a reader
+   */
+  private void send(List<Message> messages)
+  {
+    for (Message message : messages)
+      sender.send(message);
+  }
+
+  /**
+   * Retrieve the symbols subscribed to
+   */
+  public synchronized Set<String> getSubscribed() { return new LinkedHashSet<String>(subscribed.keySet()); }
+  /**
+   * Retrieve the symbols the session status listed
+   */
+  public synchronized Set<String> getListed() { return new LinkedHashSet<String>(listed.keySet()); }
+  /**
+   * Retrieve the number of market data and security status requests sent
+   */
+  public synchronized long getRequests() { return requests; }
+}
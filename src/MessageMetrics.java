@@ -0,0 +1,293 @@
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import quickfix.FieldNotFound;
+import quickfix.Message;
+import quickfix.field.MsgType;
+
+/**
+ * Latency and throughput counters for the FIX message path
+ *
+ * Keeps, per message type, the count of inbound and outbound messages, how long each inbound
+ * message took to handle and how long each outbound message took to send, plus a latency histogram
+ * per request to response round trip (NewOrderSingle to ExecutionReport and so on) and per queue
+ * messages wait in before they are sent, with the number still queued, and per check orders pass
+ * before they are queued, with the number of orders refused. Everything
+ * recorded on the message path is lock and allocation free once a message type has been seen.
+ * The figures are published over JMX under FIXTradingTester:* and as a periodic log line. The log
+ * line gives the message rates over its interval, while a summary read at any other time gives them
+ * since the metrics were created, so reading one never disturbs the log.
+ */
+public class MessageMetrics implements MessageMetricsMBean
+{
+  static final private String DOMAIN = "FIXTradingTester";
+
+  /**
+   * Counters of a single message type in one direction
+   */
+  static private class TypeStats
+  {
+    final AtomicLong count = new AtomicLong();
+    final LatencyHistogram latency = new LatencyHistogram();
+  }
+
+  /**
+   * The counts at the previous log line, only touched by the logger thread
+   */
+  static private class Interval
+  {
+    long nanos = System.nanoTime();
+    final Map<String, Long> inbound = new HashMap<String, Long>();
+    final Map<String, Long> outbound = new HashMap<String, Long>();
+  }
+
+  private final ConcurrentHashMap<String, TypeStats> inbound = new ConcurrentHashMap<String, TypeStats>();
+  private final ConcurrentHashMap<String, TypeStats> outbound = new ConcurrentHashMap<String, TypeStats>();
+  private final ConcurrentHashMap<String, LatencyHistogram> roundTrips = new ConcurrentHashMap<String, LatencyHistogram>();
+  private final ConcurrentHashMap<String, LatencyHistogram> queueWaits = new ConcurrentHashMap<String, LatencyHistogram>();
+  private final ConcurrentHashMap<String, LatencyHistogram> checks = new ConcurrentHashMap<String, LatencyHistogram>();
+  private volatile LongSupplier pendingRequests = () -> 0;
+  private volatile LongSupplier queuedOrders = () -> 0;
+  private volatile LongSupplier rejectedOrders = () -> 0;
+  private final long createdNanos = System.nanoTime();
+  private ScheduledExecutorService logger;
+
+  /**
+   * Record an inbound message and how long it took to handle
+   */
+  public void recordInbound(Message message, long handlingNanos)
+  {
+    recordInbound(msgType(message), handlingNanos);
+  }
+
+  /**
+   * Record an inbound message handled without being parsed, and how long it took to handle
+   */
+  public void recordInbound(String msgType, long handlingNanos)
+  {
+    TypeStats stats = stats(inbound, msgType);
+    stats.count.incrementAndGet();
+    stats.latency.record(handlingNanos);
+  }
+
+  /**
+   * Record an outbound message and how long it took to hand to the session
+   */
+  public void recordOutbound(Message message, long sendNanos)
+  {
+    TypeStats stats = stats(outbound, msgType(message));
+    stats.count.incrementAndGet();
+    stats.latency.record(sendNanos);
+  }
+
+  /**
+   * Retrieve the histogram of a request to response round trip, creating it on first use. Callers on
+   * the message path should look the histogram up once and keep it.
+   *
+   * @param name - the round trip, for example NewOrderSingle-ExecutionReport
+   */
+  public LatencyHistogram roundTrip(String name)
+  {
+    return roundTrips.computeIfAbsent(name, key ->
+    {
+      LatencyHistogram histogram = new LatencyHistogram();
+      register("type=RoundTrip,name=" + key, histogram);
+      return histogram;
+    });
+  }
+
+  /**
+   * Retrieve the histogram of how long messages wait in a queue before they are sent, creating it on
+   * first use
+   *
+   * @param name - the queue, for example OrderScheduler
+   */
+  public LatencyHistogram queueWait(String name)
+  {
+    return queueWaits.computeIfAbsent(name, key ->
+    {
+      LatencyHistogram histogram = new LatencyHistogram();
+      register("type=QueueWait,name=" + key, histogram);
+      return histogram;
+    });
+  }
+
+  /**
+   * Retrieve the histogram of how long a check on the order path takes, creating it on first use
+   *
+   * @param name - the check, for example PreTradeRisk
+   */
+  public LatencyHistogram check(String name)
+  {
+    return checks.computeIfAbsent(name, key ->
+    {
+      LatencyHistogram histogram = new LatencyHistogram();
+      register("type=Check,name=" + key, histogram);
+      return histogram;
+    });
+  }
+
+  /**
+   * Set where the number of orders refused before they were queued is read from
+   */
+  public void setRejectedOrders(LongSupplier rejectedOrders)
+  {
+    this.rejectedOrders = rejectedOrders;
+  }
+
+  /**
+   * Set where the number of orders queued and not yet sent is read from
+   */
+  public void setQueuedOrders(LongSupplier queuedOrders)
+  {
+    this.queuedOrders = queuedOrders;
+  }
+
+  /**
+   * Set where the number of requests still waiting for a response is read from
+   */
+  public void setPendingRequests(LongSupplier pendingRequests)
+  {
+    this.pendingRequests = pendingRequests;
+  }
+
+  public long getInboundMessages() { return total(inbound); }
+  public long getOutboundMessages() { return total(outbound); }
+  public long getPendingRequests() { return pendingRequests.getAsLong(); }
+  public long getQueuedOrders() { return queuedOrders.getAsLong(); }
+  public long getRejectedOrders() { return rejectedOrders.getAsLong(); }
+
+  /**
+   * Retrieve the current figures as one line, with the message rates since the metrics were created
+   */
+  public String getSummary()
+  {
+    return summary(null);
+  }
+
+  /**
+   * Build the summary line
+   *
+   * @param interval - the counts at the previous log line, moved on to the current ones, or null for
+   * the rates since the metrics were created
+   */
+  private String summary(Interval interval)
+  {
+    long now = System.nanoTime();
+    double seconds = (now - (interval == null ? createdNanos : interval.nanos)) / 1e9;
+    if (interval != null)
+      interval.nanos = now;
+    StringBuilder line = new StringBuilder("metrics pending=").append(getPendingRequests())
+      .append(" queued=").append(getQueuedOrders()).append(" rejected=").append(getRejectedOrders());
+    for (Map.Entry<String, LatencyHistogram> entry : roundTrips.entrySet())
+      line.append(" | ").append(entry.getKey()).append(' ').append(entry.getValue().summary());
+    for (Map.Entry<String, LatencyHistogram> entry : queueWaits.entrySet())
+      line.append(" | wait ").append(entry.getKey()).append(' ').append(entry.getValue().summary());
+    for (Map.Entry<String, LatencyHistogram> entry : checks.entrySet())
+      line.append(" | check ").append(entry.getKey()).append(' ').append(entry.getValue().summaryNanos());
+    append(line, "in", inbound, interval == null ? null : interval.inbound, seconds);
+    append(line, "out", outbound, interval == null ? null : interval.outbound, seconds);
+    return line.toString();
+  }
+
+  /**
+   * Publish over JMX and start logging a summary line at a fixed interval
+   *
+   * @param intervalSeconds - seconds between log lines, 0 to publish over JMX only
+   */
+  public synchronized void start(long intervalSeconds)
+  {
+    register("type=Messages", this);
+    if (intervalSeconds <= 0 || logger != null)
+      return;
+    logger = Executors.newSingleThreadScheduledExecutor(runnable ->
+    {
+      Thread thread = new Thread(runnable, "metrics-logger");
+      thread.setDaemon(true);
+      return thread;
+    });
+    Interval interval = new Interval();
+    logger.scheduleAtFixedRate(() -> System.out.println(summary(interval)), intervalSeconds, intervalSeconds,
+      TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stop the periodic log line
+   */
+  public synchronized void stop()
+  {
+    if (logger != null)
+      logger.shutdownNow();
+    logger = null;
+  }
+
+  private TypeStats stats(ConcurrentHashMap<String, TypeStats> byType, String msgType)
+  {
+    TypeStats stats = byType.get(msgType);
+    if (stats == null)
+    {
+      stats = byType.computeIfAbsent(msgType, key -> new TypeStats());
+      register("type=" + (byType == inbound ? "Inbound" : "Outbound") + ",name=" + msgType, stats.latency);
+    }
+    return stats;
+  }
+
+  static private String msgType(Message message)
+  {
+    try
+    {
+      return message.getHeader().getString(MsgType.FIELD);
+    }
+    catch (FieldNotFound e)
+    {
+      return "?";
+    }
+  }
+
+  static private long total(ConcurrentHashMap<String, TypeStats> byType)
+  {
+    long total = 0;
+    for (TypeStats stats : byType.values())
+      total += stats.count.get();
+    return total;
+  }
+
+  static private void append(StringBuilder line, String direction, ConcurrentHashMap<String, TypeStats> byType,
+    Map<String, Long> lastCounts, double seconds)
+  {
+    for (Map.Entry<String, TypeStats> entry : byType.entrySet())
+    {
+      TypeStats stats = entry.getValue();
+      long count = stats.count.get();
+      Long lastCount = lastCounts == null ? null : lastCounts.put(entry.getKey(), count);
+      double rate = seconds == 0 ? 0 : (count - (lastCount == null ? 0 : lastCount)) / seconds;
+      line.append(" | ").append(direction).append(' ').append(entry.getKey())
+        .append(String.format(" %.1f/s ", rate)).append(stats.latency.summary());
+    }
+  }
+
+  static private void register(String name, Object bean)
+  {
+    try
+    {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName(DOMAIN + ":" + name);
+      if (!server.isRegistered(objectName))
+        server.registerMBean(bean, objectName);
+    }
+    catch (Exception e)
+    {
+      // metrics are still logged when they cannot be published over JMX
+    }
+  }
+}
@@ -0,0 +1,12 @@
+/**
+ * JMX view of the message counters of a MessageMetrics
+ */
+public interface MessageMetricsMBean
+{
+  long getInboundMessages();
+  long getOutboundMessages();
+  long getPendingRequests();
+  long getQueuedOrders();
+  long getRejectedOrders();
+  String getSummary();
+}
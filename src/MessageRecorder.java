@@ -0,0 +1,294 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPOutputStream;
+
+import org.quickfixj.CharsetSupport;
+
+import quickfix.SessionID;
+
+/**
+ * Captures the inbound FIX stream of every session, as MyApp received it, for MessageReplayer to play
+ * back offline
+ *
+ * Recording a message only timestamps it and puts it on a bounded queue; a background writer appends
+ * it to a gzip compressed capture file, waiting for room rather than dropping anything when it falls
+ * behind, so a capture replays everything the application saw. Messages recorded once the capture is
+ * closing are refused, never left on the queue behind the writer. The writer sync flushes the
+ * compressor once per batch, so a process that dies loses at most the batch being written, and a
+ * shutdown hook writes out the queue and finishes the capture when the JVM exits without it being
+ * closed. Each run writes a new capture named after the time it starts; a file already there under
+ * that name is renamed after the time it was last written rather than overwritten.
+ *
+ * Layout: magic, version, then records, each starting with its kind (byte):
+ *   SESSION  a session id (int) and the BeginString, SenderCompID, TargetCompID and qualifier of the
+ *            session, written before its first message
+ *   ADMIN    a message passed to fromAdmin, and
+ *   APP      a message passed to fromApp, both as the session id (int), the receive time in epoch
+ *            nanoseconds (long), the length (int) and the raw text in the FIX charset
+ */
+public class MessageRecorder implements Closeable
+{
+  static final public int MAGIC = 0x46584350;
+  static final public int VERSION = 1;
+  static final public String SUFFIX = ".fixcap.gz";
+
+  static final public byte SESSION = 0;
+  static final public byte ADMIN = 1;
+  static final public byte APP = 2;
+
+  static final private int RING_SIZE = 65536;
+  static final private int MAX_BATCH = 4096;
+  static final private DateTimeFormatter ROTATED =
+    DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss.SSS").withZone(ZoneOffset.UTC);
+
+  /**
+   * A message waiting for the writer
+   */
+  static private class Entry
+  {
+    final SessionID sessionID;
+    final byte kind;
+    final long nanos;
+    final String text;
+
+    Entry(SessionID sessionID, byte kind, long nanos, String text)
+    {
+      this.sessionID = sessionID;
+      this.kind = kind;
+      this.nanos = nanos;
+      this.text = text;
+    }
+  }
+
+  private final File file;
+  private final DataOutputStream out;
+  private final Charset charset = CharsetSupport.getCharsetInstance();
+  private final ArrayBlockingQueue<Entry> ring = new ArrayBlockingQueue<Entry>(RING_SIZE);
+  // epoch nanoseconds at nanoTimeBase, so receive times are nanoTime based yet comparable across runs
+  private final long epochNanosBase;
+  private final long nanoTimeBase;
+  // only touched by the writer thread
+  private final Map<SessionID, Integer> sessions = new HashMap<SessionID, Integer>();
+  private final Thread writer;
+  private final Thread shutdownHook;
+  // held shared while a message is queued, and exclusively to stop accepting them
+  private final ReentrantReadWriteLock gate = new ReentrantReadWriteLock();
+  private volatile boolean running = true;
+
+  private final AtomicLong recorded = new AtomicLong();
+  private final AtomicLong waits = new AtomicLong();
+
+  /**
+   * Start a new capture in a directory, named after the time it starts
+   *
+   * @param directory - where the capture is written
+   * @throws IOException
+   */
+  public MessageRecorder(File directory) throws IOException
+  {
+    directory.mkdirs();
+    Instant now = Instant.now();
+    nanoTimeBase = System.nanoTime();
+    epochNanosBase = now.getEpochSecond() * 1000000000L + now.getNano();
+    String name = "inbound-" + now.toEpochMilli();
+    file = new File(directory, name + SUFFIX);
+    if (file.length() > 0)
+    {
+      File rotated = new File(directory, name + "." + ROTATED.format(Instant.ofEpochMilli(file.lastModified())) + SUFFIX);
+      if (!file.renameTo(rotated))
+        throw new IOException("Can not rename " + file + " to " + rotated);
+    }
+    // sync flush, so everything up to the last batch can be replayed even if the process dies
+    out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new BufferedOutputStream(
+      new FileOutputStream(file), 65536), 65536, true), 65536));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    writer = new Thread(this::write, "message-recorder");
+    writer.setDaemon(true);
+    writer.start();
+    // the writer is a daemon, so finish the capture on the way out if nobody closed it
+    shutdownHook = new Thread(this::drain, "message-recorder-shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  /**
+   * Record a message received by the application
+   *
+   * @param sessionID - the session it arrived on
+   * @param kind - ADMIN or APP, the callback it was passed to
+   * @param raw - its raw text
+   * @param arrivedNanos - System.nanoTime() when it arrived
+   * @return - false if the capture is closed or closing, and the message was not recorded
+   */
+  public boolean record(SessionID sessionID, byte kind, String raw, long arrivedNanos)
+  {
+    // the writer only stops once every message queued under the gate is written
+    if (!gate.readLock().tryLock())
+      return false;
+    try
+    {
+      if (!running)
+        return false;
+      Entry entry = new Entry(sessionID, kind, epochNanosBase + (arrivedNanos - nanoTimeBase), raw);
+      recorded.incrementAndGet();
+      if (ring.offer(entry))
+        return true;
+      // the writer has fallen behind, wait for it rather than lose the message
+      waits.incrementAndGet();
+      boolean interrupted = false;
+      while (true)
+      {
+        try
+        {
+          ring.put(entry);
+          break;
+        }
+        catch (InterruptedException e)
+        {
+          interrupted = true;
+        }
+      }
+      if (interrupted)
+        Thread.currentThread().interrupt();
+      return true;
+    }
+    finally
+    {
+      gate.readLock().unlock();
+    }
+  }
+
+  /**
+   * Retrieve the capture file
+   */
+  public File getFile() { return file; }
+  /**
+   * Retrieve the number of messages recorded
+   */
+  public long getRecorded() { return recorded.get(); }
+  /**
+   * Retrieve the number of times a session had to wait for room on the queue
+   */
+  public long getWaits() { return waits.get(); }
+
+  /**
+   * Write out everything still queued and close the capture
+   */
+  public void close()
+  {
+    try
+    {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    }
+    catch (IllegalStateException e)
+    {
+      // the JVM is already shutting down, and the hook finishing the capture
+    }
+    drain();
+  }
+
+  /**
+   * Refuse further messages, then stop the writer once it has written out the queue
+   */
+  private void drain()
+  {
+    // waits for the messages being queued, which the writer is still running to take
+    gate.writeLock().lock();
+    try
+    {
+      running = false;
+    }
+    finally
+    {
+      gate.writeLock().unlock();
+    }
+    writer.interrupt();
+    try
+    {
+      writer.join();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * The writer loop: wait for an entry, take whatever else is queued behind it, write the batch and
+   * flush it
+   */
+  private void write()
+  {
+    List<Entry> batch = new ArrayList<Entry>(MAX_BATCH);
+    while (running || !ring.isEmpty())
+    {
+      try
+      {
+        if (running)
+          batch.add(ring.take());
+        ring.drainTo(batch, MAX_BATCH - batch.size());
+      }
+      catch (InterruptedException e)
+      {
+        // closing, drain what is left on the next pass
+        continue;
+      }
+      try
+      {
+        for (Entry entry : batch)
+          write(entry);
+        out.flush();
+      }
+      catch (IOException e)
+      {
+        e.printStackTrace();
+      }
+      batch.clear();
+    }
+    try
+    {
+      out.close();
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace();
+    }
+  }
+
+  private void write(Entry entry) throws IOException
+  {
+    Integer id = sessions.get(entry.sessionID);
+    if (id == null)
+    {
+      id = sessions.size();
+      sessions.put(entry.sessionID, id);
+      out.writeByte(SESSION);
+      out.writeInt(id);
+      out.writeUTF(entry.sessionID.getBeginString());
+      out.writeUTF(entry.sessionID.getSenderCompID());
+      out.writeUTF(entry.sessionID.getTargetCompID());
+      out.writeUTF(entry.sessionID.getSessionQualifier());
+    }
+    byte[] bytes = entry.text.getBytes(charset);
+    out.writeByte(entry.kind);
+    out.writeInt(id);
+    out.writeLong(entry.nanos);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+}
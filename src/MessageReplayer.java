@@ -0,0 +1,276 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+import org.quickfixj.CharsetSupport;
+
+import quickfix.DataDictionary;
+import quickfix.DefaultMessageFactory;
+import quickfix.DefaultSessionFactory;
+import quickfix.InvalidMessage;
+import quickfix.MemoryStoreFactory;
+import quickfix.Message;
+import quickfix.MessageUtils;
+import quickfix.Session;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+
+/**
+ * Plays a capture written by MessageRecorder back through MyApp, offline, for repeatable throughput and
+ * latency runs of the whole inbound path
+ *
+ * Every captured application message is first offered to MyApp.fromRaw, the fast path that applies
+ * market data snapshots and closed position reports straight from the FIX text; whatever it declines,
+ * and every admin message, is parsed and passed to fromAdmin or fromApp, as QuickFIX/J would. Messages
+ * are played on never connected sessions created for the captured session ids, so whatever the handlers
+ * send is taken by the session and goes nowhere. Messages are played at their captured pace scaled by
+ * a speed factor, or back to back at the maximum speed. The time each message took to parse and hand
+ * to the application and how late it was played are reported along with the application's metrics.
+ *
+ * The application runs on a fresh state: the tuning settings listed below are taken from the [default]
+ * section of an optional settings file, nothing else is, so no snapshot is restored and no capture or
+ * journal is written.
+ *
+ * Usage: MessageReplayer capture [speed | max] [settings] [data dictionary]
+ */
+public class MessageReplayer
+{
+  // the settings of the application that shape how it handles messages
+  static final private String[] APP_SETTINGS = { "CallbackModel", "CallbackThreads", "MarketDataRingSize",
+    "MarketDataSymbols", "PositionReconcileWindowMillis", "PositionReconcileMaxFills", "OrderRatePerSecond",
+    "OrderBurst", "OrderBatchSize" };
+  // a message due sooner than this is waited for by spinning rather than parking
+  static final private long SPIN_NANOS = 100000;
+
+  public static void main(String[] args) throws Exception
+  {
+    if (args.length == 0)
+    {
+      System.out.println("Usage: MessageReplayer capture [speed | max] [settings] [data dictionary]");
+      return;
+    }
+    double speed = args.length > 1 ? ("max".equalsIgnoreCase(args[1]) ? 0 : Double.parseDouble(args[1])) : 1;
+    SessionSettings settings = new SessionSettings();
+    settings.setString("username", "replay");
+    settings.setString("password", "replay");
+    if (args.length > 2)
+    {
+      SessionSettings tuning;
+      try (FileInputStream in = new FileInputStream(args[2]))
+      {
+        tuning = new SessionSettings(in);
+      }
+      for (String key : APP_SETTINGS)
+      {
+        if (tuning.isSetting(key))
+          settings.setString(key, tuning.getString(key));
+      }
+    }
+    DataDictionary dictionary = new DataDictionary(args.length > 3 ? args[3] : "appRun/FIXFXCM10.xml");
+    MessageReplayer replayer = new MessageReplayer(settings, dictionary);
+    replayer.replay(new File(args[0]), speed);
+    // let offloaded handlers finish before the metrics are read
+    CallbackDispatcher callbacks = replayer.getApp().getCallbacks();
+    while (callbacks.getQueued() > 0)
+      Thread.sleep(1);
+    System.out.println(replayer.getSummary());
+    System.out.println(replayer.getApp().getMetrics().getSummary());
+  }
+
+  private final SessionSettings settings;
+  private final DataDictionary dictionary;
+  private final MyApp app;
+  private final DefaultMessageFactory factory = new DefaultMessageFactory();
+  private final DefaultSessionFactory sessionFactory;
+  private final Charset charset = CharsetSupport.getCharsetInstance();
+
+  // from the handing of a message to the application until it returned, parsing included
+  private final LatencyHistogram handling = new LatencyHistogram();
+  // how late each message was played, when paced
+  private final LatencyHistogram lag = new LatencyHistogram();
+  private long replayed;
+  private long fastPath;
+  private long unparsed;
+  private long sessions;
+  private long capturedNanos;
+  private long elapsedNanos;
+  private double speed;
+
+  /**
+   * @param settings - the settings of the application, which the replayed sessions are added to
+   * @param dictionary - parses the captured messages
+   */
+  public MessageReplayer(SessionSettings settings, DataDictionary dictionary)
+  {
+    this.settings = settings;
+    this.dictionary = dictionary;
+    app = new MyApp(settings);
+    sessionFactory = new DefaultSessionFactory(app, new MemoryStoreFactory(), null, factory);
+  }
+
+  /**
+   * Retrieve the application the messages are played through
+   */
+  public MyApp getApp() { return app; }
+
+  /**
+   * Play a capture through the application
+   *
+   * @param capture - the capture file
+   * @param speed - how many times faster than captured to play it, 0 or less for as fast as possible
+   * @throws IOException - if the file is not a capture or can not be read
+   */
+  public void replay(File capture, double speed) throws IOException
+  {
+    this.speed = speed;
+    Map<Integer, SessionID> sessionIDs = new HashMap<Integer, SessionID>();
+    long firstNanos = 0;
+    long lastNanos = 0;
+    long start = System.nanoTime();
+    try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(
+      new FileInputStream(capture), 65536), 65536)))
+    {
+      if (in.readInt() != MessageRecorder.MAGIC)
+        throw new IOException(capture + " is not a message capture");
+      int version = in.readInt();
+      if (version != MessageRecorder.VERSION)
+        throw new IOException(capture + " is a version " + version + " capture, expected " + MessageRecorder.VERSION);
+      while (true)
+      {
+        byte kind;
+        try
+        {
+          kind = in.readByte();
+        }
+        catch (EOFException e)
+        {
+          // a plain end of the capture, or the unfinished compressed stream of a run that died
+          if (e.getMessage() != null)
+            throw e;
+          break;
+        }
+        if (kind == MessageRecorder.SESSION)
+        {
+          int id = in.readInt();
+          SessionID sessionID = new SessionID(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF());
+          createSession(sessionID);
+          sessionIDs.put(id, sessionID);
+          continue;
+        }
+        SessionID sessionID = sessionIDs.get(in.readInt());
+        long nanos = in.readLong();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        String raw = new String(bytes, charset);
+        if (replayed + unparsed == 0)
+          firstNanos = nanos;
+        lastNanos = nanos;
+        if (speed > 0)
+        {
+          // wait until the message is due at the requested pace
+          long due = start + (long)((nanos - firstNanos) / speed);
+          long wait;
+          while ((wait = due - System.nanoTime()) > 0)
+          {
+            if (wait > SPIN_NANOS)
+              LockSupport.parkNanos(wait - SPIN_NANOS);
+            else
+              Thread.onSpinWait();
+          }
+          lag.record(System.nanoTime() - due);
+        }
+        long begin = System.nanoTime();
+        if (kind != MessageRecorder.ADMIN && app.fromRaw(raw, sessionID))
+        {
+          handling.record(System.nanoTime() - begin);
+          replayed++;
+          fastPath++;
+          continue;
+        }
+        Message message;
+        try
+        {
+          message = MessageUtils.parse(factory, dictionary, raw);
+        }
+        catch (InvalidMessage e)
+        {
+          unparsed++;
+          continue;
+        }
+        if (kind == MessageRecorder.ADMIN)
+          app.fromAdmin(message, sessionID);
+        else
+          app.fromApp(message, sessionID);
+        handling.record(System.nanoTime() - begin);
+        replayed++;
+      }
+    }
+    catch (EOFException | ZipException e)
+    {
+      // the recording process died part way through a batch, every complete record before it has been played
+      System.out.println("-- " + capture + " ends where its run stopped writing");
+    }
+    elapsedNanos = System.nanoTime() - start;
+    capturedNanos = lastNanos - firstNanos;
+    sessions = sessionIDs.size();
+  }
+
+  /**
+   * Create a never connected session for a captured session id, which calls the application's onCreate
+   */
+  private void createSession(SessionID sessionID) throws IOException
+  {
+    if (Session.lookupSession(sessionID) != null)
+      return;
+    settings.setString(sessionID, "ConnectionType", "initiator");
+    settings.setString(sessionID, "StartTime", "00:00:00");
+    settings.setString(sessionID, "EndTime", "00:00:00");
+    settings.setString(sessionID, "HeartBtInt", "30");
+    settings.setString(sessionID, "UseDataDictionary", "N");
+    // keep the session from retaining every message the handlers send
+    settings.setString(sessionID, "PersistMessages", "N");
+    try
+    {
+      sessionFactory.create(sessionID, settings);
+    }
+    catch (Exception e)
+    {
+      throw new IOException("Can not create session " + sessionID, e);
+    }
+  }
+
+  /**
+   * Retrieve the number of messages played through the application
+   */
+  public long getReplayed() { return replayed; }
+  /**
+   * Retrieve the number of messages the raw fast path handled without a parse
+   */
+  public long getFastPath() { return fastPath; }
+  public LatencyHistogram getHandling() { return handling; }
+  public LatencyHistogram getLag() { return lag; }
+
+  /**
+   * Retrieve a summary of the last replay
+   */
+  public String getSummary()
+  {
+    StringBuilder summary = new StringBuilder(String.format(
+      "Replayed %d messages of %d sessions (%d from the raw text, %d unparsable) at %s in %.1f ms, %.0f messages/s, "
+      + "captured over %.1f ms", replayed, sessions, fastPath, unparsed, speed > 0 ? speed + "x" : "max speed",
+      elapsedNanos / 1e6, replayed * 1e9 / Math.max(elapsedNanos, 1), capturedNanos / 1e6));
+    summary.append("\n  fast path or parse + callback ").append(handling.summary());
+    if (speed > 0)
+      summary.append("\n  lag ").append(lag.summary());
+    return summary.toString();
+  }
+}
@@ -0,0 +1,234 @@
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.ConcurrentHashMap;
+
+import quickfix.FieldNotFound;
+import quickfix.StringField;
+import quickfix.UtcTimestampPrecision;
+import quickfix.field.AccountType;
+import quickfix.field.ClOrdID;
+import quickfix.field.ClearingBusinessDate;
+import quickfix.field.OrdType;
+import quickfix.field.OrderQty;
+import quickfix.field.PosReqID;
+import quickfix.field.PosReqType;
+import quickfix.field.SecondaryClOrdID;
+import quickfix.field.Side;
+import quickfix.field.SubscriptionRequestType;
+import quickfix.field.Symbol;
+import quickfix.field.TimeInForce;
+import quickfix.field.TransactTime;
+import quickfix.field.Account;
+import quickfix.field.converter.CharConverter;
+import quickfix.field.converter.DoubleConverter;
+import quickfix.field.converter.IntConverter;
+import quickfix.field.converter.UtcTimestampConverter;
+import quickfix.fix44.CollateralReport;
+import quickfix.fix44.NewOrderSingle;
+import quickfix.fix44.RequestForPositions;
+
+/**
+ * Pre-built outbound messages of a session, reused for every send
+ *
+ * A NewOrderSingle is kept per account and symbol, and a RequestForPositions per account, with every
+ * field that never changes (account, symbol, parties, order type, secondary order id) set once. The
+ * fields that do change are StringFields the message holds by reference, so a send only writes their
+ * new values and allocates no message, group or field objects. QuickFIX/J copies typed fields such as
+ * OrderQty into fields of its own on set(), which is why the templates keep the StringFields instead.
+ * A message is serialized inside sendToTarget, so a template may be reused as soon as the send
+ * returns; until then it is locked by its sender.
+ */
+public class MessageTemplates
+{
+  /**
+   * A market order on one account and symbol. Lock it while setting its fields and sending it.
+   */
+  public static class Order
+  {
+    final NewOrderSingle message;
+    final StringField clOrdID = new StringField(ClOrdID.FIELD, "");
+    final StringField side = new StringField(Side.FIELD, CharConverter.convert(Side.BUY));
+    final StringField transactTime = new StringField(TransactTime.FIELD, "");
+    final StringField orderQty = new StringField(OrderQty.FIELD, "0");
+    final StringField timeInForce = new StringField(TimeInForce.FIELD,
+      CharConverter.convert(TimeInForce.GOOD_TILL_CANCEL));
+    private double lastQuantity;
+
+    Order(CollateralReport account, String symbol, String secondaryClOrdID) throws FieldNotFound
+    {
+      message = new NewOrderSingle();
+      message.setField(clOrdID);
+      message.setField(side);
+      message.setField(transactTime);
+      message.set(new OrdType(OrdType.MARKET));
+      message.set(account.getAccount());
+      message.set(new Symbol(symbol));
+      message.setField(orderQty);
+      message.setField(timeInForce);
+      message.set(new SecondaryClOrdID(secondaryClOrdID));
+    }
+
+    /**
+     * Set the fields of the next order
+     *
+     * @return - the order, ready to send
+     */
+    NewOrderSingle set(String id, char sideValue, double quantity, char timeInForceValue)
+    {
+      clOrdID.setValue(id);
+      side.setValue(charValue(sideValue));
+      transactTime.setValue(now());
+      // the same lot size is usually traded over and over, so it is only formatted when it changes
+      if (quantity != lastQuantity)
+      {
+        orderQty.setValue(DoubleConverter.convert(quantity));
+        lastQuantity = quantity;
+      }
+      timeInForce.setValue(charValue(timeInForceValue));
+      return message;
+    }
+  }
+
+  /**
+   * A request for the positions of one account. Lock it while setting its fields and sending it.
+   */
+  public static class Positions
+  {
+    final RequestForPositions message;
+    final StringField posReqID = new StringField(PosReqID.FIELD, "");
+    final StringField posReqType = new StringField(PosReqType.FIELD, IntConverter.convert(PosReqType.POSITIONS));
+    final StringField transactTime = new StringField(TransactTime.FIELD, "");
+
+    Positions(CollateralReport account, String clearingBusinessDate) throws FieldNotFound
+    {
+      message = new RequestForPositions();
+      // the parties of the account, as FXCM reported them
+      message.addGroup(account.getGroup(1, new CollateralReport.NoPartyIDs()));
+      // set the subscription to updates to the current snapshot and updates to send refresh messages
+      message.set(new SubscriptionRequestType(SubscriptionRequestType.SNAPSHOT_UPDATES));
+      message.setField(posReqType);
+      message.set(account.getAccount());
+      message.setField(transactTime);
+      message.set(new ClearingBusinessDate(clearingBusinessDate));
+      // by default FXCM has ACCOUNT_IS_CARRIED_ON_NON_CUSTOMER_SIDE_OF_BOOKS_AND_IS_CROSS_MARGINED
+      message.set(new AccountType(AccountType.ACCOUNT_IS_CARRIED_ON_NON_CUSTOMER_SIDE_OF_BOOKS_AND_IS_CROSS_MARGINED));
+      message.setField(posReqID);
+    }
+
+    /**
+     * Set the fields of the next request
+     *
+     * @return - the request, ready to send
+     */
+    RequestForPositions set(String id, int type)
+    {
+      posReqID.setValue(id);
+      posReqType.setValue(type == PosReqType.POSITIONS ? POSITIONS : IntConverter.convert(type));
+      transactTime.setValue(now());
+      return message;
+    }
+  }
+
+  static final private String POSITIONS = IntConverter.convert(PosReqType.POSITIONS);
+  // the values of the single character fields, so setting one does not allocate
+  static final private String[] CHARS = new String[128];
+  static
+  {
+    for (char c = 0; c < CHARS.length; c++)
+      CHARS[c] = CharConverter.convert(c);
+  }
+
+  /**
+   * The current UTC time as a FIX timestamp, formatted once per millisecond and shared by every
+   * template, since bursts of orders are sent within the same millisecond
+   */
+  static private class Timestamp
+  {
+    final long millis;
+    final String value;
+
+    Timestamp(long millis)
+    {
+      this.millis = millis;
+      value = UtcTimestampConverter.convert(
+        LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC), UtcTimestampPrecision.MILLIS);
+    }
+  }
+
+  static private volatile Timestamp timestamp = new Timestamp(0);
+
+  static private String now()
+  {
+    long millis = System.currentTimeMillis();
+    Timestamp current = timestamp;
+    if (current.millis != millis)
+      timestamp = current = new Timestamp(millis);
+    return current.value;
+  }
+
+  static private String charValue(char value)
+  {
+    return value < CHARS.length ? CHARS[value] : CharConverter.convert(value);
+  }
+
+  private final String secondaryClOrdID;
+  private final ConcurrentHashMap<Account, ConcurrentHashMap<String, Order>> orders;
+  private final ConcurrentHashMap<Account, Positions> positions;
+
+  /**
+   * @param secondaryClOrdID - the secondary order id every order is tagged with
+   */
+  public MessageTemplates(String secondaryClOrdID)
+  {
+    this.secondaryClOrdID = secondaryClOrdID;
+    orders = new ConcurrentHashMap<Account, ConcurrentHashMap<String, Order>>();
+    positions = new ConcurrentHashMap<Account, Positions>();
+  }
+
+  /**
+   * Retrieve the order template of an account and symbol, building it on first use
+   */
+  public Order order(CollateralReport account, String symbol) throws FieldNotFound
+  {
+    Account key = account.getAccount();
+    ConcurrentHashMap<String, Order> bySymbol = orders.get(key);
+    if (bySymbol == null)
+      bySymbol = orders.computeIfAbsent(key, k -> new ConcurrentHashMap<String, Order>());
+    Order order = bySymbol.get(symbol);
+    if (order == null)
+    {
+      order = new Order(account, symbol, secondaryClOrdID);
+      Order existing = bySymbol.putIfAbsent(symbol, order);
+      if (existing != null)
+        order = existing;
+    }
+    return order;
+  }
+
+  /**
+   * Retrieve the request for positions template of an account, building it on first use
+   */
+  public Positions positions(CollateralReport account, String clearingBusinessDate) throws FieldNotFound
+  {
+    Account key = account.getAccount();
+    Positions request = positions.get(key);
+    if (request == null)
+    {
+      request = new Positions(account, clearingBusinessDate);
+      Positions existing = positions.putIfAbsent(key, request);
+      if (existing != null)
+        request = existing;
+    }
+    return request;
+  }
+
+  /**
+   * Drop every template, for example once the accounts have been reported again
+   */
+  public void clear()
+  {
+    orders.clear();
+    positions.clear();
+  }
+}
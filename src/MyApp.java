@@ -1,43 +1,56 @@
-import java.time.LocalDateTime;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import quickfix.Application;
+import quickfix.DataDictionary;
 import quickfix.FieldNotFound;
+import quickfix.FileUtil;
 import quickfix.Group;
-import quickfix.IntField;
 import quickfix.Message;
 import quickfix.Session;
 import quickfix.SessionID;
 import quickfix.SessionSettings;
 import quickfix.field.Account;
-import quickfix.field.AccountType;
+import quickfix.field.BeginString;
 import quickfix.field.ClOrdID;
-import quickfix.field.ClearingBusinessDate;
+import quickfix.field.LongQty;
+import quickfix.field.CashOutstanding;
 import quickfix.field.CollInquiryID;
+import quickfix.field.ExecType;
 import quickfix.field.MDEntryType;
-import quickfix.field.MDReqID;
-import quickfix.field.MDUpdateType;
-import quickfix.field.MarketDepth;
-import quickfix.field.NoRelatedSym;
-import quickfix.field.OrdType;
+import quickfix.field.MDEntryPx;
+import quickfix.field.MarginExcess;
+import quickfix.field.MsgType;
+import quickfix.field.NoPositions;
 import quickfix.field.OrderID;
+import quickfix.field.OrdStatus;
 import quickfix.field.OrderQty;
 import quickfix.field.Password;
 import quickfix.field.PosReqID;
+import quickfix.field.PosReqResult;
 import quickfix.field.PosReqType;
+import quickfix.field.PosType;
 import quickfix.field.SecondaryClOrdID;
-import quickfix.field.SecurityStatusReqID;
+import quickfix.field.SettlPrice;
+import quickfix.field.ShortQty;
 import quickfix.field.Side;
 import quickfix.field.SubscriptionRequestType;
 import quickfix.field.Symbol;
 import quickfix.field.TimeInForce;
 import quickfix.field.TradSesReqID;
-import quickfix.field.TransactTime;
 import quickfix.field.UserRequestID;
 import quickfix.field.UserRequestType;
 import quickfix.field.UserStatus;
@@ -45,19 +58,14 @@ import quickfix.field.Username;
 import quickfix.fix44.CollateralInquiry;
 import quickfix.fix44.CollateralReport;
 import quickfix.fix44.ExecutionReport;
-import quickfix.fix44.MarketDataRequest;
 import quickfix.fix44.MarketDataSnapshotFullRefresh;
 import quickfix.fix44.MessageCracker;
-import quickfix.fix44.NewOrderSingle;
 import quickfix.fix44.PositionReport;
-import quickfix.fix44.RequestForPositions;
-import quickfix.fix44.SecurityList;
-import quickfix.fix44.SecurityStatusRequest;
+import quickfix.fix44.RequestForPositionsAck;
 import quickfix.fix44.TradingSessionStatus;
 import quickfix.fix44.TradingSessionStatusRequest;
 import quickfix.fix44.UserRequest;
 import quickfix.fix44.UserResponse;
-import quickfix.fix44.component.Instrument;
 
 /**
  * Edit of MyApp
@@ -75,41 +83,325 @@ public class MyApp extends MessageCracker implements Application
   static final private int FXCMParamValue = FXCM + 18; //9018;
   static final private int FXCMParamName = FXCM + 17; //9017;
   static final private int FXCMMinQuantity = FXCM + 95; //9095;
+  static final private int FXCMUsedMargin = FXCM + 38; //9038;
   static final private int REQUEST_LIST_OF_TRADING_SESSIONS = 5;
   static final public String FIXAPITEST = "fix_example_test";
+  // fills are reconciled with the server at most this long after they arrive
+  static final private long RECONCILE_WINDOW_MILLIS = 50;
+  // or as soon as an account has this many fills waiting
+  static final private int RECONCILE_MAX_FILLS = 32;
+  // market data updates a subscriber can fall behind by before it is resynchronized
+  static final private int MARKET_DATA_RING_SIZE = 4096;
+  // how often the state of every session is saved, when StateSnapshotPath is set
+  static final private long SNAPSHOT_INTERVAL_SECONDS = 10;
+  // how old a snapshot may be and still be restored from, rather than starting cold
+  static final private long SNAPSHOT_MAX_AGE_SECONDS = 600;
+  // the most rate limited orders sent per wake up of a session's scheduler
+  static final private int ORDER_BATCH_SIZE = 16;
+  // what handles inbound messages, unless CallbackModel says otherwise
+  static final private CallbackDispatcher.Model CALLBACK_MODEL = CallbackDispatcher.Model.INLINE;
   
-  private CollInquiryID colInquiryID;
-  private String userPassword;
-  private String userPin;
-  private long requestID;
-  private SessionID sessionID;
-  private TradingSessionStatus sessionStatus;
-  private Date sessionStart;
-  private String userName;
   private Calendar calendarUTC = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
   
   private SessionSettings settings;
-
-  private boolean requestCompleted = false;
-  private HashMap<Account, CollateralReport> accounts;
-  private HashMap<OrderID, ExecutionReport> orders; 
-  private HashMap<String, PositionReport> positions;
-  private HashMap<String, MarketDataSnapshotFullRefresh> instruments; 
+  // the state of every login, one per [session] in the settings
+  private ConcurrentHashMap<SessionID, SessionContext> sessions;
+  
+  private MessageMetrics metrics;
+  private LatencyHistogram collateralRoundTrip;
+  private LatencyHistogram orderRoundTrip;
+  private LatencyHistogram positionRoundTrip;
+  
+  // closes the position reconciliation windows of every session
+  private ScheduledExecutorService reconcileScheduler;
+  private long reconcileWindowMillis;
+  private int reconcileMaxFills;
+  
+  // the size of each session's market data ring, and the tick to consumer latency of its subscribers
+  private int marketDataRingSize;
+  private LatencyHistogram tickToConsumer;
+  // how long orders waited for their session's rate limit
+  private LatencyHistogram orderWait;
+  // how long the pre-trade risk checks of an order took
+  private LatencyHistogram riskCheck;
+  
+  // handles the inbound messages of every session, on or off the QuickFIX/J thread
+  private CallbackDispatcher callbacks;
+  
+  // captures the inbound messages of every session for replay, null unless MessageCapturePath is set
+  private MessageRecorder recorder;
+  
+  // where the state of each session is saved and restored from, null to start cold every time
+  private File snapshotPath;
+  private long snapshotMaxAgeMillis;
+  private ScheduledExecutorService snapshotScheduler;
+  
+  // the time request ids are unique from, and the count of sessions given ids so far
+  private final long idEpoch = System.currentTimeMillis();
+  private final AtomicInteger sessionCount = new AtomicInteger();
+  
+  // scans raw messages for the fields the fast path reads, one per decoding thread
+  private final ThreadLocal<FixFieldScanner> scanners = ThreadLocal.withInitial(() -> new FixFieldScanner(
+    MsgType.FIELD, Symbol.FIELD, MDEntryType.FIELD, MDEntryPx.FIELD, FXCMMinQuantity,
+    PosReqType.FIELD, PosReqID.FIELD, FXCMPosID, FXCMLastReportRequested));
+  // the quote an order is valued at by the risk checks, one per sending thread
+  private final ThreadLocal<TopOfBookCache.Quote> riskQuotes = ThreadLocal.withInitial(TopOfBookCache.Quote::new);
+  
+  /**
+   * The state of a single session: its login, request ids, outstanding requests, accounts,
+   * orders, positions and instruments
+   */
+  static private class SessionContext
+  {
+    final SessionID sessionID;
+    final String userName;
+    final String userPassword;
+    final String userPin;
+    
+    final RequestCorrelator<CollateralReport> collateralRequests;
+    final RequestCorrelator<ExecutionReport> orderRequests;
+    final RequestCorrelator<PositionReport> positionRequests;
+    final CompletableFuture<Set<Account>> accountsReady;
+    // written by the session's callback thread and read by the trading driver without locking
+    final ConcurrentHashMap<Account, CollateralReport> accounts;
+    final ConcurrentHashMap<OrderID, ExecutionReport> orders; 
+    final ConcurrentHashMap<String, PositionReport> positions;
+    final TopOfBookCache instruments;
+    final PositionReconciler reconciler;
+    // streams the updates of the instruments to subscribers
+    final MarketDataFeed marketData;
+    // the phases of the login, and when the session became ready to trade
+    final SessionBootstrap bootstrap;
+    // the net position and P&L of every account and symbol, from the positions and quotes
+    final PositionBook book;
+    // the quote the positions are marked at, only touched by the thread applying market data
+    final TopOfBookCache.Quote mark;
+    // positions restored from a snapshot that no live report has confirmed yet
+    final Set<String> stalePositions;
+    // ClOrdIDs and every other request id sent on the session
+    final IdGenerator ids;
+    // the orders and requests for positions sent on the session, reused from send to send
+    final MessageTemplates templates;
+    // paces the orders of the session to its rate limit
+    final OrderScheduler orderScheduler;
+    // the limits every order is checked against before it is queued
+    final PreTradeRisk risk;
+    // by ClOrdID, what the orders still working hold of the limits, until their last execution report
+    final ConcurrentHashMap<String, Reservation> reservations;
+    // the symbols whose market data the session streams
+    final MarketDataSubscriptions subscriptions;
+    
+    volatile TradingSessionStatus sessionStatus;
+    volatile Date sessionStart;
+    CollInquiryID colInquiryID;
+    
+    SessionContext(SessionID sessionID, SessionSettings settings, IdGenerator ids, PositionReconciler reconciler,
+      int marketDataRingSize, LatencyHistogram tickToConsumer, OrderScheduler orderScheduler, PreTradeRisk risk,
+      MarketDataSubscriptions.Sender sender)
+    {
+      this.sessionID = sessionID;
+      String userName = null;
+      String userPassword = null;
+      String userPin = null;
+      List<String> symbols = null;
+      try
+      {
+        // each session may log in as its own user, falling back to the [default] section
+        userName = settings.getString(sessionID, "username");
+        userPassword = settings.getString(sessionID, "password");
+        userPin = settings.isSetting(sessionID, "pin") ? settings.getString(sessionID, "pin") : null;
+        // the symbols to stream market data for, every instrument listed if unset or *
+        String wanted = settings.isSetting(sessionID, "MarketDataSymbols")
+          ? settings.getString(sessionID, "MarketDataSymbols").trim() : "*";
+        if (!wanted.equals("*"))
+        {
+          symbols = new ArrayList<String>();
+          for (String symbol : wanted.split(","))
+          {
+            if (!symbol.trim().isEmpty())
+              symbols.add(symbol.trim());
+          }
+        }
+      }
+      catch (Exception e)
+      {
+        e.printStackTrace();
+      }
+      this.userName = userName;
+      this.userPassword = userPassword;
+      this.userPin = userPin;
+      
+      accounts = new ConcurrentHashMap<Account, CollateralReport>();
+      orders = new ConcurrentHashMap<OrderID, ExecutionReport>();
+      positions = new ConcurrentHashMap<String, PositionReport>();
+      instruments = new TopOfBookCache(FXCMMinQuantity, 512);
+      marketData = new MarketDataFeed(instruments, marketDataRingSize, tickToConsumer);
+      bootstrap = new SessionBootstrap();
+      stalePositions = ConcurrentHashMap.newKeySet();
+      book = new PositionBook();
+      mark = new TopOfBookCache.Quote();
+      this.reconciler = reconciler;
+      this.ids = ids;
+      templates = new MessageTemplates(FIXAPITEST);
+      this.orderScheduler = orderScheduler;
+      this.risk = risk;
+      // the notional limit counts the positions held, restored ones included, with the orders in flight,
+      // read from what the book publishes so a check never waits on the ticks marking it
+      risk.setPositions(book::getNetQuantity);
+      reservations = new ConcurrentHashMap<String, Reservation>();
+      subscriptions = new MarketDataSubscriptions(ids, symbols, sender);
+      
+      collateralRequests = new RequestCorrelator<CollateralReport>();
+      orderRequests = new RequestCorrelator<ExecutionReport>();
+      positionRequests = new RequestCorrelator<PositionReport>();
+      accountsReady = new CompletableFuture<Set<Account>>();
+    }
+  }
+  
+  /**
+   * What an order holds of its session's risk limits, handed over to the positions as it fills and
+   * given back for whatever is left of it once it is done without filling
+   */
+  static private class Reservation
+  {
+    final String account;
+    final String symbol;
+    final boolean buy;
+    final double quantity;
+    final double margin;
+    // guarded by this
+    private double filled;
+    private boolean settled;
+    
+    Reservation(String account, String symbol, boolean buy, double quantity, double margin)
+    {
+      this.account = account;
+      this.symbol = symbol;
+      this.buy = buy;
+      this.quantity = quantity;
+      this.margin = margin;
+    }
+    
+    /**
+     * Hand a fill of the order over to the positions, which include it by now
+     */
+    synchronized void filled(PreTradeRisk risk, double lastQty)
+    {
+      double fill = Math.min(lastQty, quantity - filled);
+      if (settled || fill <= 0)
+        return;
+      filled += fill;
+      risk.filled(symbol, buy, fill);
+    }
+    
+    /**
+     * Settle what is left of the order, handing it over to the positions if it filled and giving it
+     * back, with its share of the margin, if it was rejected, cancelled, expired or never answered
+     */
+    synchronized void settle(PreTradeRisk risk, boolean fill)
+    {
+      double left = quantity - filled;
+      if (settled || left <= 0)
+        return;
+      settled = true;
+      if (fill)
+        risk.filled(symbol, buy, left);
+      else
+        risk.release(account, symbol, buy, left, margin * left / quantity);
+    }
+  }
   
 
 //START SECTION - public trading functions
-  public boolean getRequestCompleted() { return requestCompleted; }
+  /**
+   * Retrieve the sessions created from the settings
+   */
+  public Set<SessionID> getSessions() { return new LinkedHashSet<SessionID>(sessions.keySet()); }
+  
+  /**
+   * Retrieve the future completed once the full batch of collateral reports for the login has arrived
+   *
+   * @param sessionID - the session of the login
+   * @return - a future of the accounts under the login
+   */
+  public CompletableFuture<Set<Account>> getAccountsReady(SessionID sessionID) { return context(sessionID).accountsReady; }
+  
+  /**
+   * Retrieve the startup of the session, whose ready future completes once its accounts and a first
+   * quote of every instrument have arrived
+   */
+  public SessionBootstrap getBootstrap(SessionID sessionID) { return context(sessionID).bootstrap; }
+  
+  public Set<Account> getAccts(SessionID sessionID) { return new LinkedHashSet<Account>(context(sessionID).accounts.keySet()); }
+  public Set<OrderID> getOrdersPlaced(SessionID sessionID) { return new LinkedHashSet<OrderID>(context(sessionID).orders.keySet()); }
+  public Set<String> getPositionsExecuted(SessionID sessionID) { return new LinkedHashSet<String>(context(sessionID).positions.keySet()); }
+  public void resetPositionsExecuted(SessionID sessionID)
+  {
+    context(sessionID).positions.clear();
+    context(sessionID).stalePositions.clear();
+    context(sessionID).book.clear();
+    context(sessionID).risk.clear();
+    context(sessionID).reservations.clear();
+  }
+  public Set<String> getInstruments(SessionID sessionID) { return context(sessionID).instruments.getSymbols(); }
+  public PositionReport getPositionReport(SessionID sessionID, String ticketID) { return context(sessionID).positions.get(ticketID); }
+  public PositionReconciler getReconciler(SessionID sessionID) { return context(sessionID).reconciler; }
+  
+  /**
+   * Retrieve the net position and unrealized P&L of the session's accounts and symbols
+   */
+  public PositionBook getPositionBook(SessionID sessionID) { return context(sessionID).book; }
+  
+  /**
+   * Retrieve the scheduler pacing the session's orders
+   */
+  public OrderScheduler getOrderScheduler(SessionID sessionID) { return context(sessionID).orderScheduler; }
+  
+  /**
+   * Retrieve the pre-trade limits the session's orders are checked against
+   */
+  public PreTradeRisk getPreTradeRisk(SessionID sessionID) { return context(sessionID).risk; }
+  
+  /**
+   * Retrieve the symbols whose market data the session streams
+   */
+  public Set<String> getSubscribedSymbols(SessionID sessionID) { return context(sessionID).subscriptions.getSubscribed(); }
   
-  public Set<Account> getAccts() { return new LinkedHashSet<Account>(accounts.keySet()); }
-  public Set<OrderID> getOrdersPlaced() { return new LinkedHashSet<OrderID>(orders.keySet()); }
-  public Set<String> getPositionsExecuted() { return new LinkedHashSet<String>(positions.keySet()); }
-  public void resetPositionsExecuted()
+  /**
+   * Add symbols to the session's market data subscription, with a request for only the ones new to it.
+   * Symbols not listed by the session status yet are subscribed to once they are.
+   *
+   * @return - the number of symbols newly subscribed to
+   */
+  public int subscribeSymbols(SessionID sessionID, Collection<String> symbols)
   {
-    if(positions.size() > 0)
-      positions.clear();
+    return context(sessionID).subscriptions.subscribe(symbols);
+  }
+  
+  /**
+   * Drop symbols from the session's market data subscription. Their last quotes stay in the cache.
+   *
+   * @return - the number of symbols unsubscribed from
+   */
+  public int unsubscribeSymbols(SessionID sessionID, Collection<String> symbols)
+  {
+    return context(sessionID).subscriptions.unsubscribe(symbols);
+  }
+  
+  /**
+   * Start streaming the top of book of a session's instruments to a listener, on a thread of its own.
+   * A listener slower than the market sees each symbol's latest quote and skips the ones in between.
+   *
+   * @param sessionID - the session whose market data to stream
+   * @param symbols - the symbols to stream, or null for every symbol
+   * @param listener - receives the quotes
+   * @return - the subscription, to be closed once no longer needed
+   */
+  public MarketDataFeed.Subscription subscribeMarketData(SessionID sessionID, Set<String> symbols,
+    MarketDataFeed.Listener listener)
+  {
+    return context(sessionID).marketData.subscribe("market-data-" + sessionID.getSenderCompID(), symbols, listener);
   }
-  public Set<String> getInstruments() { return new LinkedHashSet<String>(instruments.keySet()); }
-  public PositionReport getPositionReport(String ticketID) { return positions.get(ticketID); }
   
   /**
    * Check whether a position has the specified secondary order id
@@ -136,11 +428,16 @@ public class MyApp extends MessageCracker implements Application
   /**
    * Retrieve the positions for the specified account and add them to the positions list
    * 
+   * @param sessionID - the session of the account
    * @param account
+   * @return - a future completed with the last position report of the batch, or null if there are no positions
    */
-  public void getPositions(Account account)
+  public CompletableFuture<PositionReport> getPositions(SessionID sessionID, Account account)
   {
-    getPositions(accounts.get(account), new PosReqType(PosReqType.POSITIONS));
+    SessionContext context = context(sessionID);
+    // a full refresh also reconciles any fills batched for the account
+    context.reconciler.discard(account);
+    return getPositions(context, context.accounts.get(account), new PosReqType(PosReqType.POSITIONS));
   }
   
 //END SECTION - public trading functions
@@ -149,79 +446,334 @@ public class MyApp extends MessageCracker implements Application
   public MyApp(SessionSettings settings)
   {
     this.settings = settings;
+    sessions = new ConcurrentHashMap<SessionID, SessionContext>();
+    
     try
     {
-      this.userName = settings.getString("username");
-      this.userPassword = settings.getString("password");
-      this.userPin = settings.getDefaultProperties().getProperty("pin", null);
+      reconcileWindowMillis = settings.isSetting("PositionReconcileWindowMillis")
+        ? settings.getLong("PositionReconcileWindowMillis") : RECONCILE_WINDOW_MILLIS;
+      reconcileMaxFills = settings.isSetting("PositionReconcileMaxFills")
+        ? (int)settings.getLong("PositionReconcileMaxFills") : RECONCILE_MAX_FILLS;
+      marketDataRingSize = settings.isSetting("MarketDataRingSize")
+        ? (int)settings.getLong("MarketDataRingSize") : MARKET_DATA_RING_SIZE;
+      if (settings.isSetting("StateSnapshotPath"))
+      {
+        snapshotPath = new File(settings.getString("StateSnapshotPath").replace('\\', File.separatorChar));
+        long interval = settings.isSetting("StateSnapshotIntervalSeconds")
+          ? settings.getLong("StateSnapshotIntervalSeconds") : SNAPSHOT_INTERVAL_SECONDS;
+        snapshotMaxAgeMillis = (settings.isSetting("StateSnapshotMaxAgeSeconds")
+          ? settings.getLong("StateSnapshotMaxAgeSeconds") : SNAPSHOT_MAX_AGE_SECONDS) * 1000;
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+          Thread thread = new Thread(r, "state-snapshot");
+          thread.setDaemon(true);
+          return thread;
+        });
+        snapshotScheduler.scheduleWithFixedDelay(this::saveState, interval, interval, TimeUnit.SECONDS);
+      }
+      // capture the inbound messages for MessageReplayer, to a new file per run
+      if (settings.isSetting("MessageCapturePath"))
+        recorder = new MessageRecorder(new File(settings.getString("MessageCapturePath")
+          .replace('\\', File.separatorChar)));
     }
     catch (Exception e)
     {
       e.printStackTrace();
+      reconcileWindowMillis = RECONCILE_WINDOW_MILLIS;
+      reconcileMaxFills = RECONCILE_MAX_FILLS;
+      marketDataRingSize = MARKET_DATA_RING_SIZE;
     }
+    reconcileScheduler = Executors.newSingleThreadScheduledExecutor(r ->
+    {
+      Thread thread = new Thread(r, "position-reconciler");
+      thread.setDaemon(true);
+      return thread;
+    });
     
-    accounts = new HashMap<Account, CollateralReport>();
-    orders = new HashMap<OrderID, ExecutionReport>();
-    positions = new HashMap<String, PositionReport>();
-    instruments = new HashMap<String, MarketDataSnapshotFullRefresh>();
+    metrics = new MessageMetrics();
+    collateralRoundTrip = metrics.roundTrip("CollateralInquiry-CollateralReport");
+    orderRoundTrip = metrics.roundTrip("NewOrderSingle-ExecutionReport");
+    positionRoundTrip = metrics.roundTrip("RequestForPositions-PositionReport");
+    tickToConsumer = metrics.roundTrip("MarketDataSnapshotFullRefresh-Subscriber");
+    orderWait = metrics.queueWait("OrderScheduler");
+    riskCheck = metrics.check("PreTradeRisk");
+    callbacks = createCallbackDispatcher(metrics.queueWait("Callbacks"));
+    // orders waiting for their session's rate limit, across every session
+    metrics.setQueuedOrders(() ->
+    {
+      long queued = 0;
+      for (SessionContext context : sessions.values())
+        queued += context.orderScheduler.getQueued();
+      return queued;
+    });
+    // orders refused by the pre-trade limits, across every session
+    metrics.setRejectedOrders(() ->
+    {
+      long rejected = 0;
+      for (SessionContext context : sessions.values())
+        rejected += context.risk.getRejected();
+      return rejected;
+    });
+    // requests sent and still waiting for their response, across every session
+    metrics.setPendingRequests(() ->
+    {
+      long pending = 0;
+      for (SessionContext context : sessions.values())
+        pending += context.collateralRequests.size() + context.orderRequests.size() + context.positionRequests.size();
+      return pending;
+    });
+  }
+  
+  /**
+   * Create the dispatcher of inbound messages from the settings, in [default]:
+   *   CallbackModel=    INLINE (the default) to handle messages on the QuickFIX/J thread, EXECUTOR to
+   *                     queue them for a pool of threads, VIRTUAL to queue them for virtual threads
+   *   CallbackThreads=  the size of the EXECUTOR pool, the number of processors by default
+   *
+   * @param latency - receives the time from the arrival of each message until it was handled
+   */
+  private CallbackDispatcher createCallbackDispatcher(LatencyHistogram latency)
+  {
+    CallbackDispatcher.Model model = CALLBACK_MODEL;
+    int threads = Runtime.getRuntime().availableProcessors();
+    try
+    {
+      if (settings.isSetting("CallbackModel"))
+        model = CallbackDispatcher.Model.valueOf(settings.getString("CallbackModel").trim().toUpperCase());
+      if (settings.isSetting("CallbackThreads"))
+        threads = (int)settings.getLong("CallbackThreads");
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+    }
+    return new CallbackDispatcher(model, threads, (message, sessionID, arrivedNanos) ->
+    {
+      try
+      {
+        // attempt to process the message through the MessageCracker root object
+        // and send the result through the onMessage functions
+        crack(message, sessionID);
+      }
+      catch (Exception e)
+      {
+        // catch and process the unsupported message type, field not found, and
+        // incorrect tag values errors
+      }
+    }, latency);
+  }
+  
+  /**
+   * Retrieve the dispatcher of inbound messages
+   */
+  public CallbackDispatcher getCallbacks() { return callbacks; }
+  
+  /**
+   * Retrieve the latency and throughput counters of the message path
+   */
+  public MessageMetrics getMetrics() { return metrics; }
+  
+  /**
+   * Retrieve the state of the specified session
+   */
+  private SessionContext context(SessionID sessionID)
+  {
+    SessionContext context = sessions.get(sessionID);
+    if (context == null)
+      throw new IllegalArgumentException("Unknown session " + sessionID);
+    return context;
   }
   
   /**
-   * Retrieve and add to map a list of trading accounts under the current login
+   * Retrieve and add to map a list of trading accounts under the session's login
    */
-  private void getAccounts()
+  private void getAccounts(SessionContext context)
   {
     // create a new collateral inquiry request
     CollateralInquiry request = new CollateralInquiry();
     // assign a new id from generated number list to the current request
-    colInquiryID = new CollInquiryID(String.valueOf(nextID()));
+    CollInquiryID colInquiryID = new CollInquiryID(context.ids.next());
+    context.colInquiryID = colInquiryID;
     // assign the inquiry id to the request
     request.set(colInquiryID);
     // set the subscription type to get the snapshot and all updates
     request.set(new SubscriptionRequestType(SubscriptionRequestType.SNAPSHOT_UPDATES));
-    // set the state that the request has not been completed
-    requestCompleted = false;
+    // register the request, publishing the accounts once the last report of the batch arrives
+    context.collateralRequests.register(colInquiryID.getValue()).thenRun(() ->
+    {
+      context.accountsReady.complete(getAccts(context.sessionID));
+      context.bootstrap.reached(SessionBootstrap.Phase.ACCOUNTS);
+      // a restored session already trades on its saved positions, now catch them up with the server
+      if (context.bootstrap.isRestored())
+        reconcileRestoredPositions(context);
+    });
     // send the request to the api
-    send(request);
+    send(request, context.sessionID);
   }
 
+  /**
+   * Refresh the positions of every account of a session restored from a snapshot, and drop the restored
+   * positions no live report has confirmed once every refresh has been answered
+   */
+  private void reconcileRestoredPositions(SessionContext context)
+  {
+    List<CompletableFuture<PositionReport>> refreshes = new ArrayList<CompletableFuture<PositionReport>>();
+    for (CollateralReport account : context.accounts.values())
+      refreshes.add(getPositions(context, account, new PosReqType(PosReqType.POSITIONS)));
+    CompletableFuture.allOf(refreshes.toArray(new CompletableFuture<?>[refreshes.size()])).thenRun(() ->
+    {
+      for (String posID : context.stalePositions)
+      {
+        context.positions.remove(posID);
+        context.book.close(posID);
+        context.stalePositions.remove(posID);
+      }
+    });
+  }
+  
+  /**
+   * Save the accounts, positions, working orders and top of book of every session to StateSnapshotPath,
+   * to be restored from on the next start. Does nothing if StateSnapshotPath is not set.
+   */
+  public void saveState()
+  {
+    if (snapshotPath == null)
+      return;
+    for (SessionContext context : sessions.values())
+    {
+      // nothing has been learned yet, keep the previous snapshot
+      if (context.accounts.isEmpty())
+        continue;
+      try
+      {
+        StateSnapshot snapshot = new StateSnapshot();
+        snapshot.accounts.addAll(context.accounts.values());
+        snapshot.positions.addAll(context.positions.values());
+        // filled, cancelled, rejected and expired orders need no catching up on
+        for (ExecutionReport order : context.orders.values())
+        {
+          if (!isTerminal(order))
+            snapshot.orders.add(order);
+        }
+        TopOfBookCache.Quote quote = new TopOfBookCache.Quote();
+        for (String symbol : context.instruments.getSymbols())
+        {
+          context.instruments.read(symbol, quote);
+          snapshot.quotes.add(new StateSnapshot.Quote(symbol, quote.getBid(), quote.getOffer(), quote.getHigh(),
+            quote.getLow(), quote.getMinQuantity(), quote.getTime()));
+        }
+        snapshot.save(snapshotFile(context.sessionID));
+      }
+      catch (Exception e)
+      {
+        e.printStackTrace();
+      }
+    }
+  }
+  
+  static private boolean isTerminal(ExecutionReport order)
+  {
+    try
+    {
+      char status = order.getOrdStatus().getValue();
+      return status == OrdStatus.FILLED || status == OrdStatus.CANCELED || status == OrdStatus.REJECTED
+        || status == OrdStatus.EXPIRED || status == OrdStatus.DONE_FOR_DAY;
+    }
+    catch (FieldNotFound e)
+    {
+      return false;
+    }
+  }
+  
+  /**
+   * Load the session's snapshot, if there is one no older than StateSnapshotMaxAgeSeconds, so it can
+   * trade as soon as its login is accepted
+   */
+  private void restoreState(SessionContext context)
+  {
+    if (snapshotPath == null)
+      return;
+    try
+    {
+      // parse the saved reports with the session's own dictionary, already loaded by QuickFIX/J
+      Session session = Session.lookupSession(context.sessionID);
+      DataDictionary dictionary = session != null && session.getDataDictionary() != null
+        ? session.getDataDictionary() : new DataDictionary("FIX44.xml");
+      StateSnapshot snapshot = StateSnapshot.load(snapshotFile(context.sessionID), dictionary);
+      if (snapshot == null || snapshot.accounts.isEmpty())
+        return;
+      long age = System.currentTimeMillis() - snapshot.getSavedAt();
+      if (snapshotMaxAgeMillis > 0 && age > snapshotMaxAgeMillis)
+      {
+        System.out.println(String.format("Starting %s cold, its snapshot is %.1f s old", context.sessionID, age / 1e3));
+        return;
+      }
+      for (CollateralReport account : snapshot.accounts)
+      {
+        context.accounts.put(account.getAccount(), account);
+        context.risk.collateral(account.getAccount().getValue(), marginAvailable(account));
+      }
+      for (PositionReport position : snapshot.positions)
+      {
+        String posID = position.getString(FXCMPosID);
+        context.positions.put(posID, position);
+        trackPosition(context, position);
+        context.stalePositions.add(posID);
+      }
+      for (ExecutionReport order : snapshot.orders)
+        context.orders.put(order.getOrderID(), order);
+      for (StateSnapshot.Quote quote : snapshot.quotes)
+        context.instruments.restore(quote.symbol, quote.bid, quote.offer, quote.high, quote.low,
+          quote.minQuantity, quote.time);
+      context.accountsReady.complete(getAccts(context.sessionID));
+      context.bootstrap.restored();
+      System.out.println(String.format("Restored %s from a snapshot of %.1f s ago: %d accounts, %d positions, "
+        + "%d orders, %d instruments", context.sessionID, age / 1e3,
+        snapshot.accounts.size(), snapshot.positions.size(), snapshot.orders.size(), snapshot.quotes.size()));
+    }
+    catch (Exception e)
+    {
+      // start cold
+      e.printStackTrace();
+    }
+  }
+  
+  private File snapshotFile(SessionID sessionID)
+  {
+    return new File(snapshotPath, FileUtil.sessionIdFileName(sessionID) + ".state");
+  }
+  
   /**
    * Force a refresh of current positions, depending on whether they are open () or closed ()
    * during this session
    * 
    * @param account
    * @param positionType
+   * @return - a future completed with the last position report of the batch, or null if there are no positions
    */
-  private void getPositions(CollateralReport account, PosReqType positionType)
+  private CompletableFuture<PositionReport> getPositions(SessionContext context, CollateralReport account,
+    PosReqType positionType)
   {
+    String posReqID = context.ids.next();
+    CompletableFuture<PositionReport> response = context.positionRequests.register(posReqID);
     try {
-      // create a new request for positions
-      RequestForPositions request = new RequestForPositions();
-      // 
-      request.addGroup(account.getGroup(1, new CollateralReport.NoPartyIDs()));
-      // set the subscription to updates to the current snapshot and updates to send refresh messages
-      request.set(new SubscriptionRequestType(SubscriptionRequestType.SNAPSHOT_UPDATES));
-      // set the type of request, PosReqType(PosReqType.TRADES) for closed and PosReqType(PosReqType.POSITIONS) for open
-      request.set(positionType);
-      // set the account to retrieve the positions from 
-      request.set(account.getAccount());
-      // set the time for the transaction to now for the current data
-      request.set(new TransactTime(LocalDateTime.now()));
-      // set the date for the position reports to the current date for fresh data 
-      request.set(new ClearingBusinessDate(getDate()));
-      // set the type of account, by default FXCM has ACCOUNT_IS_CARRIED_ON_NON_CUSTOMER_SIDE_OF_BOOKS_AND_IS_CROSS_MARGINED
-      request.set(new AccountType(AccountType.ACCOUNT_IS_CARRIED_ON_NON_CUSTOMER_SIDE_OF_BOOKS_AND_IS_CROSS_MARGINED));
-      // set a new request for positions id 
-      request.set(new PosReqID(String.valueOf(nextID())));
-      // set the state that the request has not been completed
-      requestCompleted = false;
-      // send the request to the api
-      send(request);
+      // the account's request for positions, with its parties, account, account type, subscription to
+      // updates and clearing date already set; the date never changes since calendarUTC is fixed at start
+      MessageTemplates.Positions request = context.templates.positions(account, getDate());
+      synchronized (request)
+      {
+        // set the type of request, PosReqType.TRADES for closed and PosReqType.POSITIONS for open, the
+        // time for the transaction to now for the current data, and a new request for positions id,
+        // then send the request to the api
+        send(request.set(posReqID, positionType.getValue()), context.sessionID);
+      }
     }
     catch (Exception aException)
     {
       aException.printStackTrace();
+      context.positionRequests.fail(posReqID, aException);
     }
+    return response;
   }
   
   /**
@@ -240,111 +792,52 @@ public class MyApp extends MessageCracker implements Application
   }
   
   /**
-   * Retrieve the next request counter
+   * Retrieve the next request counter of the session
    * 
-   * @return - a Long value for the current request counter
+   * @return - a Long value for the current request counter, unique for the life of the session
    */
-  private synchronized long nextID()
+  long nextID(SessionID sessionID)
   {
-    // increment the local long id counter
-    requestID++;
-    // if the long request id is nearing Long.MAX_VALUE 
-    if (requestID > 0x7FFFFFF0)
-    {
-      // reset back to one
-      requestID = 1;
-    }
-    // return the new request id
-    return requestID;
-  }
-
-  /**
-   * Send the message to the api
-   * 
-   * @param aMessage - generic message to be sent to the api
-   */
-  private void send(Message aMessage)
-  {
-    try
-    {
-      // send the message to the api on the current session id
-      Session.sendToTarget(aMessage, sessionID);
-    }
-    catch (Exception aException)
-    {
-      // notify console if there was any error
-      aException.printStackTrace();
-    } 
+    return context(sessionID).ids.nextValue();
   }
   
   /**
-   * Retrieve current market status. Used as part of the login procedure
+   * Sends a market order to the FIX api, in the opening lane
    * 
-   * @param aSubscriptionRequestType - type of subscription to apply for
+   * @param sessionID - the session of the account
+   * @return - a future completed with the first execution report for the order
    */
-  private void sendMarketDataRequest(char aSubscriptionRequestType)
+  public CompletableFuture<ExecutionReport> sendMarketOrder(SessionID sessionID, Account account, Side side,
+    String symbol)
+  throws FieldNotFound
   {
-    try
-    {
-      SubscriptionRequestType subReqType = new SubscriptionRequestType(aSubscriptionRequestType);
-      MarketDataRequest mdr = new MarketDataRequest();
-      mdr.set(new MDReqID(String.valueOf(nextID())));
-      mdr.set(subReqType);
-      mdr.set(new MarketDepth(1)); //Top of Book is only choice
-      mdr.set(new MDUpdateType(MDUpdateType.FULL_REFRESH));
-      
-      MarketDataRequest.NoMDEntryTypes types = new MarketDataRequest.NoMDEntryTypes();
-      types.set(new MDEntryType(MDEntryType.BID));
-      mdr.addGroup(types);
-      
-      types = new MarketDataRequest.NoMDEntryTypes();
-      types.set(new MDEntryType(MDEntryType.OFFER));
-      mdr.addGroup(types);
-      
-      types = new MarketDataRequest.NoMDEntryTypes();
-      types.set(new MDEntryType(MDEntryType.TRADING_SESSION_HIGH_PRICE));
-      mdr.addGroup(types);
-      
-      types = new MarketDataRequest.NoMDEntryTypes();
-      types.set(new MDEntryType(MDEntryType.TRADING_SESSION_LOW_PRICE));
-      mdr.addGroup(types);
-      
-      int max = sessionStatus.getField(new IntField(NoRelatedSym.FIELD)).getValue();
-      for (int i = 1; i <= max; i++)
-      {
-        SecurityList.NoRelatedSym relatedSym = new SecurityList.NoRelatedSym();
-        SecurityList.NoRelatedSym group = (SecurityList.NoRelatedSym) sessionStatus.getGroup(i,
-          relatedSym);
-        MarketDataRequest.NoRelatedSym symbol = new MarketDataRequest.NoRelatedSym();
-        symbol.set(group.getInstrument());
-        mdr.addGroup(symbol);
-        SecurityStatusReqID id = new SecurityStatusReqID(String.valueOf(nextID()));
-        SecurityStatusRequest ssr = new SecurityStatusRequest(id, subReqType);
-        ssr.set(group.getInstrument());
-        send(ssr);
-      }
-      send(mdr);
-    }
-    catch (FieldNotFound aFieldNotFound)
-    {
-      aFieldNotFound.printStackTrace();
-    }
+    return sendMarketOrder(sessionID, account, side, symbol, OrderScheduler.Lane.OPENING);
   }
   
   /**
    * Sends a market order to the FIX api
+   * 
+   * @param sessionID - the session of the account
+   * @param lane - the priority of the order when orders are being rate limited
+   * @return - a future completed with the first execution report for the order
    */
-  public void sendMarketOrder(Account account, Side side, String symbol)
+  public CompletableFuture<ExecutionReport> sendMarketOrder(SessionID sessionID, Account account, Side side,
+    String symbol, OrderScheduler.Lane lane)
   throws FieldNotFound
   {
+    SessionContext context = context(sessionID);
     // set up a multiplier for the lot size
     int lotValue = 10000;
     // if the symbol to be traded is the US Dollar, the multiplier should be 1
     if(symbol.equalsIgnoreCase("USDOLLAR")) lotValue = 1;
+    // the minimum quantity is NaN when the instrument has never been quoted or did not report it
+    double minQuantity = context.instruments.getMinQuantity(symbol);
+    if (Double.isNaN(minQuantity))
+      throw new FieldNotFound(FXCMMinQuantity);
     // send the market order
-    sendMarketOrder(sessionID, accounts.get(account), side, instruments.get(symbol).getSymbol(),
-      new OrderQty(instruments.get(symbol).getDouble(FXCMMinQuantity) * lotValue),
-      new TimeInForce(TimeInForce.GOOD_TILL_CANCEL));
+    return sendMarketOrder(sessionID, context.accounts.get(account), side, new Symbol(symbol),
+      new OrderQty(minQuantity * lotValue),
+      new TimeInForce(TimeInForce.GOOD_TILL_CANCEL), lane);
   }
   
   /**
@@ -356,32 +849,84 @@ public class MyApp extends MessageCracker implements Application
    * @param symbol - instrument for the order
    * @param orderQty - the lot size or amount of the order
    * @param timeInForce
+   * @return - a future completed with the first execution report for the order
    * @throws FieldNotFound
    */
-  public void sendMarketOrder(SessionID sessionID, CollateralReport account,
+  public CompletableFuture<ExecutionReport> sendMarketOrder(SessionID sessionID, CollateralReport account,
     Side side, Symbol symbol, OrderQty orderQty, TimeInForce timeInForce)
     throws FieldNotFound
   {
-    // create a new order with an new temporary id, Side, new transaction time and set type as OrdType.MARKET
-    NewOrderSingle order = new NewOrderSingle(
-      new ClOrdID(sessionID + "-" + System.currentTimeMillis() + "-" + Long.toString(nextID())),
-      new Side(side.getValue()),
-      new TransactTime(),
-      new OrdType(OrdType.MARKET));
-    // set the account for the order
-    order.set(account.getAccount());
-    // set the symbol
-    order.set(symbol);
-    // set the lot size or amount of the order
-    order.set(orderQty);
-    // set the time in force for the order
-    order.set(timeInForce);
-    // add a text as the secondary temporary order id
-    order.set(new SecondaryClOrdID(FIXAPITEST));
-    // 
-    requestCompleted = false;
-    // send the order to the api
-    send(order, sessionID);
+    return sendMarketOrder(sessionID, account, side, symbol, orderQty, timeInForce, OrderScheduler.Lane.OPENING);
+  }
+  
+  /**
+   * Sends a market order to the FIX api, once the session's pre-trade limits have passed it and its
+   * rate limit lets it through
+   * 
+   * @param lane - the priority of the order, closing orders go out ahead of opening ones
+   * @return - a future completed with the first execution report for the order, or failed if the
+   *   order breaches a limit, with a PreTradeRisk.Rejection, or is dropped before it is sent
+   * @throws FieldNotFound
+   */
+  public CompletableFuture<ExecutionReport> sendMarketOrder(SessionID sessionID, CollateralReport account,
+    Side side, Symbol symbol, OrderQty orderQty, TimeInForce timeInForce, OrderScheduler.Lane lane)
+    throws FieldNotFound
+  {
+    SessionContext context = context(sessionID);
+    char sideValue = side.getValue();
+    double quantity = orderQty.getValue();
+    char timeInForceValue = timeInForce.getValue();
+    // check the order against the limits, valued at the side of the book it would fill at
+    String symbolValue = symbol.getValue();
+    boolean buy = sideValue == Side.BUY;
+    TopOfBookCache.Quote quote = riskQuotes.get();
+    double price = context.instruments.read(symbolValue, quote) ? (buy ? quote.getOffer() : quote.getBid()) : Double.NaN;
+    String accountValue = account.getAccount().getValue();
+    double margin;
+    try
+    {
+      margin = context.risk.check(accountValue, symbolValue, buy, quantity, price, lane == OrderScheduler.Lane.CLOSING);
+    }
+    catch (PreTradeRisk.Rejection e)
+    {
+      return CompletableFuture.failedFuture(e);
+    }
+    String clOrdID = context.ids.next();
+    // the order of the account and symbol, with the account, symbol, OrdType.MARKET and the secondary
+    // temporary order id already set
+    MessageTemplates.Order order = context.templates.order(account, symbolValue);
+    // the order holds what it reserved until its last execution report, the first may only be an ack
+    Reservation reservation = new Reservation(accountValue, symbolValue, buy, quantity, margin);
+    context.reservations.put(clOrdID, reservation);
+    // register the order so the execution report can be matched back to it by ClOrdID
+    CompletableFuture<ExecutionReport> response = context.orderRequests.register(clOrdID);
+    // an order dropped before it was sent, or never answered, gives back what it reserved, and a fill
+    // arriving after that only moves the positions
+    response.whenComplete((report, error) ->
+    {
+      if (error != null && context.reservations.remove(clOrdID, reservation))
+        reservation.settle(context.risk, false);
+    });
+    context.orderScheduler.submit(lane, new OrderScheduler.Task()
+    {
+      public void send()
+      {
+        synchronized (order)
+        {
+          // the round trip starts here, the wait for the rate limit is recorded by the scheduler
+          context.orderRequests.sent(clOrdID);
+          // set the new temporary id, Side, transaction time, lot size and time in force, then send the
+          // order to the api
+          MyApp.this.send(order.set(clOrdID, sideValue, quantity, timeInForceValue), sessionID);
+        }
+      }
+
+      public void reject(Exception cause)
+      {
+        context.orderRequests.fail(clOrdID, cause);
+      }
+    });
+    return response;
   }
 
   /**
@@ -395,8 +940,11 @@ public class MyApp extends MessageCracker implements Application
     // attempt to send an order to the api
     try
     {
+      long start = System.nanoTime();
       // send the order to the api
       Session.sendToTarget(message, sessionID);
+      // count the message and how long the session took to take it
+      metrics.recordOutbound(message, System.nanoTime() - start);
     }
     // capture any errors in execution
     catch (Exception e)
@@ -409,33 +957,36 @@ public class MyApp extends MessageCracker implements Application
   /**
    * Sends the final step in the account login process, the UserRequest sets the
    * pin for the account to establish authenticated status.
+   * 
+   * @param sessionID - the session to log in
    */
-  public void sendUserRequest()
+  public void sendUserRequest(SessionID sessionID)
   {
+    SessionContext context = context(sessionID);
     // create a new user request
     UserRequest ur = new UserRequest();
     // assign a new request id to the user request
-    ur.setString(UserRequestID.FIELD, String.valueOf(nextID()));
+    ur.setString(UserRequestID.FIELD, context.ids.next());
     // apply the username to the user request
-    ur.setString(Username.FIELD, userName);
+    ur.setString(Username.FIELD, context.userName);
     // apply the username to the passwrd request
-    ur.setString(Password.FIELD, userPassword);
+    ur.setString(Password.FIELD, context.userPassword);
     // if the user has a pin assigned
-    if (userPin != null)
+    if (context.userPin != null)
     {
       // create a new group with the custom FXCM fields
       Group params = new Group(FXCMNoParam, FXCMParamName);
       // assign the parameter name as PIN
       params.setString(FXCMParamName, "PIN");
       // assign the value of the PIN as the users pin number
-      params.setString(FXCMParamValue, userPin);
+      params.setString(FXCMParamValue, context.userPin);
       // add the group to the user request
       ur.addGroup(params);
     }
     // set the request type to the FXCM custom value REQUEST_LIST_OF_TRADING_SESSIONS
     ur.setInt(UserRequestType.FIELD, REQUEST_LIST_OF_TRADING_SESSIONS);
     // sent the request to the api
-    send(ur);
+    send(ur, sessionID);
   }
 
 
@@ -447,16 +998,13 @@ public class MyApp extends MessageCracker implements Application
    */
   public void fromAdmin(Message aMessage, SessionID sessionID)
   {
-    try {
-      // attempt to process the message through the MessageCracker root object
-      // and send the result through the onMessage functions
-      crack(aMessage, sessionID);
-    }
-    catch (Exception e)
-    {
-      // catch and process the unsupported message type, field not found, and
-      // incorrect tag values errors
-    }
+    long start = System.nanoTime();
+    if (recorder != null)
+      recorder.record(sessionID, MessageRecorder.ADMIN, raw(aMessage), start);
+    // handle the message, or queue it behind the session's earlier messages
+    callbacks.dispatch(aMessage, sessionID, start);
+    // count the message and how long it held the callback thread
+    metrics.recordInbound(aMessage, System.nanoTime() - start);
   }
 
   /**
@@ -472,17 +1020,92 @@ public class MyApp extends MessageCracker implements Application
    */
   public void fromApp(Message aMessage, SessionID sessionID)
   {
+    long start = System.nanoTime();
+    if (recorder != null)
+      recorder.record(sessionID, MessageRecorder.APP, raw(aMessage), start);
+    // market data is applied here, keeping the callback thread the only writer of each session's feed,
+    // and costs less than queueing it would
+    if (aMessage instanceof MarketDataSnapshotFullRefresh)
+      onMessage((MarketDataSnapshotFullRefresh)aMessage, sessionID);
+    // handle anything else, or queue it behind the session's earlier messages
+    else
+      callbacks.dispatch(aMessage, sessionID, start);
+    // count the message and how long it held the callback thread
+    metrics.recordInbound(aMessage, System.nanoTime() - start);
+  }
+  
+  /**
+   * Retrieve the text a message was parsed from, rendering it only if it was built rather than received
+   */
+  static private String raw(Message message)
+  {
+    String raw = message.toRawString();
+    return raw != null ? raw : message.toString();
+  }
+  
+  /**
+   * Stop capturing inbound messages, writing out the ones still queued
+   *
+   * @return - the capture file, or null if messages were not being captured
+   */
+  public File stopCapture()
+  {
+    if (recorder == null)
+      return null;
+    recorder.close();
+    System.out.println("Captured " + recorder.getRecorded() + " inbound messages to " + recorder.getFile());
+    return recorder.getFile();
+  }
+  
+  /**
+   * Fast path for raw inbound application messages, applying the high volume ones to the local state
+   * straight from the FIX text without parsing them into a Message. Handles market data snapshots and
+   * unsolicited closed position reports; anything else is left for fromApp() and full cracking.
+   * 
+   * @param raw - the raw message, with SOH delimiters
+   * @param sessionID - the session the message arrived on
+   * @return - true if the message was handled, false if it must be parsed and passed to fromApp()
+   */
+  public boolean fromRaw(CharSequence raw, SessionID sessionID)
+  {
+    long start = System.nanoTime();
+    FixFieldScanner scanner = scanners.get().wrap(raw);
     try
     {
-      // attempt to process the message through the MessageCracker root object
-      // and send the result through the onMessage functions
-      crack(aMessage, sessionID);
+      if (scanner.valueEquals(MsgType.FIELD, MarketDataSnapshotFullRefresh.MSGTYPE))
+      {
+        // update the instrument's top of book in place, and let its subscribers know
+        SessionContext context = context(sessionID);
+        int slot = context.instruments.update(scanner, System.currentTimeMillis());
+        if (slot < 0)
+          return false;
+        context.marketData.publish(slot, start);
+        markPositions(context, slot);
+        context.bootstrap.quoted(context.instruments.size());
+        metrics.recordInbound(MarketDataSnapshotFullRefresh.MSGTYPE, System.nanoTime() - start);
+        return true;
+      }
+      // a closed position must not overtake the queued reports that opened it, so only remove it here
+      // when reports are handled on this thread
+      if (callbacks.isInline() && scanner.valueEquals(MsgType.FIELD, PositionReport.MSGTYPE)
+        && scanner.isSet(PosReqType.FIELD)
+        && scanner.getChar(PosReqType.FIELD) == '0' + PosReqType.TRADES && scanner.isSet(FXCMPosID)
+        && !scanner.isSet(PosReqID.FIELD))
+      {
+        // an unsolicited report of a closed position, remove it from the positions list
+        SessionContext context = context(sessionID);
+        String posID = scanner.getString(FXCMPosID);
+        context.positions.remove(posID);
+        context.book.close(posID);
+        metrics.recordInbound(PositionReport.MSGTYPE, System.nanoTime() - start);
+        return true;
+      }
     }
     catch (Exception e)
     {
-      // catch and process the unsupported message type, field not found, and
-      // incorrect tag values errors
+      // a field the fast path relies on is missing or malformed, leave the message to full cracking
     }
+    return false;
   }
   
   /**
@@ -512,8 +1135,86 @@ public class MyApp extends MessageCracker implements Application
    */
   public void onCreate(SessionID sessionID)
   {
-    // the session has been created, but no login yet, so we save the sessionID
-    this.sessionID = sessionID;
+    // the session has been created, but no login yet, so we set up its state
+    // ids carry the start time of the run and the session's index, so neither restarts nor other
+    // sessions of this process reissue them
+    IdGenerator ids = new IdGenerator(idEpoch, Integer.toString(sessionCount.getAndIncrement(), Character.MAX_RADIX));
+    sessions.put(sessionID, new SessionContext(sessionID, settings, ids, new PositionReconciler(reconcileScheduler,
+      reconcileWindowMillis, reconcileMaxFills, account -> getPositions(sessionID, account)),
+      marketDataRingSize, tickToConsumer, createOrderScheduler(sessionID), createPreTradeRisk(sessionID),
+      message -> send(message, sessionID)));
+    restoreState(context(sessionID));
+  }
+  
+  /**
+   * Create the order scheduler of a session from its settings, per session or in [default]:
+   *   OrderRatePerSecond=  the most orders sent per second over time, 0 (the default) for no limit
+   *   OrderBurst=          the most orders sent back to back, the rate by default
+   *   OrderBatchSize=      the most orders sent per wake up of the scheduler, 16 by default
+   */
+  private OrderScheduler createOrderScheduler(SessionID sessionID)
+  {
+    double rate = 0;
+    int burst = 1;
+    int batchSize = ORDER_BATCH_SIZE;
+    try
+    {
+      rate = settings.isSetting(sessionID, "OrderRatePerSecond") ? settings.getDouble(sessionID, "OrderRatePerSecond") : 0;
+      burst = settings.isSetting(sessionID, "OrderBurst") ? (int)settings.getLong(sessionID, "OrderBurst")
+        : (int)Math.ceil(rate);
+      batchSize = settings.isSetting(sessionID, "OrderBatchSize") ? (int)settings.getLong(sessionID, "OrderBatchSize")
+        : ORDER_BATCH_SIZE;
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+    }
+    return new OrderScheduler("order-scheduler-" + sessionID.getSenderCompID(), rate, burst, batchSize, orderWait);
+  }
+  
+  /**
+   * Create the pre-trade limits of a session from the settings, in its [session] or [default] section,
+   * each 0 (the default) for no limit:
+   *   RiskMaxOrderQuantity=    the most an order may be for
+   *   RiskMaxSymbolNotional=   the most the session may be exposed to a symbol, in its quote currency
+   *   RiskMarginRatio=         the share of an order's notional it takes in margin, checked against the
+   *                            margin its account has available
+   *   RiskMaxOrdersPerSecond=  the most orders accepted per second
+   */
+  private PreTradeRisk createPreTradeRisk(SessionID sessionID)
+  {
+    double maxQuantity = 0;
+    double maxNotional = 0;
+    double marginRatio = 0;
+    long maxRate = 0;
+    try
+    {
+      maxQuantity = settings.isSetting(sessionID, "RiskMaxOrderQuantity") ? settings.getDouble(sessionID, "RiskMaxOrderQuantity") : 0;
+      maxNotional = settings.isSetting(sessionID, "RiskMaxSymbolNotional") ? settings.getDouble(sessionID, "RiskMaxSymbolNotional") : 0;
+      marginRatio = settings.isSetting(sessionID, "RiskMarginRatio") ? settings.getDouble(sessionID, "RiskMarginRatio") : 0;
+      maxRate = settings.isSetting(sessionID, "RiskMaxOrdersPerSecond") ? settings.getLong(sessionID, "RiskMaxOrdersPerSecond") : 0;
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+    }
+    return new PreTradeRisk(maxQuantity, maxNotional, marginRatio, maxRate, riskCheck);
+  }
+  
+  /**
+   * Retrieve the margin an account has available from its collateral report: the margin excess when
+   * reported, otherwise the cash outstanding less the margin used
+   *
+   * @return - the margin available, NaN if the report carries neither
+   */
+  static private double marginAvailable(CollateralReport report) throws FieldNotFound
+  {
+    if (report.isSetField(MarginExcess.FIELD))
+      return report.getDouble(MarginExcess.FIELD);
+    if (!report.isSetField(CashOutstanding.FIELD))
+      return Double.NaN;
+    return report.getDouble(CashOutstanding.FIELD)
+      - (report.isSetField(FXCMUsedMargin) ? report.getDouble(FXCMUsedMargin) : 0);
   }
   
   /**
@@ -523,12 +1224,14 @@ public class MyApp extends MessageCracker implements Application
    */
   public void onLogon(SessionID sessionID)
   {
+    SessionContext context = context(sessionID);
     // process message that the sessionID has started login process
-    System.out.println("Login begun for " + this.userName);
+    System.out.println("Login begun for " + context.userName);
     // set the time that the current logged in session started
-    sessionStart = new Date();
+    context.sessionStart = new Date();
+    context.bootstrap.reached(SessionBootstrap.Phase.LOGGED_ON);
     // configure and sent a UserRequest to complete login procedure
-    sendUserRequest();
+    sendUserRequest(sessionID);
   }
   
   /**
@@ -537,8 +1240,22 @@ public class MyApp extends MessageCracker implements Application
    */
   public void onLogout(SessionID sessionID)
   {
+    SessionContext context = context(sessionID);
     // process message that the sessionID has been logged out
-    System.out.println("Logged out " + this.userName);
+    System.out.println("Logged out " + context.userName);
+    // nothing pending will be answered on this session anymore, so release anyone waiting on it
+    Exception loggedOut = new Exception("Logged out " + sessionID);
+    context.collateralRequests.failAll(loggedOut);
+    // orders still queued would go out on the next login with their futures already failed, so drop them
+    context.orderScheduler.clear(loggedOut);
+    context.orderRequests.failAll(loggedOut);
+    context.positionRequests.failAll(loggedOut);
+    context.reconciler.clear();
+    // the accounts are reported again on the next login
+    context.templates.clear();
+    // the market data subscriptions end with the session, the wanted symbols are subscribed to again
+    // with the next session status
+    context.subscriptions.clear();
   }
 //END SECTION - quickfix.Application implementation
 
@@ -553,14 +1270,18 @@ public class MyApp extends MessageCracker implements Application
     // check to see if the credentials used have allowed the first step to login
     if (response.getInt(UserStatus.FIELD) == UserStatus.LOGGED_IN)
     {
+      SessionContext context = context(sessionID);
+      context.bootstrap.reached(SessionBootstrap.Phase.USER_LOGGED_IN);
       // create a new trading session request
       TradingSessionStatusRequest msg = new TradingSessionStatusRequest();
       // set the request id to the next request counter
-      msg.set(new TradSesReqID("TSSR REQUEST ID " + nextID()));
+      msg.set(new TradSesReqID("TSSR REQUEST ID " + context.ids.next()));
       // set the subscription type to current snapshot 
       msg.set(new SubscriptionRequestType(SubscriptionRequestType.SNAPSHOT_UPDATES));
       // send the message to the api
-      send(msg);
+      send(msg, sessionID);
+      // the accounts only depend on the login, so request and collect them alongside the session status
+      getAccounts(context);
     }
   }
 
@@ -571,16 +1292,16 @@ public class MyApp extends MessageCracker implements Application
   public void onMessage(CollateralReport report, SessionID sessionID)
      throws FieldNotFound
   {
+    SessionContext context = context(sessionID);
     try
     {
-      // wait until there is free access to add or modify the accounts map
-      synchronized (accounts)
-      {
-        // add the account to the map of reports, replacing with the newest collateral report
-        accounts.put(report.getAccount(), report);
-      }
-      // set the flag for whether the request is completed if a batch of collateral reports were requested
-      requestCompleted = report.getBoolean(FXCMLastReportRequested);
+      // add the account to the map of reports, replacing with the newest collateral report
+      context.accounts.put(report.getAccount(), report);
+      // the margin it reports available is what the account's orders are checked against from now on
+      context.risk.collateral(report.getAccount().getValue(), marginAvailable(report));
+      // complete the inquiry once the last report of the requested batch arrives
+      if (report.getBoolean(FXCMLastReportRequested))
+        collateralRoundTrip.record(context.collateralRequests.complete(report.getCollInquiryID().getValue(), report));
     }
     catch(Exception e) 
     {
@@ -589,19 +1310,18 @@ public class MyApp extends MessageCracker implements Application
   }
   
   /**
-   * Process market data snapshots, taking from each message the instrument update and adding to the 
-   * internal map
+   * Process market data snapshots, applying each message's top of book to the instrument cache
    */
   public void onMessage(MarketDataSnapshotFullRefresh snapshot, SessionID sessionID)
   {
     try
     {
-      // wait until there is free access to add or modify the instruments map
-      synchronized(instruments)
-      {
-        // add the instrument and the market snapshot to the internal map
-        instruments.put(snapshot.getInstrument().getSymbol().getValue(), snapshot);
-      }
+      // update the instrument's top of book in place, and let its subscribers know
+      SessionContext context = context(sessionID);
+      int slot = context.instruments.update(snapshot, System.currentTimeMillis());
+      context.marketData.publish(slot, System.nanoTime());
+      markPositions(context, slot);
+      context.bootstrap.quoted(context.instruments.size());
     }
     catch (Exception e)
     {
@@ -615,15 +1335,136 @@ public class MyApp extends MessageCracker implements Application
   public void onMessage(ExecutionReport report, SessionID sessionID)
      throws FieldNotFound
   {
-    // wait until there is free access to add or modify the orders map
-    synchronized (orders)
+    SessionContext context = context(sessionID);
+    // add the order to the map of orders, replacing with the newest execution report
+    context.orders.put(report.getOrderID(), report);
+    // apply the fill to the local positions now, and have them reconciled with the server in a batch
+    if (applyFill(context, report))
+      context.reconciler.fillApplied(report.getAccount());
+    // settle what the order holds of the risk limits as it fills and once it is done
+    settleReservation(context, report);
+    // complete the order that this report answers
+    orderRoundTrip.record(context.orderRequests.complete(report.getClOrdID().getValue(), report));
+  }
+  
+  /**
+   * Hand each fill of an order over to the positions, and settle the rest of the order once a report
+   * says it is done: filled, or rejected, cancelled, expired or done for the day without filling
+   * 
+   * @param context - the session of the order
+   * @param report - the execution report
+   */
+  static private void settleReservation(SessionContext context, ExecutionReport report)
+     throws FieldNotFound
+  {
+    String clOrdID = report.getClOrdID().getValue();
+    Reservation reservation = context.reservations.get(clOrdID);
+    if (reservation == null)
+      return;
+    if (report.isSetExecType() && report.getExecType().valueEquals(ExecType.TRADE) && report.isSetLastQty())
+      reservation.filled(context.risk, report.getLastQty().getValue());
+    if (isTerminal(report) && context.reservations.remove(clOrdID, reservation))
+      reservation.settle(context.risk, report.getOrdStatus().valueEquals(OrdStatus.FILLED));
+  }
+  
+  /**
+   * Apply a fill to the local positions ahead of the next position report for its account. A fill on a
+   * ticket opened by another order closes that ticket, any other fill opens or updates its own ticket.
+   * 
+   * @param context - the session of the fill
+   * @param report - the execution report
+   * @return - true if the report was a fill
+   */
+  private boolean applyFill(SessionContext context, ExecutionReport report)
+     throws FieldNotFound
+  {
+    // only fills move positions, and FXCM names the ticket that moved
+    if (!report.isSetLastQty() || report.getLastQty().getValue() <= 0 || !report.isSetField(FXCMPosID))
+      return false;
+    String posID = report.getString(FXCMPosID);
+    String orderID = report.getOrderID().getValue();
+    PositionReport open = context.positions.get(posID);
+    if (open != null && open.isSetField(FXCMOpenOrderID) && !open.getString(FXCMOpenOrderID).equals(orderID))
     {
-      // add the order to the map of orders, replacing with the newest execution report
-      orders.put(report.getOrderID(), report);
+      // the ticket was opened by an earlier order, so this fill closed it
+      context.positions.remove(posID);
+      context.book.close(posID);
+      return true;
     }
-    // capture any new positions that may have executed because of this order
-    getPositions(report.getAccount());
-    requestCompleted = true;
+    // stand in for the position report until the reconciliation replaces it
+    PositionReport position = new PositionReport();
+    // like a received report, so a saved copy parses back
+    position.getHeader().setString(BeginString.FIELD, context.sessionID.getBeginString());
+    position.set(report.getAccount());
+    position.set(report.getSymbol());
+    position.set(new PosReqType(PosReqType.POSITIONS));
+    position.set(new SettlPrice(report.getAvgPx().getValue()));
+    PositionReport.NoPositions qty = new PositionReport.NoPositions();
+    qty.set(new PosType(PosType.TRANSACTION_QUANTITY));
+    if (report.getSide().valueEquals(Side.BUY))
+      qty.set(new LongQty(report.getCumQty().getValue()));
+    else
+      qty.set(new ShortQty(report.getCumQty().getValue()));
+    position.addGroup(qty);
+    position.setString(FXCMOpenOrderID, orderID);
+    position.setString(ClOrdID.FIELD, report.getClOrdID().getValue());
+    if (report.isSetSecondaryClOrdID())
+      position.setString(SecondaryClOrdID.FIELD, report.getSecondaryClOrdID().getValue());
+    position.setString(FXCMPosID, posID);
+    context.positions.put(posID, position);
+    context.book.open(posID, report.getAccount().getValue(), report.getSymbol().getValue(),
+      report.getSide().valueEquals(Side.BUY), report.getCumQty().getValue(), report.getAvgPx().getValue());
+    return true;
+  }
+  
+  /**
+   * Apply a position report to the position book, opening or closing its ticket
+   * 
+   * @param context - the session of the report
+   * @param report - the position report
+   */
+  private void trackPosition(SessionContext context, PositionReport report)
+     throws FieldNotFound
+  {
+    String posID = report.getString(FXCMPosID);
+    if (report.getPosReqType().valueEquals(PosReqType.TRADES))
+    {
+      context.book.close(posID);
+      return;
+    }
+    // the size of the ticket is its long or its short quantity, whichever is set
+    boolean buy = true;
+    double quantity = 0;
+    PositionReport.NoPositions group = new PositionReport.NoPositions();
+    int groups = report.isSetField(NoPositions.FIELD) ? report.getInt(NoPositions.FIELD) : 0;
+    for (int i = 1; i <= groups; i++)
+    {
+      report.getGroup(i, group);
+      if (group.isSetLongQty() && group.getLongQty().getValue() > 0)
+      {
+        quantity = group.getLongQty().getValue();
+        buy = true;
+      }
+      else if (group.isSetShortQty() && group.getShortQty().getValue() > 0)
+      {
+        quantity = group.getShortQty().getValue();
+        buy = false;
+      }
+    }
+    context.book.open(posID, report.getAccount().getValue(), report.getSymbol().getValue(), buy, quantity,
+      report.isSetSettlPrice() ? report.getSettlPrice().getValue() : 0);
+  }
+  
+  /**
+   * Revalue the positions of an instrument at the top of book it has just been updated to
+   * 
+   * @param context - the session of the instrument
+   * @param slot - the instrument's slot in the session's cache
+   */
+  private void markPositions(SessionContext context, int slot)
+  {
+    context.instruments.read(slot, context.mark);
+    context.book.mark(context.instruments.getSymbol(slot), context.mark.getBid(), context.mark.getOffer());
   }
   
   /**
@@ -631,35 +1472,66 @@ public class MyApp extends MessageCracker implements Application
    */
   public void onMessage(PositionReport report, SessionID sessionID)
   {
+    SessionContext context = context(sessionID);
     try
     {
+      // the server has reported on the position, so it is no longer only known from a snapshot
+      if (!context.stalePositions.isEmpty())
+        context.stalePositions.remove(report.getString(FXCMPosID));
+      // keep the net position and P&L of the account and symbol up to date
+      trackPosition(context, report);
       // if the position report is about a position that is closed
       if(report.getPosReqType().valueEquals(PosReqType.TRADES))
       {
-        // wait until there is free access to add or modify the positions map
-        synchronized(positions)
-        {
-          // remove it from the positions list
-          positions.remove(report.getString(FXCMPosID));
-        }
+        // remove it from the positions list
+        context.positions.remove(report.getString(FXCMPosID));
       }
       // otherwise
       else
       {
-        // wait until there is free access to add or modify the positions map
-        synchronized(positions)
-        {
-          // add it to the positions list
-          positions.put(report.getString(FXCMPosID), report);
-        }
+        // add it to the positions list
+        context.positions.put(report.getString(FXCMPosID), report);
       }
     }
     catch (Exception e)
     {
       // catch and process the field not found error
     }
-    // set the state that the request has not been completed
-    requestCompleted = true;
+    try
+    {
+      // complete the request for positions once the last report of the requested batch arrives
+      if (report.isSetField(FXCMLastReportRequested) && report.getBoolean(FXCMLastReportRequested))
+        positionRoundTrip.record(context.positionRequests.complete(report.getPosReqID().getValue(), report));
+    }
+    catch (Exception e)
+    {
+      // unsolicited updates carry no request id and do not complete anything
+    }
+  }
+  
+  /**
+   * Process the acknowledgement to a request for positions, completing the request straight away
+   * when no position reports will follow
+   */
+  public void onMessage(RequestForPositionsAck ack, SessionID sessionID)
+     throws FieldNotFound
+  {
+    if (!ack.isSetPosReqID())
+      return;
+    SessionContext context = context(sessionID);
+    String posReqID = ack.getPosReqID().getValue();
+    // there are no positions for the request, so no reports will follow
+    if (ack.getPosReqResult().valueEquals(PosReqResult.NO_POSITIONS_FOUND_THAT_MATCH_CRITERIA)
+      || (ack.isSetTotalNumPosReports() && ack.getTotalNumPosReports().valueEquals(0)))
+    {
+      positionRoundTrip.record(context.positionRequests.complete(posReqID, null));
+    }
+    // the request was rejected
+    else if (!ack.getPosReqResult().valueEquals(PosReqResult.VALID_REQUEST))
+    {
+      context.positionRequests.fail(posReqID, new Exception("Request for positions " + posReqID
+        + " rejected with result " + ack.getPosReqResult().getValue()));
+    }
   }
 
   /**
@@ -667,20 +1539,22 @@ public class MyApp extends MessageCracker implements Application
    */
   public void onMessage(TradingSessionStatus status, SessionID sessionID)
   {
+    SessionContext context = context(sessionID);
     // take the received session status as the internal status
-    sessionStatus = status;
+    context.sessionStatus = status;
     // assuming the login process is complete
-    System.out.println("Login complete for " + this.userName);
+    System.out.println("Login complete for " + context.userName);
+    context.bootstrap.reached(SessionBootstrap.Phase.SESSION_STATUS);
     try
     {
-      // request and collect all accounts under login
-      getAccounts();
-      // request update on the market data, subscribing to all updates
-      sendMarketDataRequest(SubscriptionRequestType.SNAPSHOT_UPDATES);
+      // subscribe to the market data of the instruments traded, and consider the session ready once
+      // every one of them has been quoted
+      context.bootstrap.expectQuotes(context.subscriptions.listed(status));
     }
     catch (Exception e)
     {
       // catch and process field not found errors
+      e.printStackTrace();
     }
   }
 //END SECTION - extension of quickfix.fix44.MessageCracker
@@ -0,0 +1,139 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import quickfix.fix44.ExecutionReport;
+
+/**
+ * Streams orders out back-to-back while keeping at most a fixed number of them waiting for an
+ * execution report. A window of one gives the original one-order-per-round-trip lockstep.
+ */
+public class OrderPipeline
+{
+  /**
+   * Sends a single order, returning the future of its execution report
+   */
+  public interface OrderSender
+  {
+    CompletableFuture<ExecutionReport> send() throws Exception;
+  }
+
+  private final int maxInFlight;
+  private final long ackTimeoutNanos;
+  private final Semaphore window;
+
+  private final AtomicLong sent = new AtomicLong();
+  private final AtomicLong acked = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong totalAckNanos = new AtomicLong();
+  private final LongAccumulator maxAckNanos = new LongAccumulator(Math::max, 0);
+  private volatile long startNanos;
+  private volatile long endNanos;
+
+  /**
+   * @param maxInFlight - the most orders that may be waiting for an execution report at once
+   * @param ackTimeout - how long an order may wait for its execution report before its slot is released
+   * @param unit - the unit of the ack timeout
+   */
+  public OrderPipeline(int maxInFlight, long ackTimeout, TimeUnit unit)
+  {
+    if (maxInFlight < 1)
+      throw new IllegalArgumentException("MaxInFlightOrders must be at least 1, was " + maxInFlight);
+    this.maxInFlight = maxInFlight;
+    this.ackTimeoutNanos = unit.toNanos(ackTimeout);
+    this.window = new Semaphore(maxInFlight);
+  }
+
+  /**
+   * Send an order once there is room in the window. The order's slot is released when its
+   * execution report arrives, or when it times out.
+   *
+   * @param sender - sends the order
+   * @return - the future of the order's execution report
+   * @throws Exception - if the order could not be sent
+   */
+  public CompletableFuture<ExecutionReport> submit(OrderSender sender) throws Exception
+  {
+    // wait for a free slot in the window
+    window.acquire();
+    long sentNanos = System.nanoTime();
+    if (sent.getAndIncrement() == 0)
+      startNanos = sentNanos;
+    CompletableFuture<ExecutionReport> ack;
+    try
+    {
+      ack = sender.send();
+    }
+    catch (Exception e)
+    {
+      // the order never went out, so give its slot back
+      failed.incrementAndGet();
+      window.release();
+      throw e;
+    }
+    // reconcile the acknowledgement asynchronously, on whichever thread delivers it; the timeout fails the
+    // order's own future, which takes it out of the session's pending orders and gives back what it
+    // reserved of the risk limits, so a report arriving later only moves the positions
+    return ack.orTimeout(ackTimeoutNanos, TimeUnit.NANOSECONDS).whenComplete((report, error) ->
+    {
+      long now = System.nanoTime();
+      if (error == null)
+      {
+        long latency = now - sentNanos;
+        acked.incrementAndGet();
+        totalAckNanos.addAndGet(latency);
+        maxAckNanos.accumulate(latency);
+      }
+      else
+      {
+        failed.incrementAndGet();
+      }
+      endNanos = now;
+      window.release();
+    });
+  }
+
+  /**
+   * Wait until every order sent has been acknowledged or has timed out
+   *
+   * @param timeout - the longest to wait
+   * @param unit - the unit of the timeout
+   * @return - true if the window drained in time
+   * @throws InterruptedException
+   */
+  public boolean drain(long timeout, TimeUnit unit) throws InterruptedException
+  {
+    if (!window.tryAcquire(maxInFlight, timeout, unit))
+      return false;
+    window.release(maxInFlight);
+    return true;
+  }
+
+  /**
+   * Retrieve the number of orders acknowledged so far
+   */
+  public long getAcked()
+  {
+    return acked.get();
+  }
+
+  /**
+   * Retrieve a one line summary of the throughput and acknowledgement latency so far
+   *
+   * @param phase - name of the phase of trading being reported
+   * @return - the summary
+   */
+  public String report(String phase)
+  {
+    String mode = maxInFlight == 1 ? "lockstep" : "pipelined(" + maxInFlight + ")";
+    long acks = acked.get();
+    long elapsedNanos = Math.max(endNanos - startNanos, 1);
+    double ordersPerSecond = acks * 1e9 / elapsedNanos;
+    double meanAckMicros = acks == 0 ? 0 : totalAckNanos.get() / 1e3 / acks;
+    return String.format("%s [%s]: %d sent, %d acked, %d failed in %.1f ms, %.1f orders/s, ack mean %.1f us, max %.1f us",
+      phase, mode, sent.get(), acks, failed.get(), elapsedNanos / 1e6, ordersPerSecond,
+      meanAckMicros, maxAckNanos.get() / 1e3);
+  }
+}
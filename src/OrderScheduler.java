@@ -0,0 +1,289 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Paces the orders of a session to the venue's rate limit
+ *
+ * Orders are queued in priority lanes and sent by one dispatcher thread as a token bucket allows: the
+ * bucket refills at the configured rate up to a burst, and every order spends one token. Each time the
+ * dispatcher wakes it takes as many orders as it has tokens for, up to a batch size, closing orders
+ * ahead of opening ones, and sends them back to back. How long orders waited and how many are queued
+ * are kept so the rate and burst can be tuned against the venue's limits.
+ *
+ * With no rate limit, orders are sent straight away on the caller's thread.
+ */
+public class OrderScheduler
+{
+  /**
+   * The lanes orders are queued in, highest priority first
+   */
+  public enum Lane
+  {
+    // orders that reduce exposure, sent ahead of everything else
+    CLOSING,
+    // orders that open positions
+    OPENING
+  }
+
+  /**
+   * An order waiting for its turn
+   */
+  public interface Task
+  {
+    /**
+     * Send the order, on the dispatcher thread
+     */
+    void send();
+
+    /**
+     * The order will not be sent
+     *
+     * @param cause - why
+     */
+    void reject(Exception cause);
+  }
+
+  static private class Entry
+  {
+    final Task task;
+    final long queuedNanos;
+
+    Entry(Task task, long queuedNanos)
+    {
+      this.task = task;
+      this.queuedNanos = queuedNanos;
+    }
+  }
+
+  private final double tokensPerNano;
+  private final double burst;
+  private final int batchSize;
+  private final LatencyHistogram wait;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  // guarded by lock
+  private final ArrayDeque<Entry>[] lanes;
+  private double tokens;
+  private long refilledNanos;
+  private boolean closed;
+  private final Thread dispatcher;
+
+  private final AtomicLong queued = new AtomicLong();
+  private final AtomicLong sent = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong throttled = new AtomicLong();
+
+  /**
+   * @param name - the name of the dispatcher thread
+   * @param ratePerSecond - the most orders sent per second over time, 0 or less for no limit
+   * @param burst - the most orders sent back to back after a quiet spell
+   * @param batchSize - the most orders sent per wake up of the dispatcher
+   * @param wait - receives how long each order was queued, or null
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public OrderScheduler(String name, double ratePerSecond, int burst, int batchSize, LatencyHistogram wait)
+  {
+    this.tokensPerNano = ratePerSecond / 1e9;
+    this.burst = Math.max(1, burst);
+    this.batchSize = Math.max(1, batchSize);
+    this.wait = wait;
+    lanes = new ArrayDeque[Lane.values().length];
+    for (int i = 0; i < lanes.length; i++)
+      lanes[i] = new ArrayDeque<Entry>();
+    tokens = this.burst;
+    refilledNanos = System.nanoTime();
+    if (ratePerSecond > 0)
+    {
+      dispatcher = new Thread(this::dispatch, name);
+      dispatcher.setDaemon(true);
+      dispatcher.start();
+    }
+    else
+      dispatcher = null;
+  }
+
+  /**
+   * Queue an order, or send it now if there is no rate limit
+   *
+   * @param lane - the priority of the order
+   * @param task - sends the order
+   */
+  public void submit(Lane lane, Task task)
+  {
+    if (dispatcher == null)
+    {
+      task.send();
+      sent.incrementAndGet();
+      return;
+    }
+    lock.lock();
+    try
+    {
+      if (closed)
+      {
+        task.reject(new IllegalStateException("Order scheduler closed"));
+        return;
+      }
+      lanes[lane.ordinal()].addLast(new Entry(task, System.nanoTime()));
+      queued.incrementAndGet();
+      changed.signal();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Drop every queued order, rejecting it, for example when the session logs out
+   *
+   * @param cause - why the orders are dropped
+   * @return - the number of orders dropped
+   */
+  public int clear(Exception cause)
+  {
+    ArrayDeque<Entry> dropped = new ArrayDeque<Entry>();
+    lock.lock();
+    try
+    {
+      for (ArrayDeque<Entry> lane : lanes)
+      {
+        dropped.addAll(lane);
+        lane.clear();
+      }
+      queued.addAndGet(-dropped.size());
+    }
+    finally
+    {
+      lock.unlock();
+    }
+    for (Entry entry : dropped)
+      entry.task.reject(cause);
+    return dropped.size();
+  }
+
+  /**
+   * Stop the dispatcher, rejecting whatever is still queued
+   */
+  public void close()
+  {
+    lock.lock();
+    try
+    {
+      closed = true;
+      changed.signal();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+    clear(new IllegalStateException("Order scheduler closed"));
+  }
+
+  private void dispatch()
+  {
+    Entry[] batch = new Entry[batchSize];
+    while (true)
+    {
+      int count = 0;
+      lock.lock();
+      try
+      {
+        while (!closed && queued.get() == 0)
+          changed.awaitUninterruptibly();
+        if (closed)
+          return;
+        // refill the bucket for the time since it was last topped up
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledNanos) * tokensPerNano);
+        refilledNanos = now;
+        if (tokens < 1)
+        {
+          // out of tokens, sleep until the next one is due
+          throttled.incrementAndGet();
+          changed.awaitNanos((long)Math.ceil((1 - tokens) / tokensPerNano));
+          continue;
+        }
+        int allowed = (int)Math.min(tokens, batchSize);
+        for (ArrayDeque<Entry> lane : lanes)
+        {
+          while (count < allowed && !lane.isEmpty())
+            batch[count++] = lane.pollFirst();
+        }
+        tokens -= count;
+        queued.addAndGet(-count);
+      }
+      catch (InterruptedException e)
+      {
+        return;
+      }
+      finally
+      {
+        lock.unlock();
+      }
+      // send outside the lock, so submitters never wait on the session
+      long start = System.nanoTime();
+      for (int i = 0; i < count; i++)
+      {
+        Entry entry = batch[i];
+        batch[i] = null;
+        if (wait != null)
+          wait.record(start - entry.queuedNanos);
+        try
+        {
+          entry.task.send();
+        }
+        catch (RuntimeException e)
+        {
+          entry.task.reject(e);
+        }
+      }
+      sent.addAndGet(count);
+      batches.incrementAndGet();
+    }
+  }
+
+  /**
+   * Retrieve the number of orders queued in a lane
+   */
+  public int getQueued(Lane lane)
+  {
+    lock.lock();
+    try
+    {
+      return lanes[lane.ordinal()].size();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Retrieve the number of orders queued in every lane, without locking
+   */
+  public long getQueued() { return queued.get(); }
+  public long getSent() { return sent.get(); }
+  /**
+   * Retrieve the number of times the dispatcher woke up and sent orders
+   */
+  public long getBatches() { return batches.get(); }
+  /**
+   * Retrieve the number of times the dispatcher had orders but had to wait for a token
+   */
+  public long getThrottled() { return throttled.get(); }
+
+  /**
+   * Retrieve a one line summary of the scheduler's counters
+   */
+  public String summary()
+  {
+    if (dispatcher == null)
+      return String.format("unlimited, %d sent", sent.get());
+    return String.format("%.0f/s burst %.0f, %d sent in %d batches, throttled %d times, queued closing=%d opening=%d",
+      tokensPerNano * 1e9, burst, sent.get(), batches.get(), throttled.get(), getQueued(Lane.CLOSING),
+      getQueued(Lane.OPENING));
+  }
+}
@@ -0,0 +1,376 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Net position, average price and unrealized P&L of every account and symbol, kept up to date as
+ * tickets open and close and as the market moves
+ *
+ * Accounts and symbols are numbered as they are first seen, and every account x symbol pair holding
+ * a ticket gets a cell of primitive arrays with the quantity and cost of its long and short tickets.
+ * Opening or closing a ticket moves its cell and its symbol's net quantity by the ticket's amounts and
+ * sums its account's P&L again from the account's cells, and a tick moves the P&L of the accounts holding
+ * its symbol by the change of their cells, so no query walks the tickets. As ticks move the account P&L
+ * by differences, its accounts are summed again from their cells every RESUM_TICKS ticks of a symbol,
+ * which keeps the rounding errors from building up. Long tickets are valued at the bid and short ones at
+ * the offer, in the quote currency of their symbol; a symbol not quoted yet counts as having no P&L.
+ *
+ * Every method but getNetQuantity(symbol) is synchronized on the book, and the queries look the account
+ * and symbol up in hash maps of boxed indices, so a query costs taking the lock and a map lookup or two,
+ * not a walk of the tickets. Callers on a hot path should read it from a single thread, or cache what
+ * they need. The net quantity of each symbol is also published, as the bits of a double in an atomic,
+ * whenever a ticket moves it, so the pre-trade checks read it without waiting on the ticks marking the
+ * book.
+ */
+public class PositionBook
+{
+  // ticks of a symbol between the account P&L being summed again from the cells
+  static final private int RESUM_TICKS = 1024;
+
+  private final Map<String, Integer> accountIndex = new HashMap<String, Integer>();
+  private final Map<String, Integer> symbolIndex = new HashMap<String, Integer>();
+  private final Map<String, Integer> ticketIndex = new HashMap<String, Integer>();
+
+  // by account: the cell of each symbol, -1 if the account never held it, and the account's P&L
+  private int[][] accountCells = new int[8][];
+  private double[] accountPnl = new double[8];
+
+  // by symbol: the latest bid and offer, NaN until quoted, its net quantity across accounts, and its cells
+  private double[] bid = new double[64];
+  private double[] offer = new double[64];
+  private double[] symbolNet = new double[64];
+  private int[][] symbolCells = new int[64][];
+  private int[] symbolCellCount = new int[64];
+  private int[] symbolTicks = new int[64];
+  // by symbol, the bits of its net quantity as last published, read without the lock
+  private AtomicLong[] symbolHeld = new AtomicLong[64];
+  private final ConcurrentHashMap<String, AtomicLong> held = new ConcurrentHashMap<String, AtomicLong>();
+
+  // by cell: the account and symbol, and the quantity and quantity x price of the long and short tickets
+  private int[] cellAccount = new int[256];
+  private int[] cellSymbol = new int[256];
+  private double[] longQty = new double[256];
+  private double[] longCost = new double[256];
+  private double[] shortQty = new double[256];
+  private double[] shortCost = new double[256];
+  private int cells;
+
+  // by ticket: its cell, signed quantity and price, reused once the ticket closes
+  private int[] ticketCell = new int[1024];
+  private double[] ticketQty = new double[1024];
+  private double[] ticketPrice = new double[1024];
+  private int[] freeTickets = new int[1024];
+  private int free;
+  private int tickets;
+
+  public PositionBook()
+  {
+    Arrays.fill(bid, Double.NaN);
+    Arrays.fill(offer, Double.NaN);
+  }
+
+  /**
+   * Open a ticket, or replace what is known of it
+   *
+   * @param ticket - the FXCMPosID of the ticket
+   * @param account - its account
+   * @param symbol - its symbol
+   * @param buy - true for a long ticket, false for a short one
+   * @param quantity - its size
+   * @param price - its open price
+   */
+  public synchronized void open(String ticket, String account, String symbol, boolean buy, double quantity,
+    double price)
+  {
+    close(ticket);
+    int cell = cellOf(accountOf(account), symbolOf(symbol));
+    int index = free > 0 ? freeTickets[--free] : tickets;
+    if (index == ticketCell.length)
+    {
+      ticketCell = Arrays.copyOf(ticketCell, index * 2);
+      ticketQty = Arrays.copyOf(ticketQty, index * 2);
+      ticketPrice = Arrays.copyOf(ticketPrice, index * 2);
+      freeTickets = Arrays.copyOf(freeTickets, index * 2);
+    }
+    if (index == tickets)
+      tickets++;
+    ticketIndex.put(ticket, index);
+    ticketCell[index] = cell;
+    ticketQty[index] = buy ? quantity : -quantity;
+    ticketPrice[index] = price;
+    move(cell, buy, quantity, price);
+  }
+
+  /**
+   * Close a ticket
+   *
+   * @param ticket - the FXCMPosID of the ticket
+   * @return - false if the ticket was not open
+   */
+  public synchronized boolean close(String ticket)
+  {
+    Integer index = ticketIndex.remove(ticket);
+    if (index == null)
+      return false;
+    move(ticketCell[index], ticketQty[index] > 0, -Math.abs(ticketQty[index]), ticketPrice[index]);
+    freeTickets[free++] = index;
+    return true;
+  }
+
+  /**
+   * Revalue the positions of a symbol at its latest top of book
+   *
+   * @param symbol - the symbol quoted
+   * @param bid - the price long tickets are valued at
+   * @param offer - the price short tickets are valued at
+   */
+  public synchronized void mark(String symbol, double bid, double offer)
+  {
+    int s = symbolOf(symbol);
+    int[] held = symbolCells[s];
+    for (int i = 0; i < symbolCellCount[s]; i++)
+    {
+      int cell = held[i];
+      accountPnl[cellAccount[cell]] -= pnl(cell);
+    }
+    this.bid[s] = bid;
+    this.offer[s] = offer;
+    boolean resum = ++symbolTicks[s] == RESUM_TICKS;
+    if (resum)
+      symbolTicks[s] = 0;
+    for (int i = 0; i < symbolCellCount[s]; i++)
+    {
+      int cell = held[i];
+      if (resum)
+        resum(cellAccount[cell]);
+      else
+        accountPnl[cellAccount[cell]] += pnl(cell);
+    }
+  }
+
+  /**
+   * Forget every ticket, keeping the quotes
+   */
+  public synchronized void clear()
+  {
+    ticketIndex.clear();
+    tickets = 0;
+    free = 0;
+    Arrays.fill(longQty, 0, cells, 0);
+    Arrays.fill(longCost, 0, cells, 0);
+    Arrays.fill(shortQty, 0, cells, 0);
+    Arrays.fill(shortCost, 0, cells, 0);
+    Arrays.fill(accountPnl, 0);
+    Arrays.fill(symbolNet, 0);
+    for (AtomicLong net : held.values())
+      net.set(Double.doubleToRawLongBits(0));
+  }
+
+  /**
+   * Retrieve the net quantity of an account in a symbol, long positive and short negative
+   */
+  public synchronized double getNetQuantity(String account, String symbol)
+  {
+    int cell = find(account, symbol);
+    return cell < 0 ? 0 : longQty[cell] - shortQty[cell];
+  }
+
+  /**
+   * Retrieve the average open price of an account's net position in a symbol
+   *
+   * @return - the price, or NaN if the account is flat in the symbol
+   */
+  public synchronized double getAveragePrice(String account, String symbol)
+  {
+    int cell = find(account, symbol);
+    if (cell < 0 || longQty[cell] == shortQty[cell])
+      return Double.NaN;
+    return (longCost[cell] - shortCost[cell]) / (longQty[cell] - shortQty[cell]);
+  }
+
+  /**
+   * Retrieve the unrealized P&L of an account in a symbol
+   */
+  public synchronized double getUnrealizedPnl(String account, String symbol)
+  {
+    int cell = find(account, symbol);
+    return cell < 0 ? 0 : pnl(cell);
+  }
+
+  /**
+   * Retrieve the unrealized P&L of an account across its symbols
+   */
+  public synchronized double getUnrealizedPnl(String account)
+  {
+    Integer a = accountIndex.get(account);
+    return a == null ? 0 : accountPnl[a];
+  }
+
+  /**
+   * Retrieve the net quantity of a symbol across accounts, as last published, without locking
+   */
+  public double getNetQuantity(String symbol)
+  {
+    AtomicLong net = held.get(symbol);
+    return net == null ? 0 : Double.longBitsToDouble(net.get());
+  }
+
+  /**
+   * Retrieve the number of tickets open
+   */
+  public synchronized int getTickets() { return ticketIndex.size(); }
+
+  /**
+   * Retrieve a one line summary of the net position and P&L of every account
+   */
+  public synchronized String summary()
+  {
+    StringBuilder summary = new StringBuilder().append(ticketIndex.size()).append(" tickets");
+    for (Map.Entry<String, Integer> account : accountIndex.entrySet())
+    {
+      int a = account.getValue();
+      int open = 0;
+      for (int cell : accountCells[a])
+      {
+        if (cell >= 0 && (longQty[cell] != 0 || shortQty[cell] != 0))
+          open++;
+      }
+      summary.append(String.format(", %s %d symbols P&L %.2f", account.getKey(), open, accountPnl[a]));
+    }
+    return summary.toString();
+  }
+
+  /**
+   * Move a cell by a ticket opening, with a positive quantity, or closing, with a negative one
+   *
+   * @param buy - whether the ticket is long
+   */
+  private void move(int cell, boolean buy, double quantity, double price)
+  {
+    if (buy)
+    {
+      longQty[cell] += quantity;
+      // a side closed out costs nothing, whatever the rounding of the tickets it held
+      longCost[cell] = longQty[cell] == 0 ? 0 : longCost[cell] + quantity * price;
+      symbolNet[cellSymbol[cell]] += quantity;
+    }
+    else
+    {
+      shortQty[cell] += quantity;
+      shortCost[cell] = shortQty[cell] == 0 ? 0 : shortCost[cell] + quantity * price;
+      symbolNet[cellSymbol[cell]] -= quantity;
+    }
+    symbolHeld[cellSymbol[cell]].set(Double.doubleToRawLongBits(symbolNet[cellSymbol[cell]]));
+    resum(cellAccount[cell]);
+  }
+
+  /**
+   * Sum the P&L of an account again from its cells
+   */
+  private void resum(int a)
+  {
+    double pnl = 0;
+    for (int cell : accountCells[a])
+    {
+      if (cell >= 0)
+        pnl += pnl(cell);
+    }
+    accountPnl[a] = pnl;
+  }
+
+  private int find(String account, String symbol)
+  {
+    Integer a = accountIndex.get(account);
+    Integer s = symbolIndex.get(symbol);
+    if (a == null || s == null || s >= accountCells[a].length)
+      return -1;
+    return accountCells[a][s];
+  }
+
+  // the unrealized P&L of a cell at its symbol's latest quote
+  private double pnl(int cell)
+  {
+    int s = cellSymbol[cell];
+    double pnl = 0;
+    if (longQty[cell] != 0 && !Double.isNaN(bid[s]))
+      pnl += longQty[cell] * bid[s] - longCost[cell];
+    if (shortQty[cell] != 0 && !Double.isNaN(offer[s]))
+      pnl += shortCost[cell] - shortQty[cell] * offer[s];
+    return pnl;
+  }
+
+  private int accountOf(String account)
+  {
+    Integer a = accountIndex.get(account);
+    if (a != null)
+      return a;
+    a = accountIndex.size();
+    accountIndex.put(account, a);
+    if (a == accountCells.length)
+    {
+      accountCells = Arrays.copyOf(accountCells, a * 2);
+      accountPnl = Arrays.copyOf(accountPnl, a * 2);
+    }
+    accountCells[a] = new int[0];
+    return a;
+  }
+
+  private int symbolOf(String symbol)
+  {
+    Integer s = symbolIndex.get(symbol);
+    if (s != null)
+      return s;
+    s = symbolIndex.size();
+    symbolIndex.put(symbol, s);
+    if (s == bid.length)
+    {
+      int length = s * 2;
+      bid = Arrays.copyOf(bid, length);
+      offer = Arrays.copyOf(offer, length);
+      Arrays.fill(bid, s, length, Double.NaN);
+      Arrays.fill(offer, s, length, Double.NaN);
+      symbolNet = Arrays.copyOf(symbolNet, length);
+      symbolCells = Arrays.copyOf(symbolCells, length);
+      symbolCellCount = Arrays.copyOf(symbolCellCount, length);
+      symbolTicks = Arrays.copyOf(symbolTicks, length);
+      symbolHeld = Arrays.copyOf(symbolHeld, length);
+    }
+    symbolCells[s] = new int[4];
+    symbolHeld[s] = new AtomicLong();
+    held.put(symbol, symbolHeld[s]);
+    return s;
+  }
+
+  private int cellOf(int a, int s)
+  {
+    int[] row = accountCells[a];
+    if (s < row.length && row[s] >= 0)
+      return row[s];
+    if (s >= row.length)
+    {
+      int length = row.length;
+      row = Arrays.copyOf(row, Math.max(s + 1, length * 2));
+      Arrays.fill(row, length, row.length, -1);
+      accountCells[a] = row;
+    }
+    int cell = cells++;
+    if (cell == cellAccount.length)
+    {
+      cellAccount = Arrays.copyOf(cellAccount, cell * 2);
+      cellSymbol = Arrays.copyOf(cellSymbol, cell * 2);
+      longQty = Arrays.copyOf(longQty, cell * 2);
+      longCost = Arrays.copyOf(longCost, cell * 2);
+      shortQty = Arrays.copyOf(shortQty, cell * 2);
+      shortCost = Arrays.copyOf(shortCost, cell * 2);
+    }
+    cellAccount[cell] = a;
+    cellSymbol[cell] = s;
+    row[s] = cell;
+    if (symbolCellCount[s] == symbolCells[s].length)
+      symbolCells[s] = Arrays.copyOf(symbolCells[s], symbolCellCount[s] * 2);
+    symbolCells[s][symbolCellCount[s]++] = cell;
+    return cell;
+  }
+}
@@ -0,0 +1,163 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import quickfix.field.Account;
+
+/**
+ * Coalesces the position refreshes triggered by fills
+ *
+ * Every fill is applied to the local position book as it arrives, so a full RequestForPositions is only
+ * needed to reconcile that book with the server. Fills are batched per account: the first fill of a batch
+ * starts a window, and the batch is flushed with a single request when the window closes or when it
+ * reaches the fill threshold, whichever comes first.
+ */
+public class PositionReconciler
+{
+  /**
+   * The fills of one account waiting for the next reconciliation
+   */
+  static private class Batch
+  {
+    int fills;
+    ScheduledFuture<?> timer;
+  }
+
+  private final ScheduledExecutorService scheduler;
+  private final long windowMillis;
+  private final int maxFills;
+  private final Consumer<Account> reconcile;
+  // guarded by this
+  private final Map<Account, Batch> batches;
+
+  private final AtomicLong fills = new AtomicLong();
+  private final AtomicLong requests = new AtomicLong();
+
+  /**
+   * @param scheduler - closes the batch windows
+   * @param windowMillis - how long the first fill of a batch waits for others to join it
+   * @param maxFills - the number of fills that flushes a batch before its window closes
+   * @param reconcile - issues the position request for an account
+   */
+  public PositionReconciler(ScheduledExecutorService scheduler, long windowMillis, int maxFills,
+    Consumer<Account> reconcile)
+  {
+    this.scheduler = scheduler;
+    this.windowMillis = windowMillis;
+    this.maxFills = Math.max(1, maxFills);
+    this.reconcile = reconcile;
+    batches = new HashMap<Account, Batch>();
+  }
+
+  /**
+   * Add a fill, already applied to the local book, to its account's batch
+   *
+   * @param account - the account that was filled
+   */
+  public void fillApplied(Account account)
+  {
+    fills.incrementAndGet();
+    boolean flush = false;
+    synchronized (this)
+    {
+      Batch batch = batches.get(account);
+      if (batch == null)
+      {
+        batch = new Batch();
+        batches.put(account, batch);
+      }
+      batch.fills++;
+      if (batch.fills >= maxFills)
+      {
+        // the batch is full, flush it now rather than wait for the window
+        remove(account);
+        flush = true;
+      }
+      else if (batch.timer == null)
+      {
+        // first fill of the batch, open the window
+        batch.timer = scheduler.schedule(() -> flush(account), windowMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+    if (flush)
+      issue(account);
+  }
+
+  /**
+   * Flush the batch of the specified account, if there is one
+   *
+   * @param account - the account to reconcile
+   */
+  public void flush(Account account)
+  {
+    boolean flush;
+    synchronized (this)
+    {
+      flush = remove(account);
+    }
+    if (flush)
+      issue(account);
+  }
+
+  /**
+   * Drop the batch of the specified account without reconciling it, used when a full refresh of the
+   * account has been requested anyway
+   *
+   * @param account - the account being refreshed
+   */
+  public synchronized void discard(Account account)
+  {
+    remove(account);
+  }
+
+  /**
+   * Drop every batch, used when the session goes down
+   */
+  public synchronized void clear()
+  {
+    for (Batch batch : batches.values())
+    {
+      if (batch.timer != null)
+        batch.timer.cancel(false);
+    }
+    batches.clear();
+  }
+
+  /**
+   * Retrieve the number of fills applied to the local book
+   */
+  public long getFills() { return fills.get(); }
+
+  /**
+   * Retrieve the number of position requests issued to reconcile those fills
+   */
+  public long getRequests() { return requests.get(); }
+
+  private boolean remove(Account account)
+  {
+    Batch batch = batches.remove(account);
+    if (batch == null)
+      return false;
+    if (batch.timer != null)
+      batch.timer.cancel(false);
+    return true;
+  }
+
+  private void issue(Account account)
+  {
+    requests.incrementAndGet();
+    try
+    {
+      reconcile.accept(account);
+    }
+    catch (Exception e)
+    {
+      // a failed refresh is caught up by the next batch
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,342 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Pre-trade controls every order of a session passes before it is queued to be sent
+ *
+ * Four limits are checked, each disabled when set to 0:
+ *   QUANTITY  the most an order may be for
+ *   NOTIONAL  the most the session may be exposed to a symbol, as the net quantity of the positions it
+ *             holds and the orders it has in flight times the price the order would fill at, in the
+ *             quote currency of the symbol; orders that reduce the exposure always pass
+ *   MARGIN    the order's notional times the margin ratio, against the margin the account's latest
+ *             collateral report left available less what orders sent since have taken; orders in the
+ *             closing lane and accounts not reporting their margin are not checked
+ *   RATE      the most orders accepted in any one second
+ *
+ * The limits are fixed and the usage is kept in atomics, a symbol's net quantity in flight and an
+ * account's available margin as the bits of a double, reserved with a compare and set, so a check
+ * allocates nothing once its symbol and account have been seen. The positions held are read from the
+ * source set with setPositions(), the session's PositionBook, so those restored from a snapshot or
+ * opened before the session count as well. An order that fails a later check gives back what the
+ * earlier ones reserved. Each fill of an order hands its quantity over to the positions through filled(),
+ * and whatever is left of an order the venue rejects, cancels or expires, or that is never sent, gives
+ * back its quantity and share of the margin through release().
+ * How long each check took is recorded in nanoseconds.
+ */
+public class PreTradeRisk
+{
+  // the seconds of the rate window are kept above the count of orders accepted in it
+  static final private int COUNT_BITS = 24;
+  static final private long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+  /**
+   * The limits an order can breach
+   */
+  public enum Check
+  {
+    QUANTITY,
+    NOTIONAL,
+    MARGIN,
+    RATE
+  }
+
+  /**
+   * An order refused by a limit
+   */
+  static public class Rejection extends Exception
+  {
+    static final private long serialVersionUID = 1L;
+
+    private final Check check;
+
+    Rejection(Check check, String message)
+    {
+      // the limit and the order say everything, a stack trace would only slow a flood of refusals
+      super(message, null, false, false);
+      this.check = check;
+    }
+
+    /**
+     * Retrieve the limit the order breached
+     */
+    public Check getCheck() { return check; }
+  }
+
+  private final double maxOrderQuantity;
+  private final double maxSymbolNotional;
+  private final double marginRatio;
+  private final long maxOrdersPerSecond;
+  private final LatencyHistogram latency;
+
+  // by symbol, the bits of the signed net quantity of the orders in flight, long positive and short negative
+  private final ConcurrentHashMap<String, AtomicLong> symbolNet = new ConcurrentHashMap<String, AtomicLong>();
+  // by account, the bits of the margin still available, absent until the account reports its margin
+  private final ConcurrentHashMap<String, AtomicLong> marginAvailable = new ConcurrentHashMap<String, AtomicLong>();
+  // the second of the rate window, from base, and the orders accepted in it
+  private final AtomicLong rateWindow = new AtomicLong();
+  private final long base = System.nanoTime();
+
+  // by symbol, the signed net quantity of the positions held
+  private volatile ToDoubleFunction<String> positions = symbol -> 0;
+
+  private final AtomicLong passed = new AtomicLong();
+  private final AtomicLongArray rejected = new AtomicLongArray(Check.values().length);
+
+  /**
+   * @param maxOrderQuantity - the most an order may be for, 0 for no limit
+   * @param maxSymbolNotional - the most the session may be exposed to a symbol, 0 for no limit
+   * @param marginRatio - the share of an order's notional it takes in margin, 0 not to check margin
+   * @param maxOrdersPerSecond - the most orders accepted per second, 0 for no limit
+   * @param latency - receives how long each check took
+   */
+  public PreTradeRisk(double maxOrderQuantity, double maxSymbolNotional, double marginRatio,
+    long maxOrdersPerSecond, LatencyHistogram latency)
+  {
+    this.maxOrderQuantity = maxOrderQuantity;
+    this.maxSymbolNotional = maxSymbolNotional;
+    this.marginRatio = marginRatio;
+    this.maxOrdersPerSecond = Math.min(maxOrdersPerSecond, COUNT_MASK);
+    this.latency = latency;
+  }
+
+  /**
+   * Check an order against the limits and reserve what it uses of them
+   *
+   * @param account - the account of the order
+   * @param symbol - its symbol
+   * @param buy - its side
+   * @param quantity - its size
+   * @param price - the price it would fill at, NaN if the symbol has not been quoted
+   * @param closing - true for an order in the closing lane, which takes no margin
+   * @return - the margin reserved for the order, to be given back with release() if it never fills
+   * @throws Rejection - if the order breaches a limit, having reserved nothing
+   */
+  public double check(String account, String symbol, boolean buy, double quantity, double price, boolean closing)
+    throws Rejection
+  {
+    long start = System.nanoTime();
+    try
+    {
+      if (maxOrderQuantity > 0 && quantity > maxOrderQuantity)
+        throw reject(Check.QUANTITY, "quantity " + quantity + " over the limit of " + maxOrderQuantity);
+      if ((maxSymbolNotional > 0 || marginRatio > 0) && Double.isNaN(price))
+        throw reject(Check.NOTIONAL, symbol + " has no quote to value the order at");
+      double signed = buy ? quantity : -quantity;
+      AtomicLong net = reserveNotional(symbol, signed, price);
+      double margin = closing || marginRatio <= 0 ? 0 : quantity * price * marginRatio;
+      AtomicLong available = margin > 0 ? marginAvailable.get(account) : null;
+      if (available != null && !add(available, -margin, 0))
+      {
+        add(net, -signed, Double.NaN);
+        throw reject(Check.MARGIN, String.format("%s needs %.2f margin, %.2f available", account, margin,
+          Double.longBitsToDouble(available.get())));
+      }
+      if (!countOrder())
+      {
+        add(net, -signed, Double.NaN);
+        if (available != null)
+          add(available, margin, Double.NaN);
+        throw reject(Check.RATE, "over the limit of " + maxOrdersPerSecond + " orders per second");
+      }
+      passed.incrementAndGet();
+      return available != null ? margin : 0;
+    }
+    finally
+    {
+      latency.record(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Hand the quantity of a fill over to the positions held, which include it by now
+   *
+   * @param symbol - the symbol of the order
+   * @param buy - its side
+   * @param quantity - the quantity filled
+   */
+  public void filled(String symbol, boolean buy, double quantity)
+  {
+    add(net(symbol), buy ? -quantity : quantity, Double.NaN);
+  }
+
+  /**
+   * Give back the exposure and the margin of what is left of an order that was rejected, cancelled,
+   * expired or never sent
+   *
+   * @param account - the account of the order
+   * @param symbol - its symbol
+   * @param buy - its side
+   * @param quantity - the quantity left unfilled
+   * @param margin - the share of the margin check() reserved for it that the quantity left took
+   */
+  public void release(String account, String symbol, boolean buy, double quantity, double margin)
+  {
+    add(net(symbol), buy ? -quantity : quantity, Double.NaN);
+    AtomicLong available = margin > 0 ? marginAvailable.get(account) : null;
+    if (available != null)
+      add(available, margin, Double.NaN);
+  }
+
+  /**
+   * Set where the net quantity of the positions held in a symbol is read from, on every check, so it
+   * should not take a lock
+   *
+   * @param positions - the signed net quantity held by symbol, long positive and short negative
+   */
+  public void setPositions(ToDoubleFunction<String> positions)
+  {
+    this.positions = positions;
+  }
+
+  /**
+   * Take the margin an account's latest collateral report left available, which includes the orders
+   * filled up to it
+   *
+   * @param account - the account
+   * @param available - the margin available, NaN if the report did not carry it
+   */
+  public void collateral(String account, double available)
+  {
+    if (Double.isNaN(available))
+      return;
+    marginAvailable.computeIfAbsent(account, key -> new AtomicLong()).set(Double.doubleToRawLongBits(available));
+  }
+
+  /**
+   * Forget the exposure of the orders in flight, keeping the accounts' margin
+   */
+  public void clear()
+  {
+    for (AtomicLong net : symbolNet.values())
+      net.set(Double.doubleToRawLongBits(0));
+  }
+
+  /**
+   * Reserve an order's exposure to its symbol, if the symbol's limit allows it
+   *
+   * @return - the symbol's net quantity in flight, with the order added
+   */
+  private AtomicLong reserveNotional(String symbol, double signed, double price) throws Rejection
+  {
+    AtomicLong net = net(symbol);
+    double held = maxSymbolNotional > 0 ? positions.applyAsDouble(symbol) : 0;
+    while (true)
+    {
+      long bits = net.get();
+      double inFlight = Double.longBitsToDouble(bits) + signed;
+      double before = held + Double.longBitsToDouble(bits);
+      double after = held + inFlight;
+      if (maxSymbolNotional > 0 && Math.abs(after) > Math.abs(before) && Math.abs(after) * price > maxSymbolNotional)
+        throw reject(Check.NOTIONAL, String.format("%s exposure of %.2f over the limit of %.2f", symbol,
+          Math.abs(after) * price, maxSymbolNotional));
+      if (net.compareAndSet(bits, Double.doubleToRawLongBits(inFlight)))
+        return net;
+    }
+  }
+
+  /**
+   * Count an order in the current second, if the rate limit allows it
+   */
+  private boolean countOrder()
+  {
+    if (maxOrdersPerSecond <= 0)
+      return true;
+    long second = (System.nanoTime() - base) / 1000000000L;
+    while (true)
+    {
+      long window = rateWindow.get();
+      long next;
+      if (window >>> COUNT_BITS != second)
+        next = (second << COUNT_BITS) | 1;
+      else if ((window & COUNT_MASK) >= maxOrdersPerSecond)
+        return false;
+      else
+        next = window + 1;
+      if (rateWindow.compareAndSet(window, next))
+        return true;
+    }
+  }
+
+  /**
+   * Add to a double kept as bits
+   *
+   * @param floor - the least the result may be, NaN for no floor
+   * @return - false, leaving the value as it was, if the result would be below the floor
+   */
+  static private boolean add(AtomicLong value, double delta, double floor)
+  {
+    while (true)
+    {
+      long bits = value.get();
+      double after = Double.longBitsToDouble(bits) + delta;
+      if (after < floor)
+        return false;
+      if (value.compareAndSet(bits, Double.doubleToRawLongBits(after)))
+        return true;
+    }
+  }
+
+  private AtomicLong net(String symbol)
+  {
+    AtomicLong net = symbolNet.get(symbol);
+    return net != null ? net : symbolNet.computeIfAbsent(symbol, key -> new AtomicLong());
+  }
+
+  private Rejection reject(Check check, String message)
+  {
+    rejected.incrementAndGet(check.ordinal());
+    return new Rejection(check, check + ": " + message);
+  }
+
+  /**
+   * Retrieve the net quantity of the orders in flight in a symbol, long positive and short negative
+   */
+  public double getNetQuantity(String symbol)
+  {
+    AtomicLong net = symbolNet.get(symbol);
+    return net == null ? 0 : Double.longBitsToDouble(net.get());
+  }
+
+  /**
+   * Retrieve the margin an account has available, NaN if it has not reported it
+   */
+  public double getMarginAvailable(String account)
+  {
+    AtomicLong available = marginAvailable.get(account);
+    return available == null ? Double.NaN : Double.longBitsToDouble(available.get());
+  }
+
+  /**
+   * Retrieve the number of orders that passed every check
+   */
+  public long getPassed() { return passed.get(); }
+  /**
+   * Retrieve the number of orders a limit refused
+   */
+  public long getRejected(Check check) { return rejected.get(check.ordinal()); }
+
+  /**
+   * Retrieve the number of orders refused by any limit
+   */
+  public long getRejected()
+  {
+    long total = 0;
+    for (int i = 0; i < rejected.length(); i++)
+      total += rejected.get(i);
+    return total;
+  }
+
+  /**
+   * Retrieve a one line summary of the checks
+   */
+  public String summary()
+  {
+    StringBuilder summary = new StringBuilder().append(passed.get()).append(" passed");
+    for (Check check : Check.values())
+      summary.append(", ").append(check).append(' ').append(getRejected(check));
+    return summary.append(" rejected").toString();
+  }
+}
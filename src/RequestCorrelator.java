@@ -0,0 +1,141 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Correlates outgoing requests with the responses that complete them
+ *
+ * Each pending request is keyed by the id it was sent with (ClOrdID, PosReqID, CollInquiryID)
+ * and completes a CompletableFuture once the matching response arrives on the callback thread. A
+ * future timed out or cancelled by its caller stops being pending too, so a response arriving after
+ * it is not matched.
+ */
+public class RequestCorrelator<T>
+{
+  /**
+   * A pending request, remembering when it was registered, or sent if it waited in between, so its
+   * round trip can be timed. Failed or cancelled from outside, such as by orTimeout(), it stops being
+   * pending before its callers run.
+   */
+  private class Pending extends CompletableFuture<T>
+  {
+    final String requestID;
+    volatile long sentNanos = System.nanoTime();
+
+    Pending(String requestID)
+    {
+      this.requestID = requestID;
+    }
+
+    @Override
+    public boolean completeExceptionally(Throwable cause)
+    {
+      pending.remove(requestID, this);
+      return super.completeExceptionally(cause);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+      pending.remove(requestID, this);
+      return super.cancel(mayInterruptIfRunning);
+    }
+  }
+
+  private final ConcurrentHashMap<String, Pending> pending;
+
+  public RequestCorrelator()
+  {
+    pending = new ConcurrentHashMap<String, Pending>();
+  }
+
+  /**
+   * Register a new pending request
+   *
+   * @param requestID - the id the request is sent with
+   * @return - a future completed with the response to the request
+   */
+  public CompletableFuture<T> register(String requestID)
+  {
+    Pending future = new Pending(requestID);
+    // a reused id replaces the previous pending request, so fail the stale one
+    Pending previous = pending.put(requestID, future);
+    if (previous != null)
+      previous.cancel(false);
+    return future;
+  }
+
+  /**
+   * Start the round trip of a request registered ahead of being sent, such as an order queued behind
+   * a rate limit, as it goes out
+   *
+   * @param requestID - the id the request is sent with
+   */
+  public void sent(String requestID)
+  {
+    Pending future = pending.get(requestID);
+    if (future != null)
+      future.sentNanos = System.nanoTime();
+  }
+
+  /**
+   * Complete the pending request with the specified id
+   *
+   * @param requestID - the id of the request being answered
+   * @param response - the response to the request
+   * @return - the nanoseconds since the request was sent, or registered if it was not marked sent, or -1
+   *   if no request was pending
+   */
+  public long complete(String requestID, T response)
+  {
+    if (requestID == null)
+      return -1;
+    Pending future = pending.remove(requestID);
+    if (future == null)
+      return -1;
+    long elapsed = System.nanoTime() - future.sentNanos;
+    future.complete(response);
+    return elapsed;
+  }
+
+  /**
+   * Fail the pending request with the specified id
+   *
+   * @param requestID - the id of the request that failed
+   * @param cause - the reason for the failure
+   * @return - true if a pending request was failed
+   */
+  public boolean fail(String requestID, Throwable cause)
+  {
+    if (requestID == null)
+      return false;
+    Pending future = pending.remove(requestID);
+    return future != null && future.completeExceptionally(cause);
+  }
+
+  /**
+   * Fail every pending request, used when the session goes down
+   *
+   * @param cause - the reason for the failure
+   */
+  public void failAll(Throwable cause)
+  {
+    for (String requestID : pending.keySet())
+      fail(requestID, cause);
+  }
+
+  /**
+   * Retrieve whether a request with the specified id is still waiting for its response
+   */
+  public boolean isPending(String requestID)
+  {
+    return requestID != null && pending.containsKey(requestID);
+  }
+
+  /**
+   * Retrieve the number of requests still waiting for their response
+   */
+  public int size()
+  {
+    return pending.size();
+  }
+}
@@ -0,0 +1,159 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the startup of a session from its creation until it can trade
+ *
+ * The steps that only depend on the FXCM login are sent together as soon as it succeeds: the
+ * collateral inquiry and the trading session status request, and once the session status lists the
+ * instruments, the market data subscription and their security status requests. The session is
+ * ready once both its accounts and a first quote of every instrument have arrived, whichever comes
+ * last, or, when its state was restored from a snapshot, as soon as FXCM accepts the login. The time
+ * each phase was reached, counted from the session's creation, is kept for reporting.
+ */
+public class SessionBootstrap
+{
+  /**
+   * The milestones of a startup, in the order they are usually reached
+   */
+  public enum Phase
+  {
+    // the FIX logon completed
+    LOGGED_ON,
+    // FXCM accepted the UserRequest
+    USER_LOGGED_IN,
+    // the TradingSessionStatus listed the instruments
+    SESSION_STATUS,
+    // the last CollateralReport of the inquiry arrived
+    ACCOUNTS,
+    // every instrument of the session status has been quoted
+    MARKET_DATA,
+    // accounts and market data are both in, orders can be sent
+    READY
+  }
+
+  private final long createdNanos;
+  // when each phase was reached, 0 until it is
+  private final long[] reachedNanos = new long[Phase.values().length];
+  private final CompletableFuture<SessionBootstrap> ready = new CompletableFuture<SessionBootstrap>();
+  // instruments listed by the session status, each of which must be quoted once, -1 until listed
+  private final AtomicInteger expectedQuotes = new AtomicInteger(-1);
+  private volatile boolean marketDataReached;
+  // the accounts and instruments were restored from a snapshot, guarded by reachedNanos
+  private boolean restored;
+
+  public SessionBootstrap()
+  {
+    createdNanos = System.nanoTime();
+  }
+
+  /**
+   * Record that a phase has been reached, completing readiness once accounts and market data are in.
+   * Only the first time a phase is reached counts.
+   */
+  public void reached(Phase phase)
+  {
+    synchronized (reachedNanos)
+    {
+      if (reachedNanos[phase.ordinal()] != 0)
+        return;
+      reachedNanos[phase.ordinal()] = System.nanoTime();
+      if (phase == Phase.MARKET_DATA)
+        marketDataReached = true;
+      if (phase == Phase.READY || !isReady())
+        return;
+      reachedNanos[Phase.READY.ordinal()] = System.nanoTime();
+    }
+    ready.complete(this);
+  }
+
+  /**
+   * Record that the accounts and instruments were restored from a snapshot, so the session is ready
+   * once the login is accepted, with the live reports reconciled afterwards
+   */
+  public void restored()
+  {
+    synchronized (reachedNanos)
+    {
+      restored = true;
+    }
+    if (getMillis(Phase.USER_LOGGED_IN) >= 0)
+      reached(Phase.READY);
+  }
+
+  /**
+   * Retrieve whether the state the session started from was restored from a snapshot
+   */
+  public boolean isRestored()
+  {
+    synchronized (reachedNanos)
+    {
+      return restored;
+    }
+  }
+
+  // guarded by reachedNanos
+  private boolean isReady()
+  {
+    if (restored && reachedNanos[Phase.USER_LOGGED_IN.ordinal()] != 0)
+      return true;
+    return reachedNanos[Phase.ACCOUNTS.ordinal()] != 0 && reachedNanos[Phase.MARKET_DATA.ordinal()] != 0;
+  }
+
+  /**
+   * Set the number of instruments the session status listed, each of which must be quoted once
+   */
+  public void expectQuotes(int instruments)
+  {
+    if (expectedQuotes.compareAndSet(-1, instruments) && instruments == 0)
+      reached(Phase.MARKET_DATA);
+  }
+
+  /**
+   * Record the number of distinct instruments quoted so far. Cheap once market data has been reached,
+   * so it can be called on every snapshot.
+   */
+  public void quoted(int instruments)
+  {
+    if (marketDataReached)
+      return;
+    int expected = expectedQuotes.get();
+    if (expected >= 0 && instruments >= expected)
+      reached(Phase.MARKET_DATA);
+  }
+
+  /**
+   * Retrieve the future completed once the session is ready to trade
+   */
+  public CompletableFuture<SessionBootstrap> getReady() { return ready; }
+
+  /**
+   * Retrieve the time from the session's creation until a phase was reached
+   *
+   * @return - the time in milliseconds, or NaN if the phase has not been reached
+   */
+  public double getMillis(Phase phase)
+  {
+    long reached;
+    synchronized (reachedNanos)
+    {
+      reached = reachedNanos[phase.ordinal()];
+    }
+    return reached == 0 ? Double.NaN : (reached - createdNanos) / 1e6;
+  }
+
+  /**
+   * Retrieve the time each phase was reached, from the session's creation
+   */
+  public String getSummary()
+  {
+    StringBuilder summary = new StringBuilder();
+    for (Phase phase : Phase.values())
+    {
+      if (summary.length() > 0)
+        summary.append(", ");
+      summary.append(phase.name().toLowerCase()).append(' ').append(String.format("%.1f", getMillis(phase)));
+    }
+    return summary.append(" ms").toString();
+  }
+}
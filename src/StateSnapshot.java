@@ -0,0 +1,177 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import quickfix.DataDictionary;
+import quickfix.DefaultMessageFactory;
+import quickfix.InvalidMessage;
+import quickfix.Message;
+import quickfix.MessageUtils;
+import quickfix.fix44.CollateralReport;
+import quickfix.fix44.ExecutionReport;
+import quickfix.fix44.PositionReport;
+
+/**
+ * Compact binary copy of a session's accounts, positions, orders and top of book
+ *
+ * Reports are kept as their raw FIX text and quotes as plain numbers, in a single file per session that
+ * is replaced atomically, so a crash while saving leaves the previous snapshot intact. Loading one lets
+ * a restarted session trade on what it knew before, while the live reports catch it up.
+ *
+ * Layout: magic, version, save time, then counted sections of accounts, positions and orders, each
+ * message as a length prefixed ISO-8859-1 string, and of quotes, each a symbol and six numbers.
+ */
+public class StateSnapshot
+{
+  static final private int MAGIC = 0x46585354;
+  static final private int VERSION = 1;
+
+  /**
+   * The top of book of one symbol
+   */
+  public static class Quote
+  {
+    final String symbol;
+    final double bid;
+    final double offer;
+    final double high;
+    final double low;
+    final double minQuantity;
+    final long time;
+
+    Quote(String symbol, double bid, double offer, double high, double low, double minQuantity, long time)
+    {
+      this.symbol = symbol;
+      this.bid = bid;
+      this.offer = offer;
+      this.high = high;
+      this.low = low;
+      this.minQuantity = minQuantity;
+      this.time = time;
+    }
+  }
+
+  final List<CollateralReport> accounts = new ArrayList<CollateralReport>();
+  final List<PositionReport> positions = new ArrayList<PositionReport>();
+  final List<ExecutionReport> orders = new ArrayList<ExecutionReport>();
+  final List<Quote> quotes = new ArrayList<Quote>();
+  long savedAt;
+
+  /**
+   * Write the snapshot to a file, replacing it only once the whole snapshot is on disk
+   *
+   * @param file - the snapshot file
+   * @throws IOException
+   */
+  public void save(File file) throws IOException
+  {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null)
+      parent.mkdirs();
+    File temporary = new File(file.getPath() + ".tmp");
+    savedAt = System.currentTimeMillis();
+    try (FileOutputStream stream = new FileOutputStream(temporary);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream)))
+    {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(savedAt);
+      writeMessages(out, accounts);
+      writeMessages(out, positions);
+      writeMessages(out, orders);
+      out.writeInt(quotes.size());
+      for (Quote quote : quotes)
+      {
+        out.writeUTF(quote.symbol);
+        out.writeDouble(quote.bid);
+        out.writeDouble(quote.offer);
+        out.writeDouble(quote.high);
+        out.writeDouble(quote.low);
+        out.writeDouble(quote.minQuantity);
+        out.writeLong(quote.time);
+      }
+      out.flush();
+      stream.getFD().sync();
+    }
+    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Read a snapshot written by save()
+   *
+   * @param file - the snapshot file
+   * @param dictionary - parses the repeating groups of the saved reports
+   * @return - the snapshot, or null if there is no file
+   * @throws IOException - if the file is not a snapshot or can not be read
+   */
+  public static StateSnapshot load(File file, DataDictionary dictionary) throws IOException
+  {
+    if (!file.exists())
+      return null;
+    StateSnapshot snapshot = new StateSnapshot();
+    DefaultMessageFactory factory = new DefaultMessageFactory();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+    {
+      if (in.readInt() != MAGIC)
+        throw new IOException(file + " is not a state snapshot");
+      int version = in.readInt();
+      if (version != VERSION)
+        throw new IOException(file + " is a version " + version + " snapshot, expected " + VERSION);
+      snapshot.savedAt = in.readLong();
+      readMessages(in, factory, dictionary, snapshot.accounts, CollateralReport.class);
+      readMessages(in, factory, dictionary, snapshot.positions, PositionReport.class);
+      readMessages(in, factory, dictionary, snapshot.orders, ExecutionReport.class);
+      for (int count = in.readInt(); count > 0; count--)
+        snapshot.quotes.add(new Quote(in.readUTF(), in.readDouble(), in.readDouble(), in.readDouble(),
+          in.readDouble(), in.readDouble(), in.readLong()));
+    }
+    catch (InvalidMessage e)
+    {
+      throw new IOException(file + " holds a message that can not be parsed", e);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Retrieve when the snapshot was saved, in epoch milliseconds
+   */
+  public long getSavedAt() { return savedAt; }
+
+  static private void writeMessages(DataOutputStream out, List<? extends Message> messages) throws IOException
+  {
+    out.writeInt(messages.size());
+    for (Message message : messages)
+    {
+      // toString() sets the length and checksum of the message it renders, so render a copy rather than
+      // write to a report the session's thread may be reading
+      byte[] raw = message.clone().toString().getBytes(StandardCharsets.ISO_8859_1);
+      out.writeInt(raw.length);
+      out.write(raw);
+    }
+  }
+
+  static private <T extends Message> void readMessages(DataInputStream in, DefaultMessageFactory factory,
+    DataDictionary dictionary, List<T> messages, Class<T> type) throws IOException, InvalidMessage
+  {
+    for (int count = in.readInt(); count > 0; count--)
+    {
+      byte[] raw = new byte[in.readInt()];
+      in.readFully(raw);
+      Message message = MessageUtils.parse(factory, dictionary, new String(raw, StandardCharsets.ISO_8859_1));
+      if (!type.isInstance(message))
+        throw new IOException("Expected a " + type.getSimpleName() + " but found " + message.getClass().getSimpleName());
+      messages.add(type.cast(message));
+    }
+  }
+}
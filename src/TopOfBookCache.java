@@ -0,0 +1,369 @@
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import quickfix.FieldNotFound;
+import quickfix.Group;
+import quickfix.field.MDEntryPx;
+import quickfix.field.MDEntryType;
+import quickfix.field.NoMDEntries;
+import quickfix.field.Symbol;
+import quickfix.fix44.MarketDataSnapshotFullRefresh;
+
+/**
+ * Compact top of book per symbol, updated in place from MarketDataSnapshotFullRefresh messages
+ *
+ * Each symbol owns one 64 byte slot of longs: a version followed by bid, offer, high, low, minimum
+ * quantity (as double bits) and the update time. The QuickFIX/J callback thread is the single writer;
+ * the version is odd while a slot is being written, so readers retry instead of seeing a torn quote.
+ */
+public class TopOfBookCache
+{
+  static final private int VERSION = 0;
+  static final private int BID = 1;
+  static final private int OFFER = 2;
+  static final private int HIGH = 3;
+  static final private int LOW = 4;
+  static final private int MIN_QTY = 5;
+  static final private int TIME = 6;
+  // one cache line of longs per symbol
+  static final private int SLOT = 8;
+
+  /**
+   * A reusable copy of one symbol's top of book
+   */
+  public static class Quote
+  {
+    private double bid;
+    private double offer;
+    private double high;
+    private double low;
+    private double minQuantity;
+    private long time;
+
+    public double getBid() { return bid; }
+    public double getOffer() { return offer; }
+    public double getHigh() { return high; }
+    public double getLow() { return low; }
+    public double getMinQuantity() { return minQuantity; }
+    public long getTime() { return time; }
+  }
+
+  private final int minQuantityField;
+  private final ConcurrentHashMap<String, Integer> index;
+  private volatile String[] symbols;
+  private volatile AtomicLongArray slots;
+  private int size;
+  // writer side open addressing table of slot + 1 by symbol hash, so a raw snapshot finds its slot
+  // without copying its symbol out
+  private int[] slotByHash;
+
+  /**
+   * @param minQuantityField - the tag carrying the minimum order quantity on a snapshot
+   * @param capacity - the number of symbols to size the cache for up front
+   */
+  public TopOfBookCache(int minQuantityField, int capacity)
+  {
+    this.minQuantityField = minQuantityField;
+    this.index = new ConcurrentHashMap<String, Integer>(capacity * 2);
+    this.symbols = new String[Math.max(capacity, 1)];
+    this.slots = new AtomicLongArray(symbols.length * SLOT);
+    this.slotByHash = new int[Integer.highestOneBit(symbols.length * 2 - 1) * 2];
+  }
+
+  /**
+   * Apply a full refresh snapshot to the symbol it quotes. Only called from the callback thread.
+   *
+   * @param snapshot - the snapshot to apply
+   * @param time - the time the snapshot was received
+   * @return - the slot of the symbol
+   * @throws FieldNotFound - if an entry is malformed, leaving the cache untouched
+   */
+  public int update(MarketDataSnapshotFullRefresh snapshot, long time) throws FieldNotFound
+  {
+    // parse every value before the slot is marked, so a malformed entry can not leave it half written
+    int set = 0;
+    double bid = 0;
+    double offer = 0;
+    double high = 0;
+    double low = 0;
+    List<Group> entries = snapshot.getGroups(NoMDEntries.FIELD);
+    for (int i = 0; i < entries.size(); i++)
+    {
+      Group entry = entries.get(i);
+      if (!entry.isSetField(MDEntryPx.FIELD))
+        continue;
+      switch (entry.getString(MDEntryType.FIELD).charAt(0))
+      {
+        case MDEntryType.BID: bid = entry.getDouble(MDEntryPx.FIELD); set |= 1 << BID; break;
+        case MDEntryType.OFFER: offer = entry.getDouble(MDEntryPx.FIELD); set |= 1 << OFFER; break;
+        case MDEntryType.TRADING_SESSION_HIGH_PRICE: high = entry.getDouble(MDEntryPx.FIELD); set |= 1 << HIGH; break;
+        case MDEntryType.TRADING_SESSION_LOW_PRICE: low = entry.getDouble(MDEntryPx.FIELD); set |= 1 << LOW; break;
+        default: continue;
+      }
+    }
+    double minQuantity = 0;
+    if (snapshot.isSetField(minQuantityField))
+    {
+      minQuantity = snapshot.getDouble(minQuantityField);
+      set |= 1 << MIN_QTY;
+    }
+    // read the symbol straight off the body rather than copying out the Instrument component
+    int slot = slotOf(snapshot.getString(Symbol.FIELD));
+    write(slot, set, bid, offer, high, low, minQuantity, time);
+    return slot;
+  }
+
+  /**
+   * Apply a raw full refresh snapshot, scanned for Symbol, MDEntryType, MDEntryPx and the minimum
+   * quantity, to the symbol it quotes. Only called from the callback thread.
+   *
+   * @param snapshot - the scanned snapshot
+   * @param time - the time the snapshot was received
+   * @return - the slot of the symbol, or -1, leaving the cache untouched, if the entries can not be
+   *   paired up without parsing the repeating group, or are more than the scanner kept
+   * @throws FieldNotFound - if an entry is malformed, leaving the cache untouched
+   */
+  public int update(FixFieldScanner snapshot, long time) throws FieldNotFound
+  {
+    int entries = snapshot.count(MDEntryType.FIELD);
+    if (snapshot.isTruncated() || entries != snapshot.count(MDEntryPx.FIELD))
+      return -1;
+    // parse every value before the slot is marked, so a malformed entry can not leave it half written
+    int set = 0;
+    double bid = 0;
+    double offer = 0;
+    double high = 0;
+    double low = 0;
+    for (int i = 0; i < entries; i++)
+    {
+      switch (snapshot.getChar(MDEntryType.FIELD, i))
+      {
+        case MDEntryType.BID: bid = snapshot.getDouble(MDEntryPx.FIELD, i); set |= 1 << BID; break;
+        case MDEntryType.OFFER: offer = snapshot.getDouble(MDEntryPx.FIELD, i); set |= 1 << OFFER; break;
+        case MDEntryType.TRADING_SESSION_HIGH_PRICE: high = snapshot.getDouble(MDEntryPx.FIELD, i); set |= 1 << HIGH; break;
+        case MDEntryType.TRADING_SESSION_LOW_PRICE: low = snapshot.getDouble(MDEntryPx.FIELD, i); set |= 1 << LOW; break;
+        default: continue;
+      }
+    }
+    double minQuantity = 0;
+    if (snapshot.isSet(minQuantityField))
+    {
+      minQuantity = snapshot.getDouble(minQuantityField);
+      set |= 1 << MIN_QTY;
+    }
+    int slot = slotOf(snapshot);
+    write(slot, set, bid, offer, high, low, minQuantity, time);
+    return slot;
+  }
+
+  /**
+   * Set a symbol's top of book from a saved copy, before any snapshot has been applied. Only called
+   * from the callback thread, or before the session starts.
+   *
+   * @param time - the time the saved quote was received
+   */
+  public void restore(String symbol, double bid, double offer, double high, double low, double minQuantity,
+    long time)
+  {
+    write(slotOf(symbol), 1 << BID | 1 << OFFER | 1 << HIGH | 1 << LOW | 1 << MIN_QTY, bid, offer, high, low,
+      minQuantity, time);
+  }
+
+  /**
+   * Write a slot, with nothing that can throw between marking it as being written and publishing it,
+   * so readers never spin on a slot left odd
+   *
+   * @param set - the fields given, as bits 1 << BID and so on; the others keep their values
+   */
+  private void write(int slot, int set, double bid, double offer, double high, double low, double minQuantity,
+    long time)
+  {
+    AtomicLongArray values = slots;
+    int base = slot * SLOT;
+    // mark the slot as being written
+    long version = values.get(base + VERSION) + 1;
+    values.set(base + VERSION, version);
+    if ((set & 1 << BID) != 0)
+      values.lazySet(base + BID, Double.doubleToRawLongBits(bid));
+    if ((set & 1 << OFFER) != 0)
+      values.lazySet(base + OFFER, Double.doubleToRawLongBits(offer));
+    if ((set & 1 << HIGH) != 0)
+      values.lazySet(base + HIGH, Double.doubleToRawLongBits(high));
+    if ((set & 1 << LOW) != 0)
+      values.lazySet(base + LOW, Double.doubleToRawLongBits(low));
+    if ((set & 1 << MIN_QTY) != 0)
+      values.lazySet(base + MIN_QTY, Double.doubleToRawLongBits(minQuantity));
+    values.lazySet(base + TIME, time);
+    // publish the slot
+    values.set(base + VERSION, version + 1);
+  }
+
+  /**
+   * Copy a consistent view of the symbol's top of book into the quote
+   *
+   * @param symbol - the symbol to read
+   * @param quote - receives the top of book
+   * @return - false if the symbol has never been quoted
+   */
+  public boolean read(String symbol, Quote quote)
+  {
+    Integer slot = index.get(symbol);
+    if (slot == null)
+      return false;
+    read(slot, quote);
+    return true;
+  }
+
+  /**
+   * Copy a consistent view of a slot's top of book into the quote
+   *
+   * @param slot - a slot returned by update()
+   * @param quote - receives the top of book
+   */
+  public void read(int slot, Quote quote)
+  {
+    AtomicLongArray values = slots;
+    int base = slot * SLOT;
+    while (true)
+    {
+      long version = values.get(base + VERSION);
+      if ((version & 1) != 0)
+      {
+        // the writer is part way through this slot
+        Thread.onSpinWait();
+        continue;
+      }
+      quote.bid = Double.longBitsToDouble(values.get(base + BID));
+      quote.offer = Double.longBitsToDouble(values.get(base + OFFER));
+      quote.high = Double.longBitsToDouble(values.get(base + HIGH));
+      quote.low = Double.longBitsToDouble(values.get(base + LOW));
+      quote.minQuantity = Double.longBitsToDouble(values.get(base + MIN_QTY));
+      quote.time = values.get(base + TIME);
+      if (values.get(base + VERSION) == version)
+        return;
+    }
+  }
+
+  /**
+   * Retrieve the symbol of a slot returned by update()
+   */
+  public String getSymbol(int slot)
+  {
+    return symbols[slot];
+  }
+
+  /**
+   * Retrieve the number of symbols quoted so far; their slots are 0 up to it
+   */
+  public int size()
+  {
+    // the symbols are published before their index entries, so count those
+    return index.size();
+  }
+
+  /**
+   * Retrieve the minimum order quantity of the symbol
+   *
+   * @return - the minimum quantity, or NaN if the symbol is unknown or has not reported one
+   */
+  public double getMinQuantity(String symbol)
+  {
+    Integer slot = index.get(symbol);
+    if (slot == null)
+      return Double.NaN;
+    return Double.longBitsToDouble(slots.get(slot * SLOT + MIN_QTY));
+  }
+
+  /**
+   * Retrieve whether the symbol has been quoted
+   */
+  public boolean contains(String symbol)
+  {
+    return index.containsKey(symbol);
+  }
+
+  /**
+   * Retrieve the symbols quoted so far, in the order they were first quoted
+   */
+  public Set<String> getSymbols()
+  {
+    String[] current = symbols;
+    Set<String> result = new LinkedHashSet<String>();
+    for (int i = 0; i < current.length && current[i] != null; i++)
+      result.add(current[i]);
+    return result;
+  }
+
+  /**
+   * Retrieve the slot of a scanned snapshot's symbol, only copying the symbol out on first sight
+   */
+  private int slotOf(FixFieldScanner snapshot) throws FieldNotFound
+  {
+    int mask = slotByHash.length - 1;
+    for (int i = spread(snapshot.valueHash(Symbol.FIELD)) & mask; slotByHash[i] != 0; i = (i + 1) & mask)
+    {
+      int slot = slotByHash[i] - 1;
+      if (snapshot.valueEquals(Symbol.FIELD, symbols[slot]))
+        return slot;
+    }
+    return slotOf(snapshot.getString(Symbol.FIELD));
+  }
+
+  /**
+   * Retrieve the slot of the symbol, assigning the next free one on first sight
+   */
+  private int slotOf(String symbol)
+  {
+    Integer slot = index.get(symbol);
+    if (slot != null)
+      return slot;
+    if (size == symbols.length)
+      grow();
+    AtomicLongArray values = slots;
+    int base = size * SLOT;
+    // nothing quoted yet
+    for (int field = BID; field <= MIN_QTY; field++)
+      values.set(base + field, Double.doubleToRawLongBits(Double.NaN));
+    // publish the storage before the index entry that points at it
+    symbols[size] = symbol;
+    index.put(symbol, size);
+    hash(symbol, size);
+    return size++;
+  }
+
+  private void hash(String symbol, int slot)
+  {
+    int mask = slotByHash.length - 1;
+    int i = spread(symbol.hashCode()) & mask;
+    while (slotByHash[i] != 0)
+      i = (i + 1) & mask;
+    slotByHash[i] = slot + 1;
+  }
+
+  static private int spread(int hash)
+  {
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Double the capacity, copying the current slots across. Readers still holding the old
+   * arrays keep seeing the last values published in them.
+   */
+  private void grow()
+  {
+    String[] newSymbols = new String[symbols.length * 2];
+    System.arraycopy(symbols, 0, newSymbols, 0, symbols.length);
+    AtomicLongArray oldSlots = slots;
+    AtomicLongArray newSlots = new AtomicLongArray(newSymbols.length * SLOT);
+    for (int i = 0; i < oldSlots.length(); i++)
+      newSlots.set(i, oldSlots.get(i));
+    slots = newSlots;
+    symbols = newSymbols;
+    slotByHash = new int[slotByHash.length * 2];
+    for (int slot = 0; slot < size; slot++)
+      hash(newSymbols[slot], slot);
+  }
+}
@@ -0,0 +1,78 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import quickfix.FileLogFactory;
+import quickfix.Log;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+
+public class AsyncBinaryLogFactoryTest
+{
+  @TempDir
+  File directory;
+
+  /**
+   * A journal copied as a killed process would leave it renders up to its last batch, and the next run
+   * starts a journal of its own rather than appending behind the unfinished one
+   */
+  @Test
+  public void journalSurvivesCrash() throws Exception
+  {
+    SessionID sessionID = new SessionID("FIX.4.4", "fxcm_client", "FXCM");
+    SessionSettings settings = new SessionSettings();
+    settings.setString(FileLogFactory.SETTING_FILE_LOG_PATH, directory.getPath());
+    AsyncBinaryLogFactory factory = new AsyncBinaryLogFactory(settings);
+    Log log = factory.create(sessionID);
+    for (int i = 0; i < 100; i++)
+      log.onIncoming("8=FIX.4.4\u000135=0\u000134=" + i + "\u0001");
+    File journal = new File(directory, "FIX.4.4-fxcm_client-FXCM" + AsyncBinaryLogFactory.JOURNAL_SUFFIX);
+    // wait for the writer to sync flush the batches, then take the journal as it is mid run
+    long length = -1;
+    while (journal.length() == 0 || journal.length() != length)
+    {
+      length = journal.length();
+      Thread.sleep(50);
+    }
+    File crashed = new File(directory, "crashed" + AsyncBinaryLogFactory.JOURNAL_SUFFIX);
+    Files.copy(journal.toPath(), crashed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    factory.close();
+
+    String rendered = render(crashed);
+    assertEquals(100, rendered.split("\n").length - 1, rendered);
+    assertTrue(rendered.contains("34=99|"));
+    assertTrue(rendered.endsWith("ends where its run stopped writing\n"), rendered);
+
+    // a second run keeps the first run's journal apart
+    Files.copy(crashed.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    factory = new AsyncBinaryLogFactory(settings);
+    factory.create(sessionID).onEvent("second run");
+    factory.close();
+    assertTrue(render(journal).endsWith("EVENT second run\n"));
+    assertEquals(3, directory.list().length);
+  }
+
+  static private String render(File journal) throws Exception
+  {
+    PrintStream out = System.out;
+    ByteArrayOutputStream captured = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(captured, true));
+    try
+    {
+      BinaryLogRenderer.render(journal.getPath(), false, true, true);
+    }
+    finally
+    {
+      System.setOut(out);
+    }
+    return captured.toString().replace(System.lineSeparator(), "\n");
+  }
+}
@@ -0,0 +1,90 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import quickfix.Message;
+import quickfix.SessionID;
+import quickfix.field.MsgSeqNum;
+
+public class CallbackDispatcherTest
+{
+  /**
+   * On a pool, each session's messages are handled one at a time in the order they arrived, while
+   * several threads dispatch them
+   */
+  @Test
+  public void executorKeepsSessionOrder() throws Exception
+  {
+    int sessions = 3;
+    int perSession = 5000;
+    SessionID[] ids = new SessionID[sessions];
+    ConcurrentHashMap<SessionID, AtomicInteger> last = new ConcurrentHashMap<SessionID, AtomicInteger>();
+    ConcurrentHashMap<SessionID, AtomicBoolean> handling = new ConcurrentHashMap<SessionID, AtomicBoolean>();
+    for (int s = 0; s < sessions; s++)
+    {
+      ids[s] = new SessionID("FIX.4.4", "dispatch_client" + s, "FXCM");
+      last.put(ids[s], new AtomicInteger());
+      handling.put(ids[s], new AtomicBoolean());
+    }
+    List<String> failures = new CopyOnWriteArrayList<String>();
+    CountDownLatch done = new CountDownLatch(sessions * perSession);
+    CallbackDispatcher dispatcher = new CallbackDispatcher(CallbackDispatcher.Model.EXECUTOR, 4,
+      (message, sessionID, arrivedNanos) ->
+      {
+        try
+        {
+          if (!handling.get(sessionID).compareAndSet(false, true))
+            failures.add(sessionID + " handled on two threads at once");
+          int sequence = message.getHeader().getInt(MsgSeqNum.FIELD);
+          int previous = last.get(sessionID).getAndSet(sequence);
+          if (sequence != previous + 1)
+            failures.add(sessionID + " handled " + sequence + " after " + previous);
+          handling.get(sessionID).set(false);
+        }
+        catch (Exception e)
+        {
+          failures.add(e.toString());
+        }
+        done.countDown();
+      }, null);
+    try
+    {
+      // a thread per session, as each session has a callback thread of its own
+      Thread[] threads = new Thread[sessions];
+      for (int s = 0; s < sessions; s++)
+      {
+        SessionID sessionID = ids[s];
+        threads[s] = new Thread(() ->
+        {
+          for (int i = 1; i <= perSession; i++)
+          {
+            Message message = new Message();
+            message.getHeader().setInt(MsgSeqNum.FIELD, i);
+            dispatcher.dispatch(message, sessionID, System.nanoTime());
+          }
+        });
+        threads[s].start();
+      }
+      for (Thread thread : threads)
+        thread.join();
+      assertTrue(done.await(30, TimeUnit.SECONDS), done.getCount() + " messages not handled");
+    }
+    finally
+    {
+      dispatcher.close();
+    }
+    assertTrue(failures.isEmpty(), failures.size() + " failures, first " + (failures.isEmpty() ? "" : failures.get(0)));
+    for (SessionID sessionID : ids)
+      assertEquals(perSession, last.get(sessionID).get());
+    assertEquals(CallbackDispatcher.Model.EXECUTOR, dispatcher.getModel());
+  }
+}
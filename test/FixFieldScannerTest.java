@@ -0,0 +1,98 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import quickfix.DefaultMessageFactory;
+import quickfix.DefaultSessionFactory;
+import quickfix.MemoryStoreFactory;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+import quickfix.field.MDEntryPx;
+import quickfix.field.MDEntryType;
+import quickfix.field.MDReqID;
+import quickfix.field.Symbol;
+import quickfix.fix44.MarketDataSnapshotFullRefresh;
+
+public class FixFieldScannerTest
+{
+  /**
+   * A snapshot with more entries than the scanner keeps is left to the full parse, which applies its
+   * last entries too
+   */
+  @Test
+  public void snapshotOverOccurrencesFallsBackToParse() throws Exception
+  {
+    // 9 bid and offer pairs, 18 entries, the last pair the top of book
+    MarketDataSnapshotFullRefresh snapshot = snapshot("EUR/USD", 9);
+    FixFieldScanner scanner = new FixFieldScanner(35, 55, 269, 270, 9095).wrap(snapshot.toString());
+    assertTrue(scanner.isTruncated());
+    assertEquals(16, scanner.count(MDEntryType.FIELD));
+
+    TopOfBookCache cache = new TopOfBookCache(9095, 4);
+    assertEquals(-1, cache.update(scanner, 1));
+    assertFalse(cache.contains("EUR/USD"));
+    cache.update(snapshot, 1);
+    TopOfBookCache.Quote quote = new TopOfBookCache.Quote();
+    assertTrue(cache.read("EUR/USD", quote));
+    assertEquals(1.9, quote.getBid());
+    assertEquals(2.9, quote.getOffer());
+
+    SessionID sessionID = new SessionID("FIX.4.4", "fxcm_client", "FXCM");
+    MyApp app = start(sessionID);
+    assertFalse(app.fromRaw(snapshot.toString(), sessionID));
+    assertFalse(app.getInstruments(sessionID).contains("EUR/USD"));
+    // a snapshot within the occurrences kept takes the fast path
+    MarketDataSnapshotFullRefresh top = snapshot("USD/JPY", 1);
+    assertFalse(new FixFieldScanner(35, 269, 270).wrap(top.toString()).isTruncated());
+    assertTrue(app.fromRaw(top.toString(), sessionID));
+    assertTrue(app.getInstruments(sessionID).contains("USD/JPY"));
+  }
+
+  /**
+   * Build a snapshot of pairs of bid and offer entries, bid 1.1, 1.2, ... and offer 2.1, 2.2, ...
+   */
+  static private MarketDataSnapshotFullRefresh snapshot(String symbol, int pairs)
+  {
+    MarketDataSnapshotFullRefresh snapshot = new MarketDataSnapshotFullRefresh();
+    snapshot.getHeader().setString(49, "FXCM");
+    snapshot.getHeader().setString(56, "fxcm_client");
+    snapshot.getHeader().setInt(34, 1);
+    snapshot.getHeader().setString(52, "20261018-12:00:00.000");
+    snapshot.set(new MDReqID("1"));
+    snapshot.set(new Symbol(symbol));
+    snapshot.setDouble(9095, 1);
+    for (int i = 1; i <= pairs; i++)
+    {
+      MarketDataSnapshotFullRefresh.NoMDEntries entry = new MarketDataSnapshotFullRefresh.NoMDEntries();
+      entry.set(new MDEntryType(MDEntryType.BID));
+      entry.set(new MDEntryPx(1 + i / 10.0));
+      snapshot.addGroup(entry);
+      entry = new MarketDataSnapshotFullRefresh.NoMDEntries();
+      entry.set(new MDEntryType(MDEntryType.OFFER));
+      entry.set(new MDEntryPx(2 + i / 10.0));
+      snapshot.addGroup(entry);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Start a MyApp with a never connected session
+   */
+  static private MyApp start(SessionID sessionID) throws Exception
+  {
+    SessionSettings settings = new SessionSettings();
+    settings.setString("username", "test");
+    settings.setString("password", "test");
+    settings.setString(sessionID, "ConnectionType", "initiator");
+    settings.setString(sessionID, "StartTime", "00:00:00");
+    settings.setString(sessionID, "EndTime", "00:00:00");
+    settings.setString(sessionID, "HeartBtInt", "30");
+    settings.setString(sessionID, "UseDataDictionary", "N");
+    MyApp app = new MyApp(settings);
+    new DefaultSessionFactory(app, new MemoryStoreFactory(), null, new DefaultMessageFactory())
+      .create(sessionID, settings);
+    return app;
+  }
+}
@@ -0,0 +1,48 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+public class IdGeneratorTest
+{
+  /**
+   * Threads taking ClOrdIDs from one generator at once never get the same id twice
+   */
+  @Test
+  public void idsAreUniqueAcrossThreads() throws Exception
+  {
+    IdGenerator ids = new IdGenerator("T");
+    Set<String> issued = ConcurrentHashMap.newKeySet();
+    int perThread = 20000;
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++)
+    {
+      threads[t] = new Thread(() ->
+      {
+        for (int i = 0; i < perThread; i++)
+          issued.add(ids.next());
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    assertEquals(threads.length * perThread, issued.size());
+    for (String id : issued)
+      assertTrue(id.startsWith(ids.getPrefix()), id);
+  }
+
+  /**
+   * Generators created at different times, as by a restarted process, issue different ids
+   */
+  @Test
+  public void restartDoesNotReissueIds()
+  {
+    IdGenerator before = new IdGenerator(1000, "T");
+    IdGenerator after = new IdGenerator(2000, "T");
+    assertNotEquals(before.next(), after.next());
+  }
+}
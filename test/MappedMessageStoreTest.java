@@ -0,0 +1,52 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MappedMessageStoreTest
+{
+  @TempDir
+  File directory;
+
+  /**
+   * A message too large for its slot is still there for a resend after a restart, and the side file is
+   * emptied once the ring has wrapped past it
+   */
+  @Test
+  public void largeMessagesSurviveRestart() throws Exception
+  {
+    File file = new File(directory, "session.journal");
+    File overflow = new File(directory, "session.journal.overflow");
+    String small = "8=FIX.4.4\u000135=0\u0001";
+    char[] padding = new char[200];
+    Arrays.fill(padding, 'x');
+    String large = "8=FIX.4.4\u000135=B\u000158=" + new String(padding) + "\u0001";
+
+    MappedMessageStore store = new MappedMessageStore(file, 4, 64, MappedMessageStore.Durability.SYNC, null, 0);
+    store.set(1, small);
+    store.set(2, large);
+    store.set(3, small);
+    store.setNextSenderMsgSeqNum(4);
+    store.close();
+
+    store = new MappedMessageStore(file, 4, 64, MappedMessageStore.Durability.SYNC, null, 0);
+    List<String> messages = new ArrayList<String>();
+    store.get(1, 3, messages);
+    assertEquals(Arrays.asList(small, large, small), messages);
+    assertEquals(4, store.getNextSenderMsgSeqNum());
+
+    // overwritten by the ring, the large message is gone along with its side file record
+    for (int sequence = 4; sequence <= 7; sequence++)
+      store.set(sequence, small);
+    messages.clear();
+    store.get(1, 7, messages);
+    assertEquals(4, messages.size());
+    assertEquals(0, overflow.length());
+    store.close();
+  }
+}
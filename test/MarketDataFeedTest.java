@@ -0,0 +1,74 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Stresses MarketDataFeed with a subscriber slow enough for the writer to lap it over and over
+ */
+public class MarketDataFeedTest
+{
+  static final private int SYMBOLS = 40;
+  // a ring far smaller than the symbols, so the writer laps the subscriber within one drain
+  static final private int CAPACITY = 16;
+  static final private int UPDATES = 400000;
+
+  /**
+   * However often it is lapped, the subscriber must end up with the last quote of every symbol
+   */
+  @Test
+  public void lappedSubscriberReceivesLastQuotes() throws Exception
+  {
+    TopOfBookCache book = new TopOfBookCache(9095, SYMBOLS);
+    String[] symbols = new String[SYMBOLS];
+    for (int s = 0; s < SYMBOLS; s++)
+    {
+      symbols[s] = "SYM" + s + "/USD";
+      book.restore(symbols[s], 0, 0, 0, 0, 1, 0);
+      assertEquals(symbols[s], book.getSymbol(s));
+    }
+    MarketDataFeed feed = new MarketDataFeed(book, CAPACITY, null);
+    ConcurrentHashMap<String, Double> received = new ConcurrentHashMap<String, Double>();
+    MarketDataFeed.Subscription subscription = feed.subscribe("slow", null, (symbol, quote) ->
+    {
+      // every quote is written with bid == offer, so a torn read would show here
+      assertEquals(quote.getBid(), quote.getOffer());
+      received.put(symbol, quote.getBid());
+      if (ThreadLocalRandom.current().nextInt(64) == 0)
+        Thread.yield();
+    });
+
+    double[] last = new double[SYMBOLS];
+    for (int u = 1; u <= UPDATES; u++)
+    {
+      // bursts on a few symbols, then the rest, so some symbols are only seen in overwritten entries
+      int slot = (u & 1023) < 900 ? u % 3 : u % SYMBOLS;
+      last[slot] = u;
+      book.restore(symbols[slot], u, u, u, u, 1, u);
+      feed.publish(slot, System.nanoTime());
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!delivered(received, symbols, last) && System.nanoTime() < deadline)
+      Thread.sleep(1);
+    subscription.close();
+    for (int s = 0; s < SYMBOLS; s++)
+      assertEquals(last[s], received.get(symbols[s]), "last quote of " + symbols[s]);
+    assertTrue(subscription.getOverruns() > 0, "the subscriber was never lapped");
+  }
+
+  static private boolean delivered(ConcurrentHashMap<String, Double> received, String[] symbols, double[] last)
+  {
+    for (int s = 0; s < symbols.length; s++)
+    {
+      Double bid = received.get(symbols[s]);
+      if (bid == null || bid != last[s])
+        return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,163 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import quickfix.DefaultMessageFactory;
+import quickfix.DefaultSessionFactory;
+import quickfix.MemoryStoreFactory;
+import quickfix.Message;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+import quickfix.field.MDReqID;
+import quickfix.field.MsgType;
+import quickfix.field.SubscriptionRequestType;
+import quickfix.field.Symbol;
+import quickfix.fix44.SecurityList;
+import quickfix.fix44.TradingSessionStatus;
+import quickfix.fix44.component.Instrument;
+
+public class MarketDataSubscriptionsTest
+{
+  /**
+   * Dropping a symbol while logged out keeps every other listed instrument wanted
+   */
+  @Test
+  public void unsubscribeWhileLoggedOutDropsOnlyThatSymbol() throws Exception
+  {
+    List<Message> sent = new ArrayList<Message>();
+    MarketDataSubscriptions subscriptions = new MarketDataSubscriptions(new IdGenerator("T"), null, sent::add);
+
+    subscriptions.unsubscribe(Arrays.asList("USD/JPY"));
+    assertEquals(2, subscriptions.listed(status("EUR/USD", "USD/JPY", "GBP/USD")));
+    assertEquals(new LinkedHashSet<String>(Arrays.asList("EUR/USD", "GBP/USD")), subscriptions.getSubscribed());
+
+    // and a later subscribe wants it again
+    subscriptions.clear();
+    subscriptions.subscribe(Arrays.asList("USD/JPY"));
+    subscriptions.listed(status("EUR/USD", "USD/JPY", "GBP/USD"));
+    assertEquals(3, subscriptions.getSubscribed().size());
+  }
+
+  /**
+   * Changes racing each other reach the session in the order they changed the subscriptions, so the
+   * last request sent for a symbol matches whether it ends up subscribed
+   */
+  @Test
+  public void requestsAreSentInOrder() throws Exception
+  {
+    List<Message> sent = new ArrayList<Message>();
+    MarketDataSubscriptions subscriptions = new MarketDataSubscriptions(new IdGenerator("T"), null, message ->
+    {
+      // widen the window between building a request and sending it
+      Thread.yield();
+      synchronized (sent)
+      {
+        sent.add(message);
+      }
+    });
+    subscriptions.listed(status("EUR/USD"));
+    List<String> symbol = Arrays.asList("EUR/USD");
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++)
+    {
+      boolean subscribing = t % 2 == 0;
+      threads[t] = new Thread(() ->
+      {
+        for (int i = 0; i < 2000; i++)
+        {
+          if (subscribing)
+            subscriptions.subscribe(symbol);
+          else
+            subscriptions.unsubscribe(symbol);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+
+    char last = 0;
+    synchronized (sent)
+    {
+      for (Message message : sent)
+      {
+        if (!MsgType.MARKET_DATA_REQUEST.equals(message.getHeader().getString(MsgType.FIELD)))
+          continue;
+        char type = message.getChar(SubscriptionRequestType.FIELD);
+        // a subscription alternates, never subscribing or dropping twice in a row
+        assertEquals(true, type != last, "request " + type + " repeated");
+        last = type;
+      }
+    }
+    assertEquals(last == SubscriptionRequestType.SNAPSHOT_UPDATES, subscriptions.getSubscribed().contains("EUR/USD"));
+  }
+
+  /**
+   * Dropping symbols sends the MDReqID each was subscribed with, one disable request per id, and the
+   * venue accepts every one of them
+   */
+  @Test
+  public void unsubscribeCarriesTheSubscribingMDReqID() throws Exception
+  {
+    SessionID sessionID = new SessionID("FIX.4.4", "FXCM", "subscriptions_client");
+    SessionSettings settings = new SessionSettings();
+    settings.setString("SimSymbols", "EUR/USD,USD/JPY,GBP/USD");
+    settings.setString("SimMarketDataIntervalMillis", "0");
+    settings.setString(sessionID, "ConnectionType", "acceptor");
+    settings.setString(sessionID, "StartTime", "00:00:00");
+    settings.setString(sessionID, "EndTime", "00:00:00");
+    settings.setString(sessionID, "UseDataDictionary", "N");
+    FXCMSimulator simulator = new FXCMSimulator(settings);
+    new DefaultSessionFactory(simulator, new MemoryStoreFactory(), null, new DefaultMessageFactory())
+      .create(sessionID, settings);
+    List<Message> sent = new ArrayList<Message>();
+    MarketDataSubscriptions subscriptions = new MarketDataSubscriptions(new IdGenerator("T"), Arrays.asList("EUR/USD"),
+      message ->
+      {
+        sent.add(message);
+        simulator.fromApp(message, sessionID);
+      });
+
+    subscriptions.listed(status("EUR/USD", "USD/JPY", "GBP/USD"));
+    subscriptions.subscribe(Arrays.asList("USD/JPY", "GBP/USD"));
+    List<String> subscribing = mdReqIDs(sent);
+    assertEquals(2, subscribing.size());
+    sent.clear();
+    assertEquals(3, subscriptions.unsubscribe(Arrays.asList("GBP/USD", "EUR/USD", "USD/JPY")));
+
+    // GBP/USD and USD/JPY share the second request, so theirs is cancelled first
+    assertEquals(Arrays.asList(subscribing.get(1), subscribing.get(0)), mdReqIDs(sent));
+    assertEquals(0, simulator.getRequestsRejected());
+    assertEquals(0, subscriptions.getSubscribed().size());
+  }
+
+  private static List<String> mdReqIDs(List<Message> sent) throws Exception
+  {
+    List<String> ids = new ArrayList<String>();
+    for (Message message : sent)
+    {
+      if (MsgType.MARKET_DATA_REQUEST.equals(message.getHeader().getString(MsgType.FIELD)))
+        ids.add(message.getString(MDReqID.FIELD));
+    }
+    return ids;
+  }
+
+  private static TradingSessionStatus status(String... symbols)
+  {
+    TradingSessionStatus status = new TradingSessionStatus();
+    for (String symbol : symbols)
+    {
+      SecurityList.NoRelatedSym group = new SecurityList.NoRelatedSym();
+      Instrument instrument = new Instrument();
+      instrument.set(new Symbol(symbol));
+      group.set(instrument);
+      status.addGroup(group);
+    }
+    return status;
+  }
+}
@@ -0,0 +1,78 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import quickfix.DataDictionary;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+import quickfix.field.MsgSeqNum;
+import quickfix.field.SenderCompID;
+import quickfix.field.SendingTime;
+import quickfix.field.TargetCompID;
+import quickfix.fix44.Heartbeat;
+
+public class MessageRecorderTest
+{
+  @TempDir
+  File directory;
+
+  /**
+   * A capture copied as a killed process would leave it replays up to its last batch, and nothing is
+   * recorded once the capture is closed
+   */
+  @Test
+  public void captureSurvivesCrash() throws Exception
+  {
+    SessionID sessionID = new SessionID("FIX.4.4", "FXCM", "recorder_client");
+    MessageRecorder recorder = new MessageRecorder(directory);
+    for (int i = 1; i <= 100; i++)
+    {
+      Heartbeat heartbeat = new Heartbeat();
+      heartbeat.getHeader().setString(SenderCompID.FIELD, sessionID.getSenderCompID());
+      heartbeat.getHeader().setString(TargetCompID.FIELD, sessionID.getTargetCompID());
+      heartbeat.getHeader().setInt(MsgSeqNum.FIELD, i);
+      heartbeat.getHeader().setUtcTimeStamp(SendingTime.FIELD, LocalDateTime.now());
+      assertTrue(recorder.record(sessionID, MessageRecorder.ADMIN, heartbeat.toString(), System.nanoTime()));
+    }
+    // wait for the writer to sync flush the batches, then take the capture as it is mid run
+    File capture = recorder.getFile();
+    long length = -1;
+    while (capture.length() == 0 || capture.length() != length)
+    {
+      length = capture.length();
+      Thread.sleep(50);
+    }
+    File crashed = new File(directory, "crashed" + MessageRecorder.SUFFIX);
+    Files.copy(capture.toPath(), crashed.toPath());
+    recorder.close();
+    assertFalse(recorder.record(sessionID, MessageRecorder.ADMIN, "8=FIX.4.4\u0001", System.nanoTime()));
+    assertEquals(100, recorder.getRecorded());
+
+    SessionSettings settings = new SessionSettings();
+    settings.setString("username", "replay");
+    settings.setString("password", "replay");
+    MessageReplayer replayer = new MessageReplayer(settings, new DataDictionary("appRun/FIXFXCM10.xml"));
+    PrintStream out = System.out;
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(printed, true));
+    try
+    {
+      replayer.replay(crashed, 0);
+    }
+    finally
+    {
+      System.setOut(out);
+    }
+    assertEquals(100, replayer.getReplayed());
+    assertTrue(printed.toString().contains("ends where its run stopped writing"), printed.toString());
+  }
+}
@@ -0,0 +1,65 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+import quickfix.Field;
+import quickfix.Message;
+import quickfix.field.Account;
+import quickfix.field.ClOrdID;
+import quickfix.field.OrderQty;
+import quickfix.field.Side;
+import quickfix.field.TimeInForce;
+import quickfix.field.TransactTime;
+import quickfix.fix44.CollateralReport;
+
+public class MessageTemplatesTest
+{
+  /**
+   * A template reused for the next order carries that order's fields and nothing left from the one
+   * before it, whatever changed in between
+   */
+  @Test
+  public void reusedOrderCarriesNoStaleFields() throws Exception
+  {
+    CollateralReport account = new CollateralReport();
+    account.set(new Account("A1"));
+    MessageTemplates templates = new MessageTemplates("FIXAPITEST");
+    MessageTemplates.Order order = templates.order(account, "EUR/USD");
+    assertSame(order, templates.order(account, "EUR/USD"));
+
+    order.set("C1", Side.BUY, 10000, TimeInForce.GOOD_TILL_CANCEL);
+    Message second = order.set("C2", Side.SELL, 20000, TimeInForce.IMMEDIATE_OR_CANCEL);
+    Message fresh = new MessageTemplates("FIXAPITEST").order(account, "EUR/USD")
+      .set("C2", Side.SELL, 20000, TimeInForce.IMMEDIATE_OR_CANCEL);
+    assertEquals(body(fresh), body(second));
+    assertEquals("C2", second.getString(ClOrdID.FIELD));
+    assertEquals(Side.SELL, second.getChar(Side.FIELD));
+    assertEquals(TimeInForce.IMMEDIATE_OR_CANCEL, second.getChar(TimeInForce.FIELD));
+    assertEquals(20000, second.getDouble(OrderQty.FIELD));
+
+    // back to a lot size formatted before
+    Message third = order.set("C3", Side.BUY, 10000, TimeInForce.GOOD_TILL_CANCEL);
+    assertEquals(10000, third.getDouble(OrderQty.FIELD));
+    assertEquals(Side.BUY, third.getChar(Side.FIELD));
+  }
+
+  /**
+   * The body fields of a message by tag, but for the transaction time, which moves from send to send
+   */
+  static private Map<Integer, Object> body(Message message)
+  {
+    Map<Integer, Object> fields = new TreeMap<Integer, Object>();
+    for (Iterator<Field<?>> i = message.iterator(); i.hasNext();)
+    {
+      Field<?> field = i.next();
+      if (field.getTag() != TransactTime.FIELD)
+        fields.put(field.getTag(), field.getObject().toString());
+    }
+    return fields;
+  }
+}
@@ -0,0 +1,29 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import quickfix.fix44.ExecutionReport;
+
+public class OrderPipelineTest
+{
+  /**
+   * An order never answered times out of the window and out of the pending requests, and a report
+   * arriving after that is not matched to it
+   */
+  @Test
+  public void timeoutLeavesNothingPending() throws Exception
+  {
+    RequestCorrelator<ExecutionReport> orders = new RequestCorrelator<ExecutionReport>();
+    OrderPipeline pipeline = new OrderPipeline(1, 50, TimeUnit.MILLISECONDS);
+    CompletableFuture<ExecutionReport> ack = pipeline.submit(() -> orders.register("C1"));
+    assertTrue(pipeline.drain(5, TimeUnit.SECONDS));
+    assertTrue(ack.isCompletedExceptionally());
+    assertEquals(0, orders.size());
+    assertEquals(-1, orders.complete("C1", new ExecutionReport()));
+    assertTrue(pipeline.report("Orders").contains("1 sent, 0 acked, 1 failed"), pipeline.report("Orders"));
+  }
+}
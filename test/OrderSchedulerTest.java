@@ -0,0 +1,87 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class OrderSchedulerTest
+{
+  /**
+   * A closing order queued behind opening ones goes out as soon as the next token allows
+   */
+  @Test
+  public void closingOrdersGoFirst() throws Exception
+  {
+    // one token to start with, then one every 100 ms
+    OrderScheduler scheduler = new OrderScheduler("closing-first", 10, 1, 1, null);
+    List<String> sent = new ArrayList<String>();
+    CountDownLatch done = new CountDownLatch(4);
+    try
+    {
+      for (String order : new String[] { "O1", "O2", "O3" })
+        scheduler.submit(OrderScheduler.Lane.OPENING, task(order, sent, done));
+      scheduler.submit(OrderScheduler.Lane.CLOSING, task("C1", sent, done));
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+    finally
+    {
+      scheduler.close();
+    }
+    synchronized (sent)
+    {
+      assertTrue(sent.indexOf("C1") < sent.indexOf("O2"), sent.toString());
+      assertEquals(sent.indexOf("O2") + 1, sent.indexOf("O3"), sent.toString());
+    }
+  }
+
+  /**
+   * Past the burst, orders go out no faster than the rate
+   */
+  @Test
+  public void ordersArePacedToTheRate() throws Exception
+  {
+    int orders = 11;
+    // a token every 50 ms, so the 10 orders after the first take at least 500 ms
+    OrderScheduler scheduler = new OrderScheduler("paced", 20, 1, 16, new LatencyHistogram());
+    List<String> sent = new ArrayList<String>();
+    CountDownLatch done = new CountDownLatch(orders);
+    long start = System.nanoTime();
+    try
+    {
+      for (int i = 0; i < orders; i++)
+        scheduler.submit(OrderScheduler.Lane.OPENING, task("O" + i, sent, done));
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+    finally
+    {
+      scheduler.close();
+    }
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue(elapsedMillis >= 450, elapsedMillis + " ms");
+    assertEquals(orders, sent.size());
+    assertTrue(scheduler.getThrottled() > 0);
+  }
+
+  static private OrderScheduler.Task task(String order, List<String> sent, CountDownLatch done)
+  {
+    return new OrderScheduler.Task()
+    {
+      public void send()
+      {
+        synchronized (sent)
+        {
+          sent.add(order);
+        }
+        done.countDown();
+      }
+
+      public void reject(Exception cause)
+      {
+      }
+    };
+  }
+}
@@ -0,0 +1,69 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class PositionBookTest
+{
+  /**
+   * However many ticks and tickets went through, an account's P&L matches the sum of its symbols' and
+   * is exactly flat once every ticket is closed
+   */
+  @Test
+  public void accountPnlDoesNotDrift()
+  {
+    String[] symbols = { "EUR/USD", "USD/JPY", "GBP/USD" };
+    PositionBook book = new PositionBook();
+    Random random = new Random(7);
+    for (int i = 0; i < 200000; i++)
+    {
+      String symbol = symbols[random.nextInt(symbols.length)];
+      double price = 1 + random.nextDouble();
+      if (random.nextInt(8) == 0)
+      {
+        String ticket = "T" + random.nextInt(50);
+        if (!book.close(ticket))
+          book.open(ticket, "A1", symbol, random.nextBoolean(), 1000 * (1 + random.nextInt(100)), price);
+      }
+      else
+        book.mark(symbol, price, price + 0.0002);
+      if (i % 1000 == 0)
+      {
+        double sum = 0;
+        for (String each : symbols)
+          sum += book.getUnrealizedPnl("A1", each);
+        assertEquals(sum, book.getUnrealizedPnl("A1"), 1e-6 * Math.max(1, Math.abs(sum)));
+      }
+    }
+    for (int ticket = 0; ticket < 50; ticket++)
+      book.close("T" + ticket);
+    assertEquals(0, book.getTickets());
+    assertEquals(0.0, book.getUnrealizedPnl("A1"));
+    for (String symbol : symbols)
+      assertEquals(0.0, book.getNetQuantity(symbol));
+  }
+
+  /**
+   * The net quantity of a symbol is read without waiting for the book's lock, and follows the tickets
+   */
+  @Test
+  public void netQuantityReadsWithoutTheLock() throws Exception
+  {
+    PositionBook book = new PositionBook();
+    book.open("T1", "A1", "EUR/USD", true, 3000, 1.1);
+    book.open("T2", "A2", "EUR/USD", false, 1000, 1.1);
+    synchronized (book)
+    {
+      // a thread marking the book holds its lock, and the risk checks still read the positions
+      assertEquals(2000.0, CompletableFuture.supplyAsync(() -> book.getNetQuantity("EUR/USD")).get(5, TimeUnit.SECONDS));
+    }
+    book.close("T1");
+    assertEquals(-1000.0, book.getNetQuantity("EUR/USD"));
+    book.clear();
+    assertEquals(0.0, book.getNetQuantity("EUR/USD"));
+    assertEquals(0.0, book.getNetQuantity("USD/JPY"));
+  }
+}
@@ -0,0 +1,158 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import quickfix.DefaultMessageFactory;
+import quickfix.DefaultSessionFactory;
+import quickfix.MemoryStoreFactory;
+import quickfix.Message;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+import quickfix.field.Account;
+import quickfix.field.AvgPx;
+import quickfix.field.ClOrdID;
+import quickfix.field.CumQty;
+import quickfix.field.ExecID;
+import quickfix.field.ExecType;
+import quickfix.field.LeavesQty;
+import quickfix.field.MDEntryPx;
+import quickfix.field.MDEntryType;
+import quickfix.field.MDReqID;
+import quickfix.field.OrdStatus;
+import quickfix.field.OrderID;
+import quickfix.field.OrderQty;
+import quickfix.field.Side;
+import quickfix.field.Symbol;
+import quickfix.field.TimeInForce;
+import quickfix.fix44.CollateralReport;
+import quickfix.fix44.ExecutionReport;
+import quickfix.fix44.MarketDataSnapshotFullRefresh;
+
+public class PreTradeRiskTest
+{
+  /**
+   * A position held before the session's orders counts against the notional limit, and closing it is
+   * never refused
+   */
+  @Test
+  public void notionalCountsPositionsHeld() throws Exception
+  {
+    PositionBook book = new PositionBook();
+    book.open("T1", "A1", "EUR/USD", true, 90000, 1.0);
+    PreTradeRisk risk = new PreTradeRisk(0, 100000, 0, 0, new LatencyHistogram());
+    risk.setPositions(book::getNetQuantity);
+
+    PreTradeRisk.Rejection rejection = assertThrows(PreTradeRisk.Rejection.class,
+      () -> risk.check("A1", "EUR/USD", true, 20000, 1.0, false));
+    assertEquals(PreTradeRisk.Check.NOTIONAL, rejection.getCheck());
+    risk.check("A1", "EUR/USD", false, 90000, 1.0, true);
+    assertEquals(-90000, risk.getNetQuantity("EUR/USD"));
+
+    // once filled the order moves from in flight to the book
+    book.close("T1");
+    risk.filled("EUR/USD", false, 90000);
+    assertEquals(0, risk.getNetQuantity("EUR/USD"));
+    risk.check("A1", "EUR/USD", true, 90000, 1.0, false);
+  }
+
+  /**
+   * An order that never fills gives back the margin it reserved
+   */
+  @Test
+  public void releaseGivesBackMargin() throws Exception
+  {
+    PreTradeRisk risk = new PreTradeRisk(0, 0, 0.05, 0, new LatencyHistogram());
+    risk.collateral("A1", 1000);
+    double margin = risk.check("A1", "EUR/USD", true, 10000, 1.0, false);
+    assertEquals(500, margin);
+    assertEquals(500, risk.getMarginAvailable("A1"));
+    risk.release("A1", "EUR/USD", true, 10000, margin);
+    assertEquals(1000, risk.getMarginAvailable("A1"));
+    assertEquals(0, risk.getNetQuantity("EUR/USD"));
+  }
+
+  /**
+   * An order keeps what it reserved past the venue's ack, and gives it all back when a later report
+   * rejects it
+   */
+  @Test
+  public void rejectAfterAckGivesBackMargin() throws Exception
+  {
+    SessionID sessionID = new SessionID("FIX.4.4", "risk_client", "FXCM");
+    List<Message> sent = new ArrayList<Message>();
+    SessionSettings settings = new SessionSettings();
+    settings.setString("username", "test");
+    settings.setString("password", "test");
+    settings.setString("RiskMarginRatio", "0.05");
+    settings.setString(sessionID, "ConnectionType", "initiator");
+    settings.setString(sessionID, "StartTime", "00:00:00");
+    settings.setString(sessionID, "EndTime", "00:00:00");
+    settings.setString(sessionID, "HeartBtInt", "30");
+    settings.setString(sessionID, "UseDataDictionary", "N");
+    MyApp app = new MyApp(settings)
+    {
+      @Override
+      public void send(Message message, SessionID sessionID)
+      {
+        sent.add(message);
+      }
+    };
+    new DefaultSessionFactory(app, new MemoryStoreFactory(), null, new DefaultMessageFactory())
+      .create(sessionID, settings);
+    app.fromApp(snapshot("EUR/USD", 1.0, 1.0), sessionID);
+    PreTradeRisk risk = app.getPreTradeRisk(sessionID);
+    risk.collateral("A1", 1000);
+    CollateralReport account = new CollateralReport();
+    account.set(new Account("A1"));
+
+    CompletableFuture<ExecutionReport> response = app.sendMarketOrder(sessionID, account, new Side(Side.BUY),
+      new Symbol("EUR/USD"), new OrderQty(10000), new TimeInForce(TimeInForce.GOOD_TILL_CANCEL));
+    String clOrdID = sent.get(0).getString(ClOrdID.FIELD);
+    assertEquals(500, risk.getMarginAvailable("A1"));
+
+    // the ack answers the order but leaves it working
+    app.fromApp(report(clOrdID, ExecType.NEW, OrdStatus.NEW), sessionID);
+    assertTrue(response.isDone());
+    assertEquals(500, risk.getMarginAvailable("A1"));
+    assertEquals(10000, risk.getNetQuantity("EUR/USD"));
+
+    app.fromApp(report(clOrdID, ExecType.REJECTED, OrdStatus.REJECTED), sessionID);
+    assertEquals(1000, risk.getMarginAvailable("A1"));
+    assertEquals(0, risk.getNetQuantity("EUR/USD"));
+    assertFalse(response.isCompletedExceptionally());
+  }
+
+  static private ExecutionReport report(String clOrdID, char execType, char ordStatus)
+  {
+    ExecutionReport report = new ExecutionReport(new OrderID("O1"), new ExecID("E" + execType),
+      new ExecType(execType), new OrdStatus(ordStatus), new Side(Side.BUY),
+      new LeavesQty(ordStatus == OrdStatus.NEW ? 10000 : 0), new CumQty(0), new AvgPx(0));
+    report.set(new ClOrdID(clOrdID));
+    report.set(new Account("A1"));
+    report.set(new Symbol("EUR/USD"));
+    return report;
+  }
+
+  static private MarketDataSnapshotFullRefresh snapshot(String symbol, double bid, double offer)
+  {
+    MarketDataSnapshotFullRefresh snapshot = new MarketDataSnapshotFullRefresh();
+    snapshot.set(new MDReqID("1"));
+    snapshot.set(new Symbol(symbol));
+    snapshot.setDouble(9095, 1);
+    for (char type : new char[] { MDEntryType.BID, MDEntryType.OFFER })
+    {
+      MarketDataSnapshotFullRefresh.NoMDEntries entry = new MarketDataSnapshotFullRefresh.NoMDEntries();
+      entry.set(new MDEntryType(type));
+      entry.set(new MDEntryPx(type == MDEntryType.BID ? bid : offer));
+      snapshot.addGroup(entry);
+    }
+    return snapshot;
+  }
+}
@@ -0,0 +1,23 @@
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class RequestCorrelatorTest
+{
+  /**
+   * The round trip of a request registered ahead of being sent leaves out the wait before it went out
+   */
+  @Test
+  public void roundTripStartsWhenSent() throws Exception
+  {
+    RequestCorrelator<String> requests = new RequestCorrelator<String>();
+    requests.register("C1");
+    // queued behind the rate limit
+    Thread.sleep(200);
+    requests.sent("C1");
+    long elapsed = requests.complete("C1", "report");
+    assertTrue(elapsed >= 0 && elapsed < TimeUnit.MILLISECONDS.toNanos(100), elapsed + " ns");
+  }
+}
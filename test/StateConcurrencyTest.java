@@ -0,0 +1,227 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import quickfix.DefaultMessageFactory;
+import quickfix.DefaultSessionFactory;
+import quickfix.MemoryStoreFactory;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+import quickfix.field.Account;
+import quickfix.field.AvgPx;
+import quickfix.field.ClOrdID;
+import quickfix.field.CumQty;
+import quickfix.field.ExecID;
+import quickfix.field.ExecType;
+import quickfix.field.LastQty;
+import quickfix.field.LeavesQty;
+import quickfix.field.MDEntryPx;
+import quickfix.field.MDEntryType;
+import quickfix.field.MDReqID;
+import quickfix.field.OrdStatus;
+import quickfix.field.OrderID;
+import quickfix.field.Side;
+import quickfix.field.Symbol;
+import quickfix.fix44.ExecutionReport;
+import quickfix.fix44.MarketDataSnapshotFullRefresh;
+
+/**
+ * Readers of the session state racing the callback thread that writes it
+ */
+public class StateConcurrencyTest
+{
+  static final private int READERS = 4;
+  static final private int SYMBOLS = 64;
+
+  /**
+   * Readers never see a torn quote or a quote going back in time, while the writer updates the symbols
+   * and adds new ones, growing the cache under them
+   */
+  @Test
+  public void quotesAreNeverTorn() throws Exception
+  {
+    TopOfBookCache cache = new TopOfBookCache(9095, 4);
+    String[] symbols = symbols();
+    AtomicBoolean writing = new AtomicBoolean(true);
+    List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+    Thread[] readers = readers(failures, () ->
+    {
+      TopOfBookCache.Quote quote = new TopOfBookCache.Quote();
+      double[] last = new double[SYMBOLS];
+      while (writing.get())
+      {
+        for (int s = 0; s < SYMBOLS; s++)
+        {
+          if (!cache.read(symbols[s], quote))
+            continue;
+          // every update quotes offer = bid + 0.5 at the time of its bid
+          assertEquals(quote.getBid() + 0.5, quote.getOffer(), symbols[s]);
+          assertEquals((long)quote.getBid(), quote.getTime(), symbols[s]);
+          assertTrue(quote.getBid() >= last[s], symbols[s] + " went back from " + last[s] + " to " + quote.getBid());
+          last[s] = quote.getBid();
+        }
+      }
+    });
+    for (int k = 1; k <= 4000; k++)
+    {
+      // a symbol more every 50 updates, the rest quoted on every round
+      for (int s = 0; s < Math.min(SYMBOLS, k / 50 + 1); s++)
+        cache.update(snapshot(symbols[s], k), k);
+    }
+    writing.set(false);
+    join(readers, failures);
+    assertEquals(SYMBOLS, cache.size());
+  }
+
+  /**
+   * Readers see the orders, positions and instruments of a session only ever grow while the callback
+   * thread adds them, and none of the writes is lost
+   */
+  @Test
+  public void mapsLoseNoUpdates() throws Exception
+  {
+    SessionID sessionID = new SessionID("FIX.4.4", "state_client", "FXCM");
+    MyApp app = start(sessionID);
+    String[] symbols = symbols();
+    AtomicBoolean writing = new AtomicBoolean(true);
+    List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+    Thread[] readers = readers(failures, () ->
+    {
+      int orders = 0;
+      int positions = 0;
+      int instruments = 0;
+      while (writing.get())
+      {
+        Set<OrderID> placed = app.getOrdersPlaced(sessionID);
+        Set<String> executed = app.getPositionsExecuted(sessionID);
+        Set<String> quoted = app.getInstruments(sessionID);
+        assertTrue(placed.size() >= orders, "orders went from " + orders + " to " + placed.size());
+        assertTrue(executed.size() >= positions, "positions went from " + positions + " to " + executed.size());
+        assertTrue(quoted.size() >= instruments, "instruments went from " + instruments + " to " + quoted.size());
+        for (String posID : executed)
+          assertTrue(app.getPositionReport(sessionID, posID) != null, posID);
+        orders = placed.size();
+        positions = executed.size();
+        instruments = quoted.size();
+      }
+    });
+    int reports = 5000;
+    for (int i = 1; i <= reports; i++)
+    {
+      app.fromApp(report(i, symbols[i % SYMBOLS]), sessionID);
+      if (i % 10 == 0)
+        app.fromApp(snapshot(symbols[i / 10 % SYMBOLS], i), sessionID);
+    }
+    writing.set(false);
+    join(readers, failures);
+    assertEquals(reports, app.getOrdersPlaced(sessionID).size());
+    // every other report is a fill opening a ticket of its own
+    assertEquals(reports / 2, app.getPositionsExecuted(sessionID).size());
+    assertEquals(reports / 2, app.getPositionBook(sessionID).getTickets());
+    assertEquals(SYMBOLS, app.getInstruments(sessionID).size());
+  }
+
+  static private Thread[] readers(List<Throwable> failures, Runnable reader)
+  {
+    Thread[] readers = new Thread[READERS];
+    for (int r = 0; r < READERS; r++)
+    {
+      readers[r] = new Thread(() ->
+      {
+        try
+        {
+          reader.run();
+        }
+        catch (Throwable e)
+        {
+          failures.add(e);
+        }
+      }, "reader-" + r);
+      readers[r].start();
+    }
+    return readers;
+  }
+
+  static private void join(Thread[] readers, List<Throwable> failures) throws InterruptedException
+  {
+    for (Thread reader : readers)
+      reader.join();
+    if (!failures.isEmpty())
+      throw new AssertionError(failures.size() + " readers failed", failures.get(0));
+  }
+
+  static private String[] symbols()
+  {
+    String[] symbols = new String[SYMBOLS];
+    for (int s = 0; s < SYMBOLS; s++)
+      symbols[s] = "S" + s + "/USD";
+    return symbols;
+  }
+
+  /**
+   * Build an execution report of order i, a fill of its own ticket when i is even
+   */
+  static private ExecutionReport report(int i, String symbol)
+  {
+    boolean fill = i % 2 == 0;
+    ExecutionReport report = new ExecutionReport(new OrderID("O" + i), new ExecID("E" + i),
+      new ExecType(fill ? ExecType.TRADE : ExecType.NEW), new OrdStatus(fill ? OrdStatus.FILLED : OrdStatus.NEW),
+      new Side(Side.BUY), new LeavesQty(fill ? 0 : 1000), new CumQty(fill ? 1000 : 0), new AvgPx(fill ? 1.5 : 0));
+    report.set(new ClOrdID("C" + i));
+    report.set(new Account("A1"));
+    report.set(new Symbol(symbol));
+    if (fill)
+    {
+      report.set(new LastQty(1000));
+      report.setString(9041, "P" + i);
+    }
+    return report;
+  }
+
+  /**
+   * Build a snapshot quoting bid k and offer k + 0.5
+   */
+  static private MarketDataSnapshotFullRefresh snapshot(String symbol, int k)
+  {
+    MarketDataSnapshotFullRefresh snapshot = new MarketDataSnapshotFullRefresh();
+    snapshot.set(new MDReqID("1"));
+    snapshot.set(new Symbol(symbol));
+    snapshot.setDouble(9095, 1);
+    for (char type : new char[] { MDEntryType.BID, MDEntryType.OFFER })
+    {
+      MarketDataSnapshotFullRefresh.NoMDEntries entry = new MarketDataSnapshotFullRefresh.NoMDEntries();
+      entry.set(new MDEntryType(type));
+      entry.set(new MDEntryPx(type == MDEntryType.BID ? k : k + 0.5));
+      snapshot.addGroup(entry);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Start a MyApp with a never connected session
+   */
+  static private MyApp start(SessionID sessionID) throws Exception
+  {
+    SessionSettings settings = new SessionSettings();
+    settings.setString("username", "test");
+    settings.setString("password", "test");
+    // the fills are of an account the session never heard of, so keep them from being reconciled
+    settings.setString("PositionReconcileWindowMillis", "3600000");
+    settings.setString("PositionReconcileMaxFills", "1000000");
+    settings.setString(sessionID, "ConnectionType", "initiator");
+    settings.setString(sessionID, "StartTime", "00:00:00");
+    settings.setString(sessionID, "EndTime", "00:00:00");
+    settings.setString(sessionID, "HeartBtInt", "30");
+    settings.setString(sessionID, "UseDataDictionary", "N");
+    MyApp app = new MyApp(settings);
+    new DefaultSessionFactory(app, new MemoryStoreFactory(), null, new DefaultMessageFactory())
+      .create(sessionID, settings);
+    return app;
+  }
+}
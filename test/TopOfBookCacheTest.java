@@ -0,0 +1,81 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import quickfix.FieldNotFound;
+import quickfix.field.MDEntryPx;
+import quickfix.field.MDEntryType;
+import quickfix.field.MDReqID;
+import quickfix.field.Symbol;
+import quickfix.fix44.MarketDataSnapshotFullRefresh;
+
+public class TopOfBookCacheTest
+{
+  /**
+   * A snapshot that fails to parse part way leaves the quote as it was, and readable
+   */
+  @Test
+  public void malformedSnapshotLeavesSlotReadable() throws Exception
+  {
+    TopOfBookCache cache = new TopOfBookCache(9095, 4);
+    cache.update(snapshot("EUR/USD", 1.1, 1.2), 1);
+
+    // the bid parses, then an entry without its MDEntryType throws
+    MarketDataSnapshotFullRefresh malformed = snapshot("EUR/USD", 1.3, 1.4);
+    MarketDataSnapshotFullRefresh.NoMDEntries entry = new MarketDataSnapshotFullRefresh.NoMDEntries();
+    entry.set(new MDEntryPx(1.5));
+    malformed.addGroup(entry);
+    assertThrows(FieldNotFound.class, () -> cache.update(malformed, 2));
+
+    TopOfBookCache.Quote quote = new TopOfBookCache.Quote();
+    assertTimeoutPreemptively(Duration.ofSeconds(5), () -> cache.read("EUR/USD", quote));
+    assertEquals(1.1, quote.getBid());
+    assertEquals(1.2, quote.getOffer());
+    assertEquals(1, quote.getTime());
+  }
+
+  /**
+   * A raw snapshot with a price that fails to parse leaves the quote as it was, and readable
+   */
+  @Test
+  public void malformedRawSnapshotLeavesSlotReadable() throws Exception
+  {
+    TopOfBookCache cache = new TopOfBookCache(9095, 4);
+    FixFieldScanner scanner = new FixFieldScanner(35, 55, 269, 270, 9095);
+    cache.update(scanner.wrap(snapshot("EUR/USD", 1.1, 1.2).toString()), 1);
+
+    // the offer's price is not a number
+    String malformed = snapshot("EUR/USD", 1.3, 1.4).toString().replace("270=1.4\u0001", "270=1.4x\u0001");
+    assertThrows(NumberFormatException.class, () -> cache.update(scanner.wrap(malformed), 2));
+
+    TopOfBookCache.Quote quote = new TopOfBookCache.Quote();
+    assertTimeoutPreemptively(Duration.ofSeconds(5), () -> cache.read("EUR/USD", quote));
+    assertEquals(1.1, quote.getBid());
+    assertEquals(1.2, quote.getOffer());
+    assertEquals(1, quote.getTime());
+  }
+
+  static private MarketDataSnapshotFullRefresh snapshot(String symbol, double bid, double offer)
+  {
+    MarketDataSnapshotFullRefresh snapshot = new MarketDataSnapshotFullRefresh();
+    snapshot.getHeader().setString(49, "FXCM");
+    snapshot.getHeader().setString(56, "fxcm_client");
+    snapshot.getHeader().setInt(34, 1);
+    snapshot.getHeader().setString(52, "20261018-12:00:00.000");
+    snapshot.set(new MDReqID("1"));
+    snapshot.set(new Symbol(symbol));
+    snapshot.setDouble(9095, 1);
+    for (char type : new char[] { MDEntryType.BID, MDEntryType.OFFER })
+    {
+      MarketDataSnapshotFullRefresh.NoMDEntries entry = new MarketDataSnapshotFullRefresh.NoMDEntries();
+      entry.set(new MDEntryType(type));
+      entry.set(new MDEntryPx(type == MDEntryType.BID ? bid : offer));
+      snapshot.addGroup(entry);
+    }
+    return snapshot;
+  }
+}